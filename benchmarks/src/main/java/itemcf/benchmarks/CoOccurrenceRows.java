@@ -0,0 +1,92 @@
+package itemcf.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * CoOccurrenceRows is the full co-occurrence matrix of a SyntheticRatings, as CoOccurrenceMatrixGenerator computes it:
+ * row movieB holds, sorted, every movieA rated by a user who rated movieB, and the number of such users. It gives the
+ * reducer benchmarks the group sizes the real matrix would give them.
+ */
+final class CoOccurrenceRows {
+
+    /**
+     * Receives the sub-ratings of a user, as the Multiplication job writes them.
+     */
+    interface SubRatingVisitor {
+        void visit(int movieA, double subRating, int relation);
+    }
+
+    private final int[][] movies;
+    private final int[][] counts;
+
+    CoOccurrenceRows(SyntheticRatings ratings) {
+        int numMovies = ratings.numMovies();
+        int[] raterCounts = new int[numMovies + 1];
+        for (int i = 0; i < ratings.numRatings(); i++) {
+            raterCounts[ratings.movie(i) + 1]++;
+        }
+        for (int movie = 0; movie < numMovies; movie++) {
+            raterCounts[movie + 1] += raterCounts[movie];
+        }
+        int[] raters = new int[ratings.numRatings()];
+        int[] next = Arrays.copyOf(raterCounts, numMovies);
+        for (int user = 0; user < ratings.numUsers(); user++) {
+            for (int i = ratings.start(user); i < ratings.end(user); i++) {
+                raters[next[ratings.movie(i)]++] = user;
+            }
+        }
+
+        movies = new int[numMovies][];
+        counts = new int[numMovies][];
+        int[] cellCounts = new int[numMovies];
+        int[] touched = new int[numMovies];
+        for (int movieB = 0; movieB < numMovies; movieB++) {
+            int numTouched = 0;
+            for (int r = raterCounts[movieB]; r < raterCounts[movieB + 1]; r++) {
+                int user = raters[r];
+                for (int i = ratings.start(user); i < ratings.end(user); i++) {
+                    if (cellCounts[ratings.movie(i)]++ == 0) {
+                        touched[numTouched++] = ratings.movie(i);
+                    }
+                }
+            }
+            Arrays.sort(touched, 0, numTouched);
+            movies[movieB] = Arrays.copyOf(touched, numTouched);
+            counts[movieB] = new int[numTouched];
+            for (int i = 0; i < numTouched; i++) {
+                counts[movieB][i] = cellCounts[touched[i]];
+                cellCounts[touched[i]] = 0;
+            }
+        }
+    }
+
+    int[] movies(int movieB) {
+        return movies[movieB];
+    }
+
+    int[] counts(int movieB) {
+        return counts[movieB];
+    }
+
+    /**
+     * Visits relation * rating and relation for every rated movieB of the user and every movieA of its row that the
+     * user has not rated.
+     */
+    void subRatings(SyntheticRatings ratings, int user, boolean[] seen, SubRatingVisitor visitor) {
+        for (int i = ratings.start(user); i < ratings.end(user); i++) {
+            seen[ratings.movie(i)] = true;
+        }
+        for (int i = ratings.start(user); i < ratings.end(user); i++) {
+            int movieB = ratings.movie(i);
+            for (int cell = 0; cell < movies[movieB].length; cell++) {
+                int movieA = movies[movieB][cell];
+                if (!seen[movieA]) {
+                    visitor.visit(movieA, counts[movieB][cell] * ratings.rating(i), counts[movieB][cell]);
+                }
+            }
+        }
+        for (int i = ratings.start(user); i < ratings.end(user); i++) {
+            seen[ratings.movie(i)] = false;
+        }
+    }
+}
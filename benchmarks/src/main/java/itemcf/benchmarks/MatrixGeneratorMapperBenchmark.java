@@ -0,0 +1,33 @@
+package itemcf.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Runs CoOccurrenceMatrixGenerator.MatrixGeneratorMapper over the DataDividerByUser output of every user, with and
+ * without coOccurrence.upperTriangle.
+ */
+public class MatrixGeneratorMapperBenchmark extends StageBenchmark {
+
+    @Param({"false", "true"})
+    public boolean upperTriangle;
+
+    @Setup
+    public void setUp() {
+        SyntheticRatings ratings = ratings();
+        Configuration conf = new Configuration();
+        conf.setBoolean((String) RecommenderClasses.constant(RecommenderClasses.load("CoOccurrenceMatrixGenerator"),
+                "UPPER_TRIANGLE"), upperTriangle);
+
+        Object[] keys = new Object[ratings.numUsers()];
+        Object[] values = new Object[ratings.numUsers()];
+        for (int user = 0; user < ratings.numUsers(); user++) {
+            keys[user] = new IntWritable(user);
+            values[user] = RecommenderClasses.movieRatingList(ratings, user);
+        }
+        task = TaskContexts.mapTask(RecommenderClasses.mapper("CoOccurrenceMatrixGenerator$MatrixGeneratorMapper"),
+                conf, keys, values);
+    }
+}
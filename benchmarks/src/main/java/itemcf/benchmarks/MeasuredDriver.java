@@ -0,0 +1,99 @@
+package itemcf.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MeasuredDriver runs the Driver in the child JVM of a ScalingBenchmark run and records the peak memory of the
+ * pipeline; in local mode the jobs run inside that JVM. A daemon thread samples the used heap every SAMPLE_MILLIS, and
+ * at exit (System.exit included, which the Driver calls when a stage fails) a shutdown hook writes the peak heap and
+ * the peak resident set size (VmHWM of /proc/self/status, -1 without /proc) into the memory file, as name \t bytes
+ * lines. The resident set includes what the jobs memory-map, such as the SeenItemsIndex.
+ *
+ * It takes the memory file followed by the arguments of the Driver.
+ */
+final class MeasuredDriver {
+    static final String PEAK_HEAP = "peakHeapBytes";
+    static final String PEAK_RSS = "peakRssBytes";
+
+    private static final long SAMPLE_MILLIS = 50;
+
+    private MeasuredDriver() {
+    }
+
+    public static void main(String[] args) {
+        final File memoryFile = new File(args[0]);
+        final AtomicLong peakHeap = new AtomicLong();
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Thread sampler = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    sample(memory, peakHeap);
+                    try {
+                        Thread.sleep(SAMPLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                sample(memory, peakHeap);
+                try {
+                    PrintWriter out = new PrintWriter(memoryFile, "UTF-8");
+                    try {
+                        out.println(PEAK_HEAP + "\t" + peakHeap.get());
+                        out.println(PEAK_RSS + "\t" + peakResidentBytes());
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Cannot write " + memoryFile + ": " + e);
+                }
+            }
+        }));
+
+        String[] driverArgs = new String[args.length - 1];
+        System.arraycopy(args, 1, driverArgs, 0, driverArgs.length);
+        RecommenderClasses.invoke(RecommenderClasses.load("Driver"), "main", (Object) driverArgs);
+    }
+
+    private static void sample(MemoryMXBean memory, AtomicLong peakHeap) {
+        long used = memory.getHeapMemoryUsage().getUsed();
+        long peak;
+        do {
+            peak = peakHeap.get();
+        } while (used > peak && !peakHeap.compareAndSet(peak, used));
+    }
+
+    /**
+     * Returns the peak resident set size of the process, or -1 if /proc/self/status is not there.
+     */
+    private static long peakResidentBytes() {
+        try {
+            List<String> lines = Files.readAllLines(new File("/proc/self/status").toPath(), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.startsWith("VmHWM:")) {
+                    // VmHWM:   123456 kB
+                    String[] fields = line.trim().split("\\s+");
+                    return Long.parseLong(fields[1]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not on Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,65 @@
+package itemcf.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs Multiplication.MultiplicationReducer over one group per movieB: the cells of its co-occurrence row, then the
+ * ratings of its raters, with the SeenItemsIndex of all the users in a temporary directory. The group sizes are the
+ * product of the popularity of movieB and the length of its row, so the skew of the popular movies shows here.
+ */
+public class MultiplicationReducerBenchmark extends StageBenchmark {
+
+    private Path dir;
+    private Configuration conf;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticRatings ratings = ratings();
+        CoOccurrenceRows rows = new CoOccurrenceRows(ratings);
+        conf = new Configuration();
+        dir = new Path(Files.createTempDirectory("multiplication").toUri());
+        conf.set("path", dir.toString());
+        RecommenderClasses.writeSeenItemsIndex(conf, ratings, dir);
+
+        List<List<Object>> raters = new ArrayList<List<Object>>();
+        for (int movie = 0; movie < ratings.numMovies(); movie++) {
+            raters.add(new ArrayList<Object>());
+        }
+        for (int user = 0; user < ratings.numUsers(); user++) {
+            for (int i = ratings.start(user); i < ratings.end(user); i++) {
+                raters.get(ratings.movie(i)).add(RecommenderClasses.rating(user, ratings.rating(i)));
+            }
+        }
+
+        List<Object> keys = new ArrayList<Object>();
+        List<Object[]> values = new ArrayList<Object[]>();
+        for (int movieB = 0; movieB < ratings.numMovies(); movieB++) {
+            int[] cells = rows.movies(movieB);
+            if (cells.length == 0) {
+                continue;
+            }
+            List<Object> group = new ArrayList<Object>();
+            for (int cell = 0; cell < cells.length; cell++) {
+                group.add(RecommenderClasses.relation(cells[cell], rows.counts(movieB)[cell]));
+            }
+            group.addAll(raters.get(movieB));
+            keys.add(RecommenderClasses.intPair(movieB, 0));
+            values.add(group.toArray());
+        }
+        task = TaskContexts.reduceTask(RecommenderClasses.reducer("Multiplication$MultiplicationReducer"), conf,
+                keys.toArray(), values.toArray(new Object[values.size()][]));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dir.getFileSystem(conf).delete(dir, true);
+    }
+}
@@ -0,0 +1,50 @@
+package itemcf.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs OverallRating.OverallRatingReducer over the user:movieA groups of the first scoredUsers users, each with one
+ * sub-rating per rated movie related to movieA, as the Multiplication job writes them. The combiner is left out, so
+ * the groups are as large as they get.
+ */
+public class OverallRatingReducerBenchmark extends StageBenchmark {
+
+    @Param("200")
+    public int scoredUsers;
+
+    @Setup
+    public void setUp() {
+        final SyntheticRatings ratings = ratings();
+        CoOccurrenceRows rows = new CoOccurrenceRows(ratings);
+        final List<List<Object>> subRatings = new ArrayList<List<Object>>();
+        for (int movie = 0; movie < ratings.numMovies(); movie++) {
+            subRatings.add(new ArrayList<Object>());
+        }
+        boolean[] seen = new boolean[ratings.numMovies()];
+
+        List<Object> keys = new ArrayList<Object>();
+        List<Object[]> values = new ArrayList<Object[]>();
+        for (int user = 0; user < Math.min(scoredUsers, ratings.numUsers()); user++) {
+            rows.subRatings(ratings, user, seen, new CoOccurrenceRows.SubRatingVisitor() {
+                public void visit(int movieA, double subRating, int relation) {
+                    subRatings.get(movieA).add(RecommenderClasses.sumWeight(subRating, relation));
+                }
+            });
+            for (int movieA = 0; movieA < ratings.numMovies(); movieA++) {
+                List<Object> group = subRatings.get(movieA);
+                if (!group.isEmpty()) {
+                    keys.add(RecommenderClasses.intPair(user, movieA));
+                    values.add(group.toArray());
+                    group.clear();
+                }
+            }
+        }
+        task = TaskContexts.reduceTask(RecommenderClasses.reducer("OverallRating$OverallRatingReducer"),
+                new Configuration(), keys.toArray(), values.toArray(new Object[values.size()][]));
+    }
+}
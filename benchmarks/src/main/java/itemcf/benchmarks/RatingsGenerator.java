@@ -0,0 +1,69 @@
+package itemcf.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * RatingsGenerator writes a seeded synthetic rating file in the input format of the Driver, one user,movie,rating line
+ * per rating, grouped by user. The movies of every user are drawn from SyntheticRatings.Histories: Zipf popularity of
+ * the given exponent, log-normal history lengths of the given mean and sigma. The users are streamed one after the
+ * other, so the file can be far larger than the memory.
+ *
+ * The histories are those of a SyntheticRatings of the same arguments (with historySigma 1); the ratings are drawn
+ * with a second generator as the users are written, so they differ from its ratings. The same arguments always give
+ * the same file.
+ *
+ * It takes the arguments: outputFile numUsers numMovies [zipfExponent (1.0)] [meanHistory (20)] [historySigma (1.0)]
+ * [seed (42)], and prints the number of ratings written.
+ */
+public final class RatingsGenerator {
+
+    private RatingsGenerator() {
+    }
+
+    /**
+     * Writes the ratings into the file and returns their number.
+     */
+    public static long write(File output, int numUsers, int numMovies, double zipfExponent, double meanHistory,
+            double historySigma, long seed) throws IOException {
+        SyntheticRatings.Histories histories = new SyntheticRatings.Histories(numMovies, zipfExponent, meanHistory,
+                historySigma, new Random(seed));
+        Random ratings = new Random(~seed);
+        int[] movies = new int[histories.maxHistory()];
+        long numRatings = 0;
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8),
+                1 << 16);
+        try {
+            StringBuilder line = new StringBuilder();
+            for (int user = 0; user < numUsers; user++) {
+                int size = histories.next(movies, 0);
+                for (int i = 0; i < size; i++) {
+                    line.setLength(0);
+                    line.append(user).append(',').append(movies[i]).append(',')
+                            .append(SyntheticRatings.rating(ratings)).append('\n');
+                    writer.append(line);
+                }
+                numRatings += size;
+            }
+        } finally {
+            writer.close();
+        }
+        return numRatings;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long numRatings = write(new File(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                args.length > 3 ? Double.parseDouble(args[3]) : 1.0,
+                args.length > 4 ? Double.parseDouble(args[4]) : 20,
+                args.length > 5 ? Double.parseDouble(args[5]) : SyntheticRatings.DEFAULT_HISTORY_SIGMA,
+                args.length > 6 ? Long.parseLong(args[6]) : 42);
+        System.out.println(numRatings);
+    }
+}
@@ -0,0 +1,140 @@
+package itemcf.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * RecommenderClasses creates the jobs and the Writables of the recommender. They live in the default package, which a
+ * named package cannot import (and JMH does not generate benchmarks in the default package), so they are loaded by
+ * name and filled through their public setters. This only happens while the input of a benchmark is built, never on
+ * the measured path: the jobs are run through the public Mapper.run and Reducer.run.
+ */
+final class RecommenderClasses {
+
+    private RecommenderClasses() {
+    }
+
+    static Class<?> load(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(className + " is not on the classpath", e);
+        }
+    }
+
+    static Object newInstance(String className, Configuration conf) {
+        return ReflectionUtils.newInstance(load(className), conf);
+    }
+
+    @SuppressWarnings("rawtypes")
+    static Mapper mapper(String className) {
+        return (Mapper) newInstance(className, null);
+    }
+
+    @SuppressWarnings("rawtypes")
+    static Reducer reducer(String className) {
+        return (Reducer) newInstance(className, null);
+    }
+
+    /**
+     * Calls the public method of the given name and number of arguments, and returns its result.
+     */
+    static Object invoke(Object target, String methodName, Object... args) {
+        Class<?> type = target instanceof Class ? (Class<?>) target : target.getClass();
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(methodName) && method.getParameterTypes().length == args.length) {
+                try {
+                    return method.invoke(target instanceof Class ? null : target, args);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                } catch (InvocationTargetException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        throw new IllegalStateException(type.getName() + " has no method " + methodName);
+    }
+
+    static Writable intPair(int first, int second) {
+        Writable pair = (Writable) newInstance("IntPairWritable", null);
+        invoke(pair, "set", first, second);
+        return pair;
+    }
+
+    static Writable movieRating(int movie, double rating) {
+        Writable movieRating = (Writable) newInstance("MovieRatingWritable", null);
+        invoke(movieRating, "set", movie, rating);
+        return movieRating;
+    }
+
+    static Writable sumWeight(double sum, long weight) {
+        Writable sumWeight = (Writable) newInstance("SumWeightWritable", null);
+        invoke(sumWeight, "set", sum, weight);
+        return sumWeight;
+    }
+
+    static Writable relation(int movie, int relation) {
+        Writable value = (Writable) newInstance("RelationOrRatingWritable", null);
+        invoke(value, "setRelation", movie, relation);
+        return value;
+    }
+
+    static Writable rating(int user, double rating) {
+        Writable value = (Writable) newInstance("RelationOrRatingWritable", null);
+        invoke(value, "setRating", user, rating);
+        return value;
+    }
+
+    /**
+     * Returns the ratings of the user as the MovieRatingListWritable of the DataDividerByUser output.
+     */
+    static Writable movieRatingList(SyntheticRatings ratings, int user) {
+        Writable list = (Writable) newInstance("MovieRatingListWritable", null);
+        for (int i = ratings.start(user); i < ratings.end(user); i++) {
+            invoke(list, "add", ratings.movie(i), ratings.rating(i));
+        }
+        return list;
+    }
+
+    /**
+     * Writes the ratings as the DataDividerByUser output in dir, and the SeenItemsIndex of the Multiplication
+     * reducers in dir (the "path" the reducers read it from).
+     */
+    static void writeSeenItemsIndex(Configuration conf, SyntheticRatings ratings, Path dir) throws IOException {
+        FileSystem fileSystem = dir.getFileSystem(conf);
+        Path userMovieListDir = new Path(dir, "userMovieList");
+        SequenceFile.Writer writer = SequenceFile.createWriter(fileSystem, conf,
+                new Path(userMovieListDir, "part-r-00000"), IntWritable.class, load("MovieRatingListWritable"));
+        IntWritable user = new IntWritable();
+        for (int u = 0; u < ratings.numUsers(); u++) {
+            user.set(u);
+            writer.append(user, movieRatingList(ratings, u));
+        }
+        writer.close();
+
+        Class<?> seenItemsIndex = load("SeenItemsIndex");
+        String fileName = (String) constant(seenItemsIndex, "FILE_NAME");
+        invoke(seenItemsIndex, "write", conf, userMovieListDir, new Path(dir, fileName));
+    }
+
+    static Object constant(Class<?> type, String name) {
+        try {
+            return type.getField(name).get(null);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package itemcf.benchmarks;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScalingBenchmark runs the whole Driver pipeline in local mode over generated rating files of growing size, to find
+ * the size at which a stage stops scaling before the production data get there: the co-occurrence and multiplication
+ * stages grow with the square of the history lengths, not with the number of ratings.
+ *
+ * For every number of ratings of the ladder, it writes a RatingsGenerator file of ratings / meanHistory users into
+ * workDir/[ratings]/ (kept, and reused by a later run with the same arguments), runs the Driver over it in a child JVM
+ * (MeasuredDriver) and reads the stage timings from the RunReport of the run. The child runs with -Xmx of
+ * scaling.heap (default 4g) and is killed after scaling.timeoutMinutes (default 240). The outputs of the pipeline are
+ * deleted after every run; the Driver log (driver.log), the report (report.json) and the peak memory (memory.txt) are
+ * kept. The ladder stops at the first run that fails or times out, as the larger ones would too.
+ *
+ * After every run, workDir/scaling.tsv is rewritten with one row per size: the target number of ratings, the ratings,
+ * users and movies generated, the status of the run, the generation time, the wall time of the pipeline, its peak heap
+ * and resident set size in MB, and the wall time of every stage (empty for a stage that did not run).
+ *
+ * It takes the arguments: workDir [ratingsLadder (1000000,10000000,50000000)] [numMovies (20000)] [zipfExponent (1.0)]
+ * [meanHistory (50)] [historySigma (1.0)] [k (10)], optionally followed by generic options for the Driver
+ * (e.g. -D coOccurrence.mode=stripes), which start at the first argument beginning with "-".
+ */
+public final class ScalingBenchmark {
+    public static final String HEAP = "scaling.heap";
+    public static final String TIMEOUT_MINUTES = "scaling.timeoutMinutes";
+
+    private static final long SEED = 42;
+    private static final long MB = 1 << 20;
+
+    private ScalingBenchmark() {
+    }
+
+    /**
+     * The measurements of the run over one size of the ladder.
+     */
+    private static class Run {
+        final long targetRatings;
+        final int numUsers;
+        final int numMovies;
+        long numRatings;
+        long generateMillis;
+        String status = "notRun";
+        long wallMillis = -1;
+        long peakHeapBytes = -1;
+        long peakRssBytes = -1;
+        final Map<String, Long> stageMillis = new LinkedHashMap<String, Long>();
+
+        Run(long targetRatings, int numUsers, int numMovies) {
+            this.targetRatings = targetRatings;
+            this.numUsers = numUsers;
+            this.numMovies = numMovies;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int positional = 0;
+        while (positional < args.length && !args[positional].startsWith("-")) {
+            positional++;
+        }
+        File workDir = new File(args[0]);
+        String ladder = positional > 1 ? args[1] : "1000000,10000000,50000000";
+        int numMovies = positional > 2 ? Integer.parseInt(args[2]) : 20000;
+        double zipfExponent = positional > 3 ? Double.parseDouble(args[3]) : 1.0;
+        double meanHistory = positional > 4 ? Double.parseDouble(args[4]) : 50;
+        double historySigma = positional > 5 ? Double.parseDouble(args[5]) : SyntheticRatings.DEFAULT_HISTORY_SIGMA;
+        String k = positional > 6 ? args[6] : "10";
+        List<String> driverOptions = Arrays.asList(args).subList(positional, args.length);
+
+        List<Run> runs = new ArrayList<Run>();
+        for (String size : ladder.split(",")) {
+            long targetRatings = Long.parseLong(size.trim());
+            int numUsers = (int) Math.max(1, Math.round(targetRatings / meanHistory));
+            runs.add(new Run(targetRatings, numUsers, numMovies));
+        }
+
+        for (Run run : runs) {
+            File runDir = new File(workDir, String.valueOf(run.targetRatings));
+            runDir.mkdirs();
+            File input = new File(runDir, String.format(Locale.ROOT, "ratings-%d-%d-%s-%s-%s-%d.csv",
+                    run.numUsers, run.numMovies, zipfExponent, meanHistory, historySigma, SEED));
+            long start = System.currentTimeMillis();
+            run.numRatings = generate(input, run, zipfExponent, meanHistory, historySigma);
+            run.generateMillis = System.currentTimeMillis() - start;
+            System.err.println("Running the Driver over " + run.numRatings + " ratings of " + run.numUsers + " users");
+
+            runDriver(runDir, input, k, driverOptions, run);
+            writeTable(new File(workDir, "scaling.tsv"), runs);
+            System.err.println(run.targetRatings + ": " + run.status + " in " + run.wallMillis + " ms, peak heap "
+                    + run.peakHeapBytes / MB + " MB");
+            if (!"succeeded".equals(run.status)) {
+                break;
+            }
+        }
+        System.out.print(new String(Files.readAllBytes(new File(workDir, "scaling.tsv").toPath()),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the input file, unless a file of the same arguments is there already, and returns its number of ratings.
+     */
+    private static long generate(File input, Run run, double zipfExponent, double meanHistory, double historySigma)
+            throws IOException {
+        File count = new File(input.getPath() + ".count");
+        if (input.exists() && count.exists()) {
+            return Long.parseLong(new String(Files.readAllBytes(count.toPath()), StandardCharsets.UTF_8).trim());
+        }
+        System.err.println("Generating " + input);
+        long numRatings = RatingsGenerator.write(input, run.numUsers, run.numMovies, zipfExponent, meanHistory,
+                historySigma, SEED);
+        Files.write(count.toPath(), String.valueOf(numRatings).getBytes(StandardCharsets.UTF_8));
+        return numRatings;
+    }
+
+    private static void runDriver(File runDir, File input, String k, List<String> driverOptions, Run run)
+            throws IOException, InterruptedException {
+        File output = new File(runDir, "out");
+        File report = new File(runDir, "report.json");
+        File memory = new File(runDir, "memory.txt");
+        delete(output);
+        report.delete();
+        memory.delete();
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-Xmx" + System.getProperty(HEAP, "4g"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MeasuredDriver.class.getName());
+        command.add(memory.getPath());
+        command.addAll(driverOptions);
+        command.add("-D");
+        command.add("itemcf.report=" + report.getAbsolutePath());
+        command.add(input.getAbsolutePath());
+        for (String dir : new String[] {"userMovieList", "coOccurrenceMatrix", "multiplication", "overallRating",
+                "topK"}) {
+            command.add(new File(output, dir).getAbsolutePath());
+        }
+        command.add(k);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(runDir, "driver.log"));
+        long start = System.currentTimeMillis();
+        Process process = builder.start();
+        if (!process.waitFor(Long.getLong(TIMEOUT_MINUTES, 240), TimeUnit.MINUTES)) {
+            process.destroy();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                process.waitFor();
+            }
+            run.status = "timeout";
+        } else {
+            run.status = process.exitValue() == 0 ? "succeeded" : "failed";
+        }
+        run.wallMillis = System.currentTimeMillis() - start;
+
+        if (memory.exists()) {
+            for (String line : Files.readAllLines(memory.toPath(), StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (MeasuredDriver.PEAK_HEAP.equals(fields[0])) {
+                    run.peakHeapBytes = Long.parseLong(fields[1]);
+                } else if (MeasuredDriver.PEAK_RSS.equals(fields[0])) {
+                    run.peakRssBytes = Long.parseLong(fields[1]);
+                }
+            }
+        }
+        if (report.exists()) {
+            String json = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+            JsonNode stages = new ObjectMapper().readTree(json).get("stages");
+            for (JsonNode stage : stages) {
+                run.stageMillis.put(stage.get("name").getTextValue(), stage.get("wallMillis").getLongValue());
+            }
+        }
+        delete(output);
+    }
+
+    private static void writeTable(File table, List<Run> runs) throws IOException {
+        Set<String> stages = new LinkedHashSet<String>();
+        for (Run run : runs) {
+            stages.addAll(run.stageMillis.keySet());
+        }
+        PrintWriter out = new PrintWriter(table, "UTF-8");
+        try {
+            out.print("targetRatings\tratings\tusers\tmovies\tstatus\tgenerateMillis\twallMillis\tpeakHeapMB"
+                    + "\tpeakRssMB");
+            for (String stage : stages) {
+                out.print("\t" + stage + "Millis");
+            }
+            out.println();
+            for (Run run : runs) {
+                if ("notRun".equals(run.status)) {
+                    continue;
+                }
+                out.print(run.targetRatings + "\t" + run.numRatings + "\t" + run.numUsers + "\t" + run.numMovies
+                        + "\t" + run.status + "\t" + run.generateMillis + "\t" + run.wallMillis
+                        + "\t" + megabytes(run.peakHeapBytes) + "\t" + megabytes(run.peakRssBytes));
+                for (String stage : stages) {
+                    Long millis = run.stageMillis.get(stage);
+                    out.print("\t" + (millis == null ? "" : String.valueOf(millis)));
+                }
+                out.println();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "" : String.valueOf(bytes / MB);
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package itemcf.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StageBenchmark runs one mapper or reducer of the pipeline over the records it would get from a SyntheticRatings of
+ * the given size and skew. One operation is one whole task: setup, every record or group of the input, and cleanup.
+ * Besides the operations per second, JMH reports the input and output records per second of the stage (see
+ * StageRecords), and with -prof gc the allocation rate.
+ *
+ * The subclasses build the input and the task in their @Setup method.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public abstract class StageBenchmark {
+
+    @Param("1000")
+    public int users;
+
+    @Param("2000")
+    public int movies;
+
+    @Param({"0.8", "1.2"})
+    public double zipfExponent;
+
+    @Param("20")
+    public double meanHistory;
+
+    @Param("42")
+    public long seed;
+
+    TaskContexts.Task task;
+
+    SyntheticRatings ratings() {
+        return new SyntheticRatings(users, movies, zipfExponent, meanHistory, seed);
+    }
+
+    @Benchmark
+    public long run(StageRecords records, Blackhole sink) throws Exception {
+        long output = task.run(sink);
+        records.add(task, output);
+        return output;
+    }
+}
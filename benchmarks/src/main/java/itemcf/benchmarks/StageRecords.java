@@ -0,0 +1,32 @@
+package itemcf.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * StageRecords counts the records a benchmark reads and writes, and the serialized bytes it writes. JMH reports the
+ * counters next to the score, per second: the records per second of the stage, and its output bandwidth.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class StageRecords {
+    public long inputRecords;
+    public long outputRecords;
+    public long outputBytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        inputRecords = 0;
+        outputRecords = 0;
+        outputBytes = 0;
+    }
+
+    void add(TaskContexts.Task task, long output) {
+        inputRecords += task.inputRecords();
+        outputRecords += output;
+        outputBytes += task.outputBytes();
+    }
+}
@@ -0,0 +1,154 @@
+package itemcf.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SyntheticRatings is a seeded rating matrix with the skew of real data: the movies of a user are drawn from a Zipf
+ * popularity distribution (the movie of popularity rank r with a probability proportional to 1 / r^zipfExponent), and
+ * the history lengths from a log-normal distribution, so most users rate a few movies and a few users rate many (see
+ * Histories). The ratings go from 1 to 5 in steps of 0.5. The same arguments always give the same matrix.
+ *
+ * The ratings are held by user, in compressed sparse row layout: user u rated movie(i), rating(i) for start(u) <= i <
+ * end(u), in the order they were drawn. Users and movies are dense IDs; the popularity ranks are shuffled over the
+ * movie IDs, so the popular movies are not the lowest IDs.
+ */
+public final class SyntheticRatings {
+
+    public static final double DEFAULT_HISTORY_SIGMA = 1.0;
+
+    private final int numUsers;
+    private final int numMovies;
+    private final int[] offsets;
+    private final int[] movies;
+    private final double[] ratings;
+
+    public SyntheticRatings(int numUsers, int numMovies, double zipfExponent, double meanHistory, long seed) {
+        this.numUsers = numUsers;
+        this.numMovies = numMovies;
+        Random random = new Random(seed);
+        Histories histories = new Histories(numMovies, zipfExponent, meanHistory, DEFAULT_HISTORY_SIGMA, random);
+
+        offsets = new int[numUsers + 1];
+        int[] drawn = new int[Math.max(16, (int) (numUsers * meanHistory))];
+        int numRatings = 0;
+        for (int user = 0; user < numUsers; user++) {
+            if (numRatings + histories.maxHistory() > drawn.length) {
+                drawn = Arrays.copyOf(drawn, Math.max(numRatings + histories.maxHistory(), drawn.length * 2));
+            }
+            numRatings += histories.next(drawn, numRatings);
+            offsets[user + 1] = numRatings;
+        }
+
+        movies = Arrays.copyOf(drawn, numRatings);
+        ratings = new double[numRatings];
+        for (int i = 0; i < numRatings; i++) {
+            ratings[i] = rating(random);
+        }
+    }
+
+    /**
+     * Draws a rating from 1 to 5 in steps of 0.5.
+     */
+    public static double rating(Random random) {
+        return 1 + random.nextInt(9) * 0.5;
+    }
+
+    /**
+     * Histories draws the movies of one user after the other, without holding the previous users, so that a rating
+     * file of any size can be written from it (see RatingsGenerator).
+     *
+     * The history length is log-normal: exp(mu + historySigma * N(0, 1)), with mu chosen for the mean to be
+     * meanHistory, rounded and kept between 1 and numMovies / 4 + 1. historySigma 0 gives every user the same length,
+     * and the larger it is, the heavier the tail of long histories.
+     */
+    public static final class Histories {
+        private final Random random;
+        private final double mu;
+        private final double historySigma;
+        private final int maxHistory;
+        private final double[] cumulative;
+        private final double sum;
+        private final int[] movieOfRank;
+        private final boolean[] seen;
+
+        public Histories(int numMovies, double zipfExponent, double meanHistory, double historySigma, Random random) {
+            this.random = random;
+            this.mu = Math.log(meanHistory) - historySigma * historySigma / 2;
+            this.historySigma = historySigma;
+            this.maxHistory = numMovies / 4 + 1;
+
+            cumulative = new double[numMovies];
+            double sum = 0;
+            for (int rank = 0; rank < numMovies; rank++) {
+                sum += 1 / Math.pow(rank + 1, zipfExponent);
+                cumulative[rank] = sum;
+            }
+            this.sum = sum;
+            movieOfRank = new int[numMovies];
+            for (int rank = 0; rank < numMovies; rank++) {
+                int other = random.nextInt(rank + 1);
+                movieOfRank[rank] = movieOfRank[other];
+                movieOfRank[other] = rank;
+            }
+            seen = new boolean[numMovies];
+        }
+
+        /**
+         * The longest history drawn; next() needs that much room in its buffer.
+         */
+        public int maxHistory() {
+            return maxHistory;
+        }
+
+        /**
+         * Draws the distinct movies of the next user into buffer from offset on, and returns their number.
+         */
+        public int next(int[] buffer, int offset) {
+            long drawnLength = Math.round(Math.exp(mu + historySigma * random.nextGaussian()));
+            int length = (int) Math.max(1, Math.min(maxHistory, drawnLength));
+            //give up on the history after too many repeated draws of the popular movies
+            int size = 0;
+            for (int attempt = 0; size < length && attempt < 20 * length; attempt++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                int movie = movieOfRank[rank < 0 ? Math.min(-rank - 1, cumulative.length - 1) : rank];
+                if (!seen[movie]) {
+                    seen[movie] = true;
+                    buffer[offset + size++] = movie;
+                }
+            }
+            for (int i = offset; i < offset + size; i++) {
+                seen[buffer[i]] = false;
+            }
+            return size;
+        }
+    }
+
+    public int numUsers() {
+        return numUsers;
+    }
+
+    public int numMovies() {
+        return numMovies;
+    }
+
+    public int numRatings() {
+        return movies.length;
+    }
+
+    public int start(int user) {
+        return offsets[user];
+    }
+
+    public int end(int user) {
+        return offsets[user + 1];
+    }
+
+    public int movie(int i) {
+        return movies[i];
+    }
+
+    public double rating(int i) {
+        return ratings[i];
+    }
+}
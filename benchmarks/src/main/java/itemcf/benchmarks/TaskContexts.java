@@ -0,0 +1,308 @@
+package itemcf.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.ReduceContext;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.counters.GenericCounter;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TaskContexts runs a mapper or a reducer outside of a task, over records held in memory: the input is an array of
+ * key-value pairs (or of key-values groups, in the order of the shuffle), and the output records are serialized into
+ * an in-memory buffer, as the framework would serialize them, which a JMH Blackhole consumes. The contexts are the
+ * Mapper.Context and Reducer.Context of WrappedMapper and WrappedReducer, as the framework passes them, so the jobs run
+ * unchanged: setup, map or reduce for every record or group, and cleanup.
+ *
+ * The calls on the measured path (the input and write) are overridden in the contexts and allocate nothing. The rest
+ * goes to a dynamic proxy of the MapContext or ReduceContext interface, which only implements what the jobs use: the
+ * configuration, the counters and the status calls. Anything else throws an UnsupportedOperationException, so a job
+ * that starts to use more of the context fails loudly instead of being measured wrong.
+ */
+public final class TaskContexts {
+
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private TaskContexts() {
+    }
+
+    /**
+     * A mapper or a reducer bound to its input. A task is not thread-safe; every benchmark thread has its own.
+     */
+    public abstract static class Task {
+        final TaskHandler handler;
+
+        Task(TaskHandler handler) {
+            this.handler = handler;
+        }
+
+        abstract void process() throws IOException, InterruptedException;
+
+        /**
+         * Processes the whole input once and returns the number of output records.
+         */
+        public long run(Blackhole sink) throws IOException, InterruptedException {
+            handler.reset(sink);
+            process();
+            handler.flush();
+            return handler.outputRecords;
+        }
+
+        /**
+         * Returns the serialized size of the output records of the last run.
+         */
+        public long outputBytes() {
+            return handler.outputBytes;
+        }
+
+        public int inputRecords() {
+            return handler.inputRecords();
+        }
+
+        /**
+         * Returns the value of a counter of the last run, or 0 if it was not incremented.
+         */
+        public long counter(Enum<?> counter) {
+            Counter value = handler.counters.get(counter.getDeclaringClass().getName() + "." + counter.name());
+            return value == null ? 0 : value.getValue();
+        }
+    }
+
+    /**
+     * Binds the mapper to the key-value pairs keys[i], values[i].
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Task mapTask(final Mapper mapper, Configuration conf, Object[] keys, Object[] values) {
+        final MapHandler handler = new MapHandler(conf, keys, values);
+        MapContext mapContext = (MapContext) Proxy.newProxyInstance(TaskContexts.class.getClassLoader(),
+                new Class<?>[]{MapContext.class}, handler);
+        final Mapper.Context context = new WrappedMapper().new Context(mapContext) {
+            @Override
+            public boolean nextKeyValue() {
+                return handler.nextKeyValue();
+            }
+
+            @Override
+            public Object getCurrentKey() {
+                return handler.keys[handler.index];
+            }
+
+            @Override
+            public Object getCurrentValue() {
+                return handler.values[handler.index];
+            }
+
+            @Override
+            public void write(Object key, Object value) {
+                handler.write(key, value);
+            }
+        };
+        return new Task(handler) {
+            @Override
+            void process() throws IOException, InterruptedException {
+                mapper.run(context);
+            }
+        };
+    }
+
+    /**
+     * Binds the reducer to the groups keys[i], values[i][0], values[i][1]...
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Task reduceTask(final Reducer reducer, Configuration conf, Object[] keys, Object[][] values) {
+        final ReduceHandler handler = new ReduceHandler(conf, keys, values);
+        ReduceContext reduceContext = (ReduceContext) Proxy.newProxyInstance(TaskContexts.class.getClassLoader(),
+                new Class<?>[]{ReduceContext.class}, handler);
+        final Reducer.Context context = new WrappedReducer().new Context(reduceContext) {
+            @Override
+            public boolean nextKey() {
+                return handler.nextKey();
+            }
+
+            @Override
+            public Object getCurrentKey() {
+                return handler.keys[handler.index];
+            }
+
+            @Override
+            public Iterable getValues() {
+                return handler.values[handler.index];
+            }
+
+            @Override
+            public void write(Object key, Object value) {
+                handler.write(key, value);
+            }
+        };
+        return new Task(handler) {
+            @Override
+            void process() throws IOException, InterruptedException {
+                reducer.run(context);
+            }
+        };
+    }
+
+    /**
+     * TaskHandler implements the calls shared by the map and the reduce contexts.
+     */
+    abstract static class TaskHandler implements InvocationHandler {
+        final Configuration conf;
+        final Map<String, Counter> counters = new HashMap<String, Counter>();
+        final TaskAttemptID taskAttemptID = new TaskAttemptID();
+        final DataOutputBuffer buffer = new DataOutputBuffer(BUFFER_BYTES + 1024);
+        long outputRecords;
+        long outputBytes;
+        private Blackhole sink;
+        private String status = "";
+
+        TaskHandler(Configuration conf) {
+            this.conf = conf;
+        }
+
+        void reset(Blackhole sink) {
+            this.sink = sink;
+            buffer.reset();
+            outputRecords = 0;
+            outputBytes = 0;
+            counters.clear();
+        }
+
+        /**
+         * Serializes the record, as the framework does with every map output and reduce output record, into a buffer
+         * that is handed to the sink and reused once it holds BUFFER_BYTES.
+         */
+        void write(Object key, Object value) {
+            try {
+                ((Writable) key).write(buffer);
+                ((Writable) value).write(buffer);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            outputRecords++;
+            if (buffer.getLength() >= BUFFER_BYTES) {
+                flush();
+            }
+        }
+
+        void flush() {
+            outputBytes += buffer.getLength();
+            sink.consume(buffer.getData());
+            buffer.reset();
+        }
+
+        abstract int inputRecords();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("getConfiguration".equals(name)) {
+                return conf;
+            } else if ("getCounter".equals(name)) {
+                String key = args.length == 1
+                        ? ((Enum<?>) args[0]).getDeclaringClass().getName() + "." + ((Enum<?>) args[0]).name()
+                        : args[0] + "." + args[1];
+                Counter counter = counters.get(key);
+                if (counter == null) {
+                    counter = new GenericCounter(key, key);
+                    counters.put(key, counter);
+                }
+                return counter;
+            } else if ("progress".equals(name)) {
+                return null;
+            } else if ("setStatus".equals(name)) {
+                status = (String) args[0];
+                return null;
+            } else if ("getStatus".equals(name)) {
+                return status;
+            } else if ("getProgress".equals(name)) {
+                return 0f;
+            } else if ("getTaskAttemptID".equals(name)) {
+                return taskAttemptID;
+            } else if ("toString".equals(name)) {
+                return getClass().getSimpleName();
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private static class MapHandler extends TaskHandler {
+        final Object[] keys;
+        final Object[] values;
+        int index;
+
+        MapHandler(Configuration conf, Object[] keys, Object[] values) {
+            super(conf);
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        void reset(Blackhole sink) {
+            super.reset(sink);
+            index = -1;
+        }
+
+        @Override
+        int inputRecords() {
+            return keys.length;
+        }
+
+        boolean nextKeyValue() {
+            return ++index < keys.length;
+        }
+    }
+
+    private static class ReduceHandler extends TaskHandler {
+        final Object[] keys;
+        final List<?>[] values;
+        final int inputRecords;
+        int index;
+
+        ReduceHandler(Configuration conf, Object[] keys, Object[][] values) {
+            super(conf);
+            this.keys = keys;
+            this.values = new List<?>[values.length];
+            int inputRecords = 0;
+            for (int i = 0; i < values.length; i++) {
+                this.values[i] = Arrays.asList(values[i]);
+                inputRecords += values[i].length;
+            }
+            this.inputRecords = inputRecords;
+        }
+
+        @Override
+        void reset(Blackhole sink) {
+            super.reset(sink);
+            index = -1;
+        }
+
+        @Override
+        int inputRecords() {
+            return inputRecords;
+        }
+
+        boolean nextKey() {
+            return ++index < keys.length;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package itemcf.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs TopKRecommenderListGenerator.TopKRecommenderListReducer over the predicates of the first scoredUsers users:
+ * one group per user, with every movie whose predicate is above the threshold, as the OverallRating job writes them.
+ * Without a dictionary, the lists are written with the dense IDs.
+ */
+public class TopKRecommenderListReducerBenchmark extends StageBenchmark {
+
+    private static final double THRESHOLD = 2.5;
+
+    @Param("200")
+    public int scoredUsers;
+
+    @Param("10")
+    public int k;
+
+    @Setup
+    public void setUp() {
+        SyntheticRatings ratings = ratings();
+        CoOccurrenceRows rows = new CoOccurrenceRows(ratings);
+        final double[] sums = new double[ratings.numMovies()];
+        final long[] weights = new long[ratings.numMovies()];
+        boolean[] seen = new boolean[ratings.numMovies()];
+
+        List<Object> keys = new ArrayList<Object>();
+        List<Object[]> values = new ArrayList<Object[]>();
+        for (int user = 0; user < Math.min(scoredUsers, ratings.numUsers()); user++) {
+            rows.subRatings(ratings, user, seen, new CoOccurrenceRows.SubRatingVisitor() {
+                public void visit(int movieA, double subRating, int relation) {
+                    sums[movieA] += subRating;
+                    weights[movieA] += relation;
+                }
+            });
+            List<Object> group = new ArrayList<Object>();
+            for (int movieA = 0; movieA < ratings.numMovies(); movieA++) {
+                if (weights[movieA] > 0) {
+                    double predicate = Math.rint(sums[movieA] / weights[movieA] * 1000) / 1000;
+                    if (predicate > THRESHOLD) {
+                        group.add(RecommenderClasses.movieRating(movieA, predicate));
+                    }
+                }
+                sums[movieA] = 0;
+                weights[movieA] = 0;
+            }
+            if (!group.isEmpty()) {
+                keys.add(new IntWritable(user));
+                values.add(group.toArray());
+            }
+        }
+
+        Configuration conf = new Configuration();
+        conf.setInt("k", k);
+        task = TaskContexts.reduceTask(
+                RecommenderClasses.reducer("TopKRecommenderListGenerator$TopKRecommenderListReducer"), conf,
+                keys.toArray(), values.toArray(new Object[values.size()][]));
+    }
+}
@@ -0,0 +1,191 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * CoOccurrenceMatrixFile is the co-occurrence matrix in a compressed sparse row layout, one row per movieB holding the
+ * movieA:movieB relations, as Multiplication.CoOccurrenceMapper groups them. It is written once from the
+ * CoOccurrenceMatrixGenerator output (all the part-r-* files, mirrored if only the upper triangle was generated) into
+ * a binary file:
+ *
+ * int magic, int numMovies, int numCells,
+ * int[numMovies + 1] offsets: the cells of row movieB are cells offsets[movieB] to offsets[movieB + 1] - 1,
+ * int[numCells] movies: movieA of every cell, sorted in every row,
+ * int[numCells] relations: the co-occurrence relation of every cell.
+ *
+ * Readers memory-map the file, like the SeenItemsIndex, so it is limited to 2 GB, about 268 million cells (8 bytes
+ * each). write counts the cells in a first pass and fails with an IOException beyond the limit, before building the
+ * file: it sorts the cells in the heap of the client, which needs about as much memory as the file.
+ */
+public class CoOccurrenceMatrixFile {
+    public static final String FILE_NAME = "_co-occurrence.matrix";
+
+    private static final int MAGIC = 0x434f4f43;
+    private static final int HEADER_INTS = 3;
+
+    private final int numMovies;
+    private final IntBuffer offsets;
+    private final IntBuffer movies;
+    private final IntBuffer relations;
+
+    /**
+     * Reads the matrix from the start of buffer, e.g. a section of a ModelFile.
+     */
+    CoOccurrenceMatrixFile(ByteBuffer buffer) throws IOException {
+        IntBuffer ints = buffer.asIntBuffer();
+        if (ints.get(0) != MAGIC) {
+            throw new IOException("Not a co-occurrence matrix file");
+        }
+        numMovies = ints.get(1);
+        int numCells = ints.get(2);
+        offsets = slice(ints, HEADER_INTS, numMovies + 1);
+        movies = slice(ints, HEADER_INTS + numMovies + 1, numCells);
+        relations = slice(ints, HEADER_INTS + numMovies + 1 + numCells, numCells);
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int position, int length) {
+        ints.limit(position + length);
+        ints.position(position);
+        IntBuffer slice = ints.slice();
+        ints.clear();
+        return slice;
+    }
+
+    public int numMovies() {
+        return numMovies;
+    }
+
+    /**
+     * Returns the length of the matrix in the file.
+     */
+    int sizeInBytes() {
+        return 4 * (HEADER_INTS + numMovies + 1 + 2 * movies.capacity());
+    }
+
+    /**
+     * Returns the index of the first cell of the row of movieB.
+     */
+    public int rowStart(int movieB) {
+        return movieB < numMovies ? offsets.get(movieB) : 0;
+    }
+
+    /**
+     * Returns the index after the last cell of the row of movieB.
+     */
+    public int rowEnd(int movieB) {
+        return movieB < numMovies ? offsets.get(movieB + 1) : 0;
+    }
+
+    public int movie(int cell) {
+        return movies.get(cell);
+    }
+
+    public int relation(int cell) {
+        return relations.get(cell);
+    }
+
+    /**
+     * Reads all the parts of the CoOccurrenceMatrixGenerator output in matrixDir and writes the file to matrixPath.
+     */
+    public static void write(Configuration conf, Path matrixDir, Path matrixPath) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                matrixPath.getFileSystem(conf).create(matrixPath, true)));
+        write(conf, matrixDir, out);
+        out.close();
+    }
+
+    /**
+     * Reads all the parts of the CoOccurrenceMatrixGenerator output in matrixDir and writes the matrix to out.
+     */
+    static void write(Configuration conf, Path matrixDir, DataOutputStream out) throws IOException {
+        boolean upperTriangle = conf.getBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, false);
+        FileSystem fileSystem = matrixDir.getFileSystem(conf);
+        FileStatus[] parts = fileSystem.globStatus(new Path(matrixDir, "part-*"));
+
+        //first pass: the number of cells of every row
+        int[] counts = new int[1024];
+        int numMovies = 0;
+        IntPairWritable moviePair = new IntPairWritable();
+        IntWritable relation = new IntWritable();
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(moviePair, relation)) {
+                int max = Math.max(moviePair.getFirst(), moviePair.getSecond());
+                if (max >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(max + 1, counts.length * 2));
+                }
+                numMovies = Math.max(numMovies, max + 1);
+                counts[moviePair.getSecond()]++;
+                if (upperTriangle && moviePair.getFirst() != moviePair.getSecond()) {
+                    counts[moviePair.getFirst()]++;
+                }
+            }
+            reader.close();
+        }
+
+        long numCells = 0;
+        for (int movie = 0; movie < numMovies; movie++) {
+            numCells += counts[movie];
+        }
+        SeenItemsIndex.checkMappable(4L * (HEADER_INTS + numMovies + 1) + 8 * numCells, matrixDir);
+
+        int[] offsets = new int[numMovies + 1];
+        for (int movie = 0; movie < numMovies; movie++) {
+            offsets[movie + 1] = offsets[movie] + counts[movie];
+        }
+
+        //second pass: the cells of every row
+        long[] cells = new long[offsets[numMovies]];
+        int[] next = Arrays.copyOf(offsets, numMovies);
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(moviePair, relation)) {
+                cells[next[moviePair.getSecond()]++] = cell(moviePair.getFirst(), relation.get());
+                if (upperTriangle && moviePair.getFirst() != moviePair.getSecond()) {
+                    cells[next[moviePair.getFirst()]++] = cell(moviePair.getSecond(), relation.get());
+                }
+            }
+            reader.close();
+        }
+        for (int movie = 0; movie < numMovies; movie++) {
+            Arrays.sort(cells, offsets[movie], offsets[movie + 1]);
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(numMovies);
+        out.writeInt(cells.length);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (long cell : cells) {
+            out.writeInt((int) (cell >>> 32));
+        }
+        for (long cell : cells) {
+            out.writeInt((int) cell);
+        }
+    }
+
+    /**
+     * Packs a cell into a long that sorts by movieA.
+     */
+    private static long cell(int movieA, int relation) {
+        return ((long) movieA << 32) | (relation & 0xffffffffL);
+    }
+
+    /**
+     * Memory-maps the matrix file at matrixPath.
+     */
+    public static CoOccurrenceMatrixFile open(Configuration conf, Path matrixPath) throws IOException {
+        return new CoOccurrenceMatrixFile(SeenItemsIndex.map(conf, matrixPath));
+    }
+}
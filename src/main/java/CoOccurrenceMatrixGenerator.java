@@ -1,50 +1,141 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * CoOccurrenceMatrixGenerator takes input file with the format: userid \t movie1:rating1,movie2:rating2...,
  * and generate co-occurrence matrix representing with every unit cell of the matrix
  * (format: movieA:movieB \t co-occurrence times).
+ *
+ * The input is the SequenceFile written by DataDividerByUser, the output is a SequenceFile of
+ * (IntPairWritable movieA:movieB, IntWritable co-occurrence times).
+ *
+ * The job runs in one of two modes, chosen by the "coOccurrence.mode" configuration property:
+ * "pairs" (default) emits one record per movie pair, "stripes" emits one movieA -> {movieB: count} map per row and
+ * aggregates the stripes inside the mapper. Both modes write the same output format. "minHash" only counts the pairs
+ * of similar movies found by MinHashCoOccurrence, in the same output format.
+ *
+ * The co-occurrence matrix is symmetric, so with "coOccurrence.upperTriangle" set to true only the cells with
+ * movieA <= movieB are generated and written. The diagonal (movieA:movieA) is the number of users who rated movieA, and
+ * is counted once per rated movie instead of from the pair enumeration. Multiplication.CoOccurrenceMapper mirrors the
+ * other half when it reads the matrix.
+ *
+ * Both modes pair up the movies of a user selected by a UserHistorySampler, which caps the movies of heavy users
+ * (coOccurrence.maxUserRatings) and can weight the co-occurrences by the length of the user's history
+ * (coOccurrence.userWeighting).
+ *
+ * In the incremental mode of the Driver, merge() adds the cells contributed by the new ratings (written by
+ * DataDividerByUser.merge) to the matrix of the previous run, instead of generating the matrix from all the users.
+ *
+ * The relations are summed with addRelations, which saturates at Integer.MAX_VALUE instead of overflowing; the
+ * SATURATED_CELLS counter reports the cells that reached it. Only a diagonal cell is likely to, and the diagonal is
+ * never used in the scoring (the user has rated the movie).
+ *
+ * With multiplication.secondarySort, the reducers also collect the length of every row into the RowLengths side file
+ * of the output, which the secondary-sort join reads.
+ *
+ * The PAIRS_EMITTED counter reports the movie pairs written by MatrixGeneratorMapper, and both mappers count the
+ * number of movies paired per user into the "paired movies per user" FanOutHistogram.
  */
 public class CoOccurrenceMatrixGenerator {
+
+	public static final String MODE = "coOccurrence.mode";
+	public static final String MAX_STRIPE_CELLS = "coOccurrence.stripes.maxCells";
+	public static final String UPPER_TRIANGLE = "coOccurrence.upperTriangle";
+
+	public enum CoOccurrence {
+		PAIRS_EMITTED, SATURATED_CELLS
+	}
+
+	/**
+	 * Adds two co-occurrence relations, saturating at Integer.MAX_VALUE. With coOccurrence.userWeighting=iuf every user
+	 * adds up to UserHistorySampler.IUF_SCALE to a cell, so the diagonal of a movie with a few million raters would
+	 * otherwise wrap to a negative relation.
+	 */
+	static int addRelations(int a, int b) {
+		long sum = (long) a + b;
+		return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+	}
+
 	/**
 	 * MatrixGeneratorMapper takes the input file and generate the co-occurrence relation of all the movies rated by the
-	 * user. If two movies rated by one user, the two movies will have 1 co-occurrence relation (similarity).
-	 * We loop through all the movies rated by the user and generate one-to-one relation for all the movies,
-	 * including the movie and itself's relation.
+	 * user. If two movies rated by one user, the two movies will have 1 co-occurrence relation (similarity), or the
+	 * user's weight with coOccurrence.userWeighting=iuf.
+	 * We loop through the movies of the user kept by the UserHistorySampler and generate one-to-one relation for all
+	 * the movies, including the movie and itself's relation. With coOccurrence.upperTriangle only the pairs with
+	 * movieA <= movieB are emitted, i.e. about half of them, the diagonal being emitted once per movie.
 	 *
-	 * inputValue format: userid \t movie1:rating1,movie2:rating2...
-	 * outputKey: movieA:movieB
-	 * outputValue: 1
+	 * inputKey: userid (IntWritable)
+	 * inputValue: movie1:rating1,movie2:rating2... (MovieRatingListWritable)
+	 * outputKey: movieA:movieB (IntPairWritable)
+	 * outputValue: the user's weight, 1 unless coOccurrence.userWeighting=iuf
 	 *
 	 */
-	public static class MatrixGeneratorMapper extends Mapper<LongWritable, Text, Text, IntWritable> {
+	public static class MatrixGeneratorMapper
+			extends Mapper<IntWritable, MovieRatingListWritable, IntPairWritable, IntWritable> {
+
+		private IntPairWritable moviePair = new IntPairWritable();
+		private IntWritable weight = new IntWritable();
+		private boolean upperTriangle;
+		private UserHistorySampler sampler;
+		private FanOutHistogram pairedMovies;
+		private org.apache.hadoop.mapreduce.Counter pairsEmitted;
+
+		@Override
+		public void setup(Context context) {
+			upperTriangle = context.getConfiguration().getBoolean(UPPER_TRIANGLE, false);
+			sampler = new UserHistorySampler(context);
+			pairedMovies = new FanOutHistogram(context, "paired movies per user");
+			pairsEmitted = context.getCounter(CoOccurrence.PAIRS_EMITTED);
+		}
 
 		// map method
 		@Override
-		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+		public void map(IntWritable key, MovieRatingListWritable value, Context context)
+				throws IOException, InterruptedException {
+			sampler.sample(key.get(), value);
+			weight.set(sampler.weight());
+			pairedMovies.add(sampler.size());
+			long pairs = 0;
 			//calculate each user rating list: <movieA, movieB>
-			String[] movieRatings = value.toString().trim().split("\t")[1].split(",");
-			for (String movieRatingA : movieRatings) {
-				String movieA = movieRatingA.split(":")[0];
-				for (String movieRatingB : movieRatings) {
-					String movieB = movieRatingB.split(":")[0];
-					context.write(new Text(movieA + ":" + movieB), new IntWritable(1));
+			for (int i = 0; i < sampler.size(); i++) {
+				int movieA = sampler.movie(i);
+				if (upperTriangle) {
+					//the diagonal cell counts the rating of movieA itself
+					moviePair.set(movieA, movieA);
+					context.write(moviePair, weight);
+					pairs++;
+				}
+				for (int j = 0; j < sampler.size(); j++) {
+					int movieB = sampler.movie(j);
+					if (!upperTriangle || isUpperTriangle(movieA, movieB)) {
+						moviePair.set(movieA, movieB);
+						context.write(moviePair, weight);
+						pairs++;
+					}
 				}
 			}
+			pairsEmitted.increment(pairs);
 		}
 	}
 
+	/**
+	 * Returns true if the cell movieA:movieB lies strictly above the diagonal of the co-occurrence matrix.
+	 */
+	static boolean isUpperTriangle(int movieA, int movieB) {
+		return movieA < movieB;
+	}
+
 	/**
 	 * MatrixGeneratorReducer summarizes the co-occurrence relation for each two movies, and generates the
 	 * key-value pair for each two movies and co-occurrence times.
@@ -57,45 +148,315 @@ public class CoOccurrenceMatrixGenerator {
 	 * outputValue: co-occurrence relation
 	 *
 	 */
-	public static class MatrixGeneratorReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
+	public static class MatrixGeneratorReducer extends Reducer<IntPairWritable, IntWritable, IntPairWritable, IntWritable> {
 
 		int threshold = 0;
 
+		private IntWritable relation = new IntWritable();
+		private org.apache.hadoop.mapreduce.Counter saturatedCells;
+		private RowLengths.Collector rowLengths;
+
 		@Override
-		public void reduce(Text key, Iterable<IntWritable> values, Context context)
+		public void setup(Context context) {
+			saturatedCells = context.getCounter(CoOccurrence.SATURATED_CELLS);
+			rowLengths = RowLengths.collector(context, context.getConfiguration().getBoolean(UPPER_TRIANGLE, false));
+		}
+
+		@Override
+		public void reduce(IntPairWritable key, Iterable<IntWritable> values, Context context)
 				throws IOException, InterruptedException {
 			//key movieA:movieB value = iterable<1, 1, 1>
 			//calculate each two movies have been watched by how many people
 			int sum = 0;
 			for (IntWritable value : values) {
-				sum += value.get();
+				sum = addRelations(sum, value.get());
+			}
+			if (sum == Integer.MAX_VALUE) {
+				saturatedCells.increment(1);
 			}
 
 			if (sum > threshold) {
-				context.write(key, new IntWritable(sum));
+				relation.set(sum);
+				context.write(key, relation);
+				if (rowLengths != null) {
+					rowLengths.add(key.getFirst(), key.getSecond());
+				}
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException, InterruptedException {
+			if (rowLengths != null) {
+				rowLengths.close();
+			}
+		}
+	}
+
+	/**
+	 * RelationSumCombiner sums up the relations of a cell within one map task, with addRelations.
+	 */
+	public static class RelationSumCombiner
+			extends Reducer<IntPairWritable, IntWritable, IntPairWritable, IntWritable> {
+
+		private IntWritable relation = new IntWritable();
+
+		@Override
+		public void reduce(IntPairWritable key, Iterable<IntWritable> values, Context context)
+				throws IOException, InterruptedException {
+			int sum = 0;
+			for (IntWritable value : values) {
+				sum = addRelations(sum, value.get());
+			}
+			relation.set(sum);
+			context.write(key, relation);
+		}
+	}
+
+	/**
+	 * StripesMapper generates the same co-occurrence relation as MatrixGeneratorMapper, but collects it as one stripe
+	 * per movie (movieA -> {movieB: count}). The stripes are aggregated across all the users handled by the map task,
+	 * and flushed whenever the number of buffered cells reaches "coOccurrence.stripes.maxCells", and in cleanup.
+	 *
+	 * inputValue format: userid \t movie1:rating1,movie2:rating2...
+	 * outputKey: movieA
+	 * outputValue: {movieB: count, movieC: count...}
+	 *
+	 */
+	public static class StripesMapper extends Mapper<IntWritable, MovieRatingListWritable, IntWritable, StripeWritable> {
+
+		private Map<Integer, Map<Integer, Integer>> stripes = new HashMap<Integer, Map<Integer, Integer>>();
+		private int cells;
+		private int maxCells;
+		private boolean upperTriangle;
+		private UserHistorySampler sampler;
+		private FanOutHistogram pairedMovies;
+
+		@Override
+		public void setup(Context context) {
+			maxCells = context.getConfiguration().getInt(MAX_STRIPE_CELLS, 500000);
+			upperTriangle = context.getConfiguration().getBoolean(UPPER_TRIANGLE, false);
+			sampler = new UserHistorySampler(context);
+			pairedMovies = new FanOutHistogram(context, "paired movies per user");
+		}
+
+		@Override
+		public void map(IntWritable key, MovieRatingListWritable value, Context context)
+				throws IOException, InterruptedException {
+			sampler.sample(key.get(), value);
+			pairedMovies.add(sampler.size());
+			int weight = sampler.weight();
+			for (int i = 0; i < sampler.size(); i++) {
+				int movieA = sampler.movie(i);
+				Map<Integer, Integer> stripe = stripes.get(movieA);
+				if (stripe == null) {
+					stripe = new HashMap<Integer, Integer>();
+					stripes.put(movieA, stripe);
+				}
+				for (int j = 0; j < sampler.size(); j++) {
+					int movieB = sampler.movie(j);
+					if (upperTriangle && movieA != movieB && !isUpperTriangle(movieA, movieB)) {
+						continue;
+					}
+					Integer count = stripe.get(movieB);
+					if (count == null) {
+						stripe.put(movieB, weight);
+						cells++;
+					} else {
+						stripe.put(movieB, addRelations(count, weight));
+					}
+				}
+			}
+
+			if (cells >= maxCells) {
+				flush(context);
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException, InterruptedException {
+			flush(context);
+		}
+
+		private void flush(Context context) throws IOException, InterruptedException {
+			IntWritable movieA = new IntWritable();
+			StripeWritable stripeWritable = new StripeWritable();
+			for (Map.Entry<Integer, Map<Integer, Integer>> stripe : stripes.entrySet()) {
+				movieA.set(stripe.getKey());
+				stripeWritable.set(stripe.getValue());
+				context.write(movieA, stripeWritable);
 			}
+			stripes.clear();
+			cells = 0;
 		}
 	}
-	
-	public static void main(String[] args) throws Exception{
+
+	/**
+	 * StripesCombiner merges the stripes of the same movie coming from one map task.
+	 *
+	 * inputKey: movieA
+	 * inputValue: iterable<{movieB: count...}, {movieB: count...}...>
+	 * outputKey: movieA
+	 * outputValue: {movieB: count...}
+	 *
+	 */
+	public static class StripesCombiner extends Reducer<IntWritable, StripeWritable, IntWritable, StripeWritable> {
+
+		private StripeWritable merged = new StripeWritable();
+
+		@Override
+		public void reduce(IntWritable key, Iterable<StripeWritable> values, Context context)
+				throws IOException, InterruptedException {
+			merged.set(mergeStripes(values));
+			context.write(key, merged);
+		}
+	}
+
+	/**
+	 * StripesReducer merges all the stripes of movieA and writes one cell of the co-occurrence matrix per movieB, in
+	 * the same format as MatrixGeneratorReducer, so the output feeds Multiplication.CoOccurrenceMapper unchanged.
+	 *
+	 * inputKey: movieA
+	 * inputValue: iterable<{movieB: count...}, {movieB: count...}...>
+	 * outputKey: movieA:movieB
+	 * outputValue: co-occurrence relation
+	 *
+	 */
+	public static class StripesReducer extends Reducer<IntWritable, StripeWritable, IntPairWritable, IntWritable> {
+
+		int threshold = 0;
+
+		private IntPairWritable moviePair = new IntPairWritable();
+		private IntWritable relation = new IntWritable();
+		private org.apache.hadoop.mapreduce.Counter saturatedCells;
+		private RowLengths.Collector rowLengths;
+
+		@Override
+		public void setup(Context context) {
+			saturatedCells = context.getCounter(CoOccurrence.SATURATED_CELLS);
+			rowLengths = RowLengths.collector(context, context.getConfiguration().getBoolean(UPPER_TRIANGLE, false));
+		}
+
+		@Override
+		public void reduce(IntWritable key, Iterable<StripeWritable> values, Context context)
+				throws IOException, InterruptedException {
+			for (Map.Entry<Integer, Integer> cell : mergeStripes(values).entrySet()) {
+				int sum = cell.getValue();
+				if (sum == Integer.MAX_VALUE) {
+					saturatedCells.increment(1);
+				}
+				if (sum > threshold) {
+					moviePair.set(key.get(), cell.getKey());
+					relation.set(sum);
+					context.write(moviePair, relation);
+					if (rowLengths != null) {
+						rowLengths.add(key.get(), cell.getKey());
+					}
+				}
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException, InterruptedException {
+			if (rowLengths != null) {
+				rowLengths.close();
+			}
+		}
+	}
+
+	/**
+	 * Sums up the counts of every movieB over all the stripes of one movie.
+	 */
+	static Map<Integer, Integer> mergeStripes(Iterable<StripeWritable> stripes) {
+		Map<Integer, Integer> merged = new HashMap<Integer, Integer>();
+		for (StripeWritable stripe : stripes) {
+			for (int i = 0; i < stripe.size(); i++) {
+				Integer sum = merged.get(stripe.getMovie(i));
+				merged.put(stripe.getMovie(i), sum == null ? stripe.getCount(i) : addRelations(sum, stripe.getCount(i)));
+			}
+		}
+		return merged;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.exit(run(args) ? 0 : 1);
+	}
+
+	public static boolean run(String[] args) throws Exception {
 		
 		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (MinHashCoOccurrence.MODE.equals(conf.get(MODE))) {
+			return MinHashCoOccurrence.run(conf, args);
+		}
 		
 		Job job = Job.getInstance(conf);
-		job.setMapperClass(MatrixGeneratorMapper.class);
-		job.setReducerClass(MatrixGeneratorReducer.class);
+		if ("stripes".equals(conf.get(MODE, "pairs"))) {
+			job.setMapperClass(StripesMapper.class);
+			job.setCombinerClass(StripesCombiner.class);
+			job.setReducerClass(StripesReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(StripeWritable.class);
+		} else {
+			job.setMapperClass(MatrixGeneratorMapper.class);
+			job.setCombinerClass(RelationSumCombiner.class);
+			job.setReducerClass(MatrixGeneratorReducer.class);
+		}
 		
+		StageConfig.setReducers(job, "coOccurrence");
+		StageConfig.compressIntermediate(job);
+
 		job.setJarByClass(CoOccurrenceMatrixGenerator.class);
 		
-		job.setInputFormatClass(TextInputFormat.class);
-		job.setOutputFormatClass(TextOutputFormat.class);
-		job.setOutputKeyClass(Text.class);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		job.setOutputKeyClass(IntPairWritable.class);
 		job.setOutputValueClass(IntWritable.class);
 		
-		TextInputFormat.setInputPaths(job, new Path(args[0]));
-		TextOutputFormat.setOutputPath(job, new Path(args[1]));
+		SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+		SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
+		RowLengths.enable(job);
 		
-		job.waitForCompletion(true);
+		if (!RunReport.waitForCompletion(job)) {
+			return false;
+		}
+		RowLengths.write(job, new Path(args[1]));
+		return true;
 		
 	}
+
+	/**
+	 * Runs the incremental mode. It takes three arguments: the co-occurrence matrix directory of the previous run, the
+	 * directory of the new movieA:movieB \t 1 cells and the output directory. Both inputs go through an identity
+	 * mapper and are summed up per cell, so the new ratings cost one pass over the matrix and no pair generation for
+	 * the users they do not change. coOccurrence.upperTriangle has to be the same as in the previous run.
+	 */
+	public static boolean merge(String[] args) throws Exception {
+
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+		Job job = Job.getInstance(conf);
+		job.setMapperClass(Mapper.class);
+		job.setCombinerClass(RelationSumCombiner.class);
+		job.setReducerClass(MatrixGeneratorReducer.class);
+		StageConfig.setReducers(job, "coOccurrence");
+		StageConfig.compressIntermediate(job);
+
+		job.setJarByClass(CoOccurrenceMatrixGenerator.class);
+
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		job.setOutputKeyClass(IntPairWritable.class);
+		job.setOutputValueClass(IntWritable.class);
+
+		SequenceFileInputFormat.setInputPaths(job, new Path(args[0]), new Path(args[1]));
+		SequenceFileOutputFormat.setOutputPath(job, new Path(args[2]));
+		RowLengths.enable(job);
+
+		if (!RunReport.waitForCompletion(job)) {
+			return false;
+		}
+		RowLengths.write(job, new Path(args[2]));
+		return true;
+	}
 }
@@ -0,0 +1,188 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+
+/**
+ * CoOccurrencePruner keeps only the strongest neighbours of every movie in the co-occurrence matrix, which bounds the
+ * number of unit multiplications every rated movie causes. For every row movieB (the movieA:movieB cells Multiplication
+ * joins with the ratings of movieB), it drops the cells with a relation below the minimum support and keeps the top M
+ * of the others by relation, ties broken by the lower movieA. The diagonal cell is always kept.
+ *
+ * coOccurrence.prune.topM: the number of neighbours kept per movie (default 0: all of them)
+ * coOccurrence.prune.minSupport: the minimum relation of a kept cell (default 1)
+ *
+ * input and output format: movieA:movieB \t relation, SequenceFiles of (IntPairWritable, IntWritable)
+ *
+ * The pruned rows are not symmetric any more, so if only the upper triangle was generated, the mapper mirrors it and
+ * the output is the full pruned matrix; the following jobs must then run with coOccurrence.upperTriangle=false, which
+ * the Driver does.
+ *
+ * With multiplication.secondarySort, PruneReducer also collects the length of every pruned row into the RowLengths side
+ * file of the output.
+ *
+ * It takes two arguments: the co-occurrence matrix directory and the output directory.
+ */
+public class CoOccurrencePruner {
+
+    public static final String TOP_M = "coOccurrence.prune.topM";
+    public static final String MIN_SUPPORT = "coOccurrence.prune.minSupport";
+
+    /**
+     * Returns whether the options prune anything, i.e. whether the Driver runs the pruning job.
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getInt(TOP_M, 0) > 0 || conf.getInt(MIN_SUPPORT, 1) > 1;
+    }
+
+    /**
+     * RowMapper groups the cells by row.
+     *
+     * inputKey: movieA:movieB; inputValue: relation
+     * outputKey: movieB; outputValue: movieA:relation
+     */
+    public static class RowMapper extends Mapper<IntPairWritable, IntWritable, IntWritable, IntPairWritable> {
+
+        private boolean upperTriangle;
+
+        private IntWritable row = new IntWritable();
+        private IntPairWritable cell = new IntPairWritable();
+
+        @Override
+        public void setup(Context context) {
+            upperTriangle = context.getConfiguration().getBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, false);
+        }
+
+        @Override
+        public void map(IntPairWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+            row.set(key.getSecond());
+            cell.set(key.getFirst(), value.get());
+            context.write(row, cell);
+            if (upperTriangle && key.getFirst() != key.getSecond()) {
+                row.set(key.getFirst());
+                cell.set(key.getSecond(), value.get());
+                context.write(row, cell);
+            }
+        }
+    }
+
+    /**
+     * PruneReducer keeps the top M cells of one row in a bounded TopKHeap, reused for all the rows, so a row never needs
+     * more than M cells of memory. The cells of every row are counted into the "co-occurrence row length"
+     * FanOutHistogram.
+     *
+     * inputKey: movieB; inputValue: movieA:relation
+     * outputKey: movieA:movieB; outputValue: relation
+     */
+    public static class PruneReducer extends Reducer<IntWritable, IntPairWritable, IntPairWritable, IntWritable> {
+
+        private TopKHeap heap;
+        private int minSupport;
+        private FanOutHistogram rowLength;
+        private RowLengths.Collector rowLengths;
+
+        private IntPairWritable moviePair = new IntPairWritable();
+        private IntWritable relation = new IntWritable();
+
+        @Override
+        public void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            int topM = conf.getInt(TOP_M, 0);
+            // without a top M, the cells above the minimum support are written as they come
+            heap = topM > 0 ? new TopKHeap(topM) : null;
+            minSupport = conf.getInt(MIN_SUPPORT, 1);
+            rowLength = new FanOutHistogram(context, "co-occurrence row length");
+            // the pruned matrix is always full
+            rowLengths = RowLengths.collector(context, false);
+        }
+
+        @Override
+        public void reduce(IntWritable key, Iterable<IntPairWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int movieB = key.get();
+            long size = 0;
+            if (heap == null) {
+                for (IntPairWritable value : values) {
+                    if (value.getFirst() == movieB || value.getSecond() >= minSupport) {
+                        write(value.getFirst(), movieB, value.getSecond(), context);
+                    }
+                    size++;
+                }
+                rowLength.add(size);
+                return;
+            }
+            heap.reset();
+            for (IntPairWritable value : values) {
+                size++;
+                if (value.getFirst() == movieB) {
+                    write(movieB, movieB, value.getSecond(), context);
+                } else if (value.getSecond() >= minSupport) {
+                    heap.offer(value.getFirst(), value.getSecond());
+                }
+            }
+            rowLength.add(size);
+            for (int i = 0; i < heap.size(); i++) {
+                write(heap.id(i), movieB, (int) heap.score(i), context);
+            }
+        }
+
+        private void write(int movieA, int movieB, int count, Context context)
+                throws IOException, InterruptedException {
+            moviePair.set(movieA, movieB);
+            relation.set(count);
+            context.write(moviePair, relation);
+            if (rowLengths != null) {
+                rowLengths.add(movieA, movieB);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (rowLengths != null) {
+                rowLengths.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(RowMapper.class);
+        job.setReducerClass(PruneReducer.class);
+        StageConfig.setReducers(job, "prune");
+        StageConfig.compressIntermediate(job);
+
+        job.setJarByClass(CoOccurrencePruner.class);
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(IntPairWritable.class);
+        job.setOutputKeyClass(IntPairWritable.class);
+        job.setOutputValueClass(IntWritable.class);
+
+        SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+        SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
+        RowLengths.enable(job);
+
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+        RowLengths.write(job, new Path(args[1]));
+        return true;
+    }
+}
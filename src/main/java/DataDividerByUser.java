@@ -1,37 +1,54 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * DataDividerByUser takes the input format: user,movie,rating, and re-format it into the output format:
  * user \t movie1:rating1,movie2:rating2,movie3:rating3...
+ *
+ * The input is the encoded raw data written by DictionaryEncoder, the output is a SequenceFile of
+ * (IntWritable user, MovieRatingListWritable movie ratings). The SeenItemsIndex stage then writes the movies rated by
+ * every user into a side file in the output directory.
+ *
+ * In the incremental mode of the Driver, merge() merges the new ratings into the output of the previous run instead,
+ * and writes out what the new ratings change (see MergeReducer).
  */
 public class DataDividerByUser {
 
+	public static final String DELTA = "_delta";
+	public static final String CHANGED_USERS = "changedUsers";
+	public static final String TOUCHED_MOVIES = "touchedMovies";
+	public static final String PAIRS = "pairs";
+	public static final String CHANGED_USERS_FILE = "_changed-users.set";
+	public static final String TOUCHED_MOVIES_FILE = "_touched-movies.set";
+
 	/**
-	 * DataDividerMapper takes the input format: user,movie,rating, and divide the data by user.
-	 * InputValue: one line from input file
+	 * DataDividerMapper takes the encoded raw data (user -> movie:rating, written by DictionaryEncoder), and divide
+	 * the data by user.
+	 * InputKey: userID; InputValue: movie:rating
 	 * OutputKey: userID
 	 * OutputValue: movie:rating
 	 */
-	public static class DataDividerMapper extends Mapper<LongWritable, Text, Text, Text> {
+	public static class DataDividerMapper
+			extends Mapper<IntWritable, MovieRatingWritable, IntWritable, MovieRatingWritable> {
 
 		@Override
-		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
-			String[] userMovieRating = value.toString().trim().split(",");
-			if (userMovieRating.length < 2) {
-				return;
-			}
-			String userID = userMovieRating[0];
-			context.write(new Text(userID), new Text(userMovieRating[1] + ":" + userMovieRating[2]));
+		public void map(IntWritable key, MovieRatingWritable value, Context context)
+				throws IOException, InterruptedException {
+			context.write(key, value);
 		}
 	}
 
@@ -41,39 +58,244 @@ public class DataDividerByUser {
 	 * InputKey: userID; InputValue: all the movie-rating pairs for the userID
 	 * OutputKey: userID; OutputValue: movie1:rating1,movie2:rating2,movie3:rating3...
 	 */
-	public static class DataDividerReducer extends Reducer<Text, Text, Text, Text> {
+	public static class DataDividerReducer
+			extends Reducer<IntWritable, MovieRatingWritable, IntWritable, MovieRatingListWritable> {
+
+		private MovieRatingListWritable movieAndRatings = new MovieRatingListWritable();
+		private FanOutHistogram historyLength;
 
 		@Override
-		public void reduce(Text key, Iterable<Text> values, Context context)
+		public void setup(Context context) {
+			historyLength = new FanOutHistogram(context, "user history length");
+		}
+
+		@Override
+		public void reduce(IntWritable key, Iterable<MovieRatingWritable> values, Context context)
 				throws IOException, InterruptedException {
 			//merge data for one user
-			StringBuilder movieAndRatings = new StringBuilder();
-			for (Text value : values) {
-				movieAndRatings.append(value).append(",");
+			movieAndRatings.clear();
+			for (MovieRatingWritable value : values) {
+				movieAndRatings.add(value.getMovie(), value.getRating());
+			}
+			historyLength.add(movieAndRatings.size());
+			context.write(key, movieAndRatings);
+		}
+	}
+
+	/**
+	 * PreviousListMapper takes the DataDividerByUser output of the previous run, in the incremental mode.
+	 * OutputKey: userID:0, side 0; OutputValue: movie1:rating1,movie2:rating2...
+	 */
+	public static class PreviousListMapper
+			extends Mapper<IntWritable, MovieRatingListWritable, JoinKeyWritable, MovieRatingListWritable> {
+
+		private JoinKeyWritable userKey = new JoinKeyWritable();
+
+		@Override
+		public void map(IntWritable key, MovieRatingListWritable value, Context context)
+				throws IOException, InterruptedException {
+			userKey.set(key.get(), 0);
+			userKey.setSide(JoinKeyWritable.BUFFERED);
+			context.write(userKey, value);
+		}
+	}
+
+	/**
+	 * DeltaMapper takes the encoded new ratings, in the incremental mode.
+	 * OutputKey: userID:0, side 1; OutputValue: movie:rating
+	 */
+	public static class DeltaMapper
+			extends Mapper<IntWritable, MovieRatingWritable, JoinKeyWritable, MovieRatingListWritable> {
+
+		private JoinKeyWritable userKey = new JoinKeyWritable();
+		private MovieRatingListWritable movieRating = new MovieRatingListWritable();
+
+		@Override
+		public void map(IntWritable key, MovieRatingWritable value, Context context)
+				throws IOException, InterruptedException {
+			userKey.set(key.get(), 0);
+			userKey.setSide(JoinKeyWritable.STREAMED);
+			movieRating.clear();
+			movieRating.add(value.getMovie(), value.getRating());
+			context.write(userKey, movieRating);
+		}
+	}
+
+	/**
+	 * MergeReducer merges the movie list of one user from the previous run, which is sorted first, with the new
+	 * ratings of the user. A new rating of a movie the user has already rated replaces the old rating, the other new
+	 * ratings are appended to the list.
+	 *
+	 * For every user with new ratings, it also writes into the _delta directory:
+	 * changedUsers: the user, whose predicates have to be recomputed
+	 * touchedMovies: all the movies rated by the user, if some of them are new, as their co-occurrence rows change
+	 * pairs: movieA:movieB \t 1 for every co-occurrence cell the new movies add, in the CoOccurrenceMatrixGenerator
+	 * format (only movieA <= movieB with coOccurrence.upperTriangle)
+	 */
+	public static class MergeReducer
+			extends Reducer<JoinKeyWritable, MovieRatingListWritable, IntWritable, MovieRatingListWritable> {
+
+		private static final IntWritable ONE = new IntWritable(1);
+
+		private MultipleOutputs<IntWritable, MovieRatingListWritable> multipleOutputs;
+		private boolean upperTriangle;
+
+		private MovieRatingListWritable merged = new MovieRatingListWritable();
+		private Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		private IntWritable user = new IntWritable();
+		private IntWritable movie = new IntWritable();
+		private IntPairWritable moviePair = new IntPairWritable();
+
+		@Override
+		public void setup(Context context) {
+			multipleOutputs = new MultipleOutputs<IntWritable, MovieRatingListWritable>(context);
+			upperTriangle = context.getConfiguration().getBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, false);
+		}
+
+		@Override
+		public void reduce(JoinKeyWritable key, Iterable<MovieRatingListWritable> values, Context context)
+				throws IOException, InterruptedException {
+			merged.clear();
+			positions.clear();
+			int previousSize = -1;
+			//the key changes its side while the values are iterated
+			for (MovieRatingListWritable value : values) {
+				if (key.getSide() == JoinKeyWritable.BUFFERED) {
+					for (int i = 0; i < value.size(); i++) {
+						merged.add(value.getMovie(i), value.getRating(i));
+					}
+					continue;
+				}
+				if (previousSize < 0) {
+					previousSize = merged.size();
+					for (int i = 0; i < previousSize; i++) {
+						positions.put(merged.getMovie(i), i);
+					}
+				}
+				Integer position = positions.get(value.getMovie(0));
+				if (position == null) {
+					positions.put(value.getMovie(0), merged.size());
+					merged.add(value.getMovie(0), value.getRating(0));
+				} else {
+					merged.setRating(position, value.getRating(0));
+				}
+			}
+			user.set(key.getFirst());
+			context.write(user, merged);
+			if (previousSize < 0) {
+				return;
+			}
+
+			multipleOutputs.write(CHANGED_USERS, user, NullWritable.get(), DELTA + "/" + CHANGED_USERS + "/part");
+			if (merged.size() == previousSize) {
+				//only changed ratings, the co-occurrence matrix stays the same
+				return;
+			}
+			for (int i = 0; i < merged.size(); i++) {
+				movie.set(merged.getMovie(i));
+				multipleOutputs.write(TOUCHED_MOVIES, movie, NullWritable.get(), DELTA + "/" + TOUCHED_MOVIES + "/part");
+			}
+			//every cell with at least one new movie is new: new x all, and previous x new
+			for (int i = previousSize; i < merged.size(); i++) {
+				for (int j = 0; j < merged.size(); j++) {
+					writePair(merged.getMovie(i), merged.getMovie(j));
+					if (j < previousSize) {
+						writePair(merged.getMovie(j), merged.getMovie(i));
+					}
+				}
 			}
-			context.write(key, new Text(movieAndRatings.deleteCharAt(movieAndRatings.length() - 1).toString()));
+		}
+
+		private void writePair(int movieA, int movieB) throws IOException, InterruptedException {
+			if (!upperTriangle || movieA <= movieB) {
+				moviePair.set(movieA, movieB);
+				multipleOutputs.write(PAIRS, moviePair, ONE, DELTA + "/" + PAIRS + "/part");
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException, InterruptedException {
+			multipleOutputs.close();
 		}
 	}
 
 	public static void main(String[] args) throws Exception {
+		System.exit(run(args) ? 0 : 1);
+	}
+
+	public static boolean run(String[] args) throws Exception {
 
 		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
 
 		Job job = Job.getInstance(conf);
 		job.setMapperClass(DataDividerMapper.class);
 		job.setReducerClass(DataDividerReducer.class);
+		StageConfig.setReducers(job, "dataDivider");
+		StageConfig.compressIntermediate(job);
 
 		job.setJarByClass(DataDividerByUser.class);
 
-		job.setInputFormatClass(TextInputFormat.class);
-		job.setOutputFormatClass(TextOutputFormat.class);
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(Text.class);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		job.setMapOutputKeyClass(IntWritable.class);
+		job.setMapOutputValueClass(MovieRatingWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(MovieRatingListWritable.class);
 
-		TextInputFormat.setInputPaths(job, new Path(args[0]));
-		TextOutputFormat.setOutputPath(job, new Path(args[1]));
+		SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+		SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+		return RunReport.waitForCompletion(job);
+	}
 
-		job.waitForCompletion(true);
+	/**
+	 * Runs the incremental mode: merges the new ratings into the DataDividerByUser output of the previous run.
+	 * It takes three arguments: the encoded new ratings, the output directory and the previous output directory.
+	 * After the job, the changed users and the touched movies are written as DenseIdSet files into the output
+	 * directory, for UserScoring to find the users whose predicates change.
+	 */
+	public static boolean merge(String[] args) throws Exception {
+
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+		Job job = Job.getInstance(conf);
+		job.setReducerClass(MergeReducer.class);
+		job.setPartitionerClass(IntPairWritable.FirstPartitioner.class);
+		job.setGroupingComparatorClass(JoinKeyWritable.GroupingComparator.class);
+		StageConfig.setReducers(job, "dataDivider");
+		StageConfig.compressIntermediate(job);
+
+		job.setJarByClass(DataDividerByUser.class);
+
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		job.setMapOutputKeyClass(JoinKeyWritable.class);
+		job.setMapOutputValueClass(MovieRatingListWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(MovieRatingListWritable.class);
+		MultipleOutputs.addNamedOutput(job, CHANGED_USERS, SequenceFileOutputFormat.class,
+				IntWritable.class, NullWritable.class);
+		MultipleOutputs.addNamedOutput(job, TOUCHED_MOVIES, SequenceFileOutputFormat.class,
+				IntWritable.class, NullWritable.class);
+		MultipleOutputs.addNamedOutput(job, PAIRS, SequenceFileOutputFormat.class,
+				IntPairWritable.class, IntWritable.class);
+
+		MultipleInputs.addInputPath(job, new Path(args[2]), SequenceFileInputFormat.class, PreviousListMapper.class);
+		MultipleInputs.addInputPath(job, new Path(args[0]), SequenceFileInputFormat.class, DeltaMapper.class);
+		Path output = new Path(args[1]);
+		SequenceFileOutputFormat.setOutputPath(job, output);
+
+		if (!RunReport.waitForCompletion(job)) {
+			return false;
+		}
+		//the pairs directory is the input of the co-occurrence merge, even if no movie is new
+		output.getFileSystem(conf).mkdirs(new Path(output, DELTA + "/" + PAIRS));
+		DenseIdSet.write(conf, DenseIdSet.readIds(conf, new Path(output, DELTA + "/" + CHANGED_USERS + "/part-*")),
+				new Path(output, CHANGED_USERS_FILE));
+		DenseIdSet.write(conf, DenseIdSet.readIds(conf, new Path(output, DELTA + "/" + TOUCHED_MOVIES + "/part-*")),
+				new Path(output, TOUCHED_MOVIES_FILE));
+		return true;
 	}
 
 }
@@ -0,0 +1,86 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.BitSet;
+
+/**
+ * DenseIdSet is a set of dense user or movie IDs (see DictionaryEncoder) stored as a bitset side file:
+ *
+ * int magic, int size: one more than the largest ID the set can hold,
+ * long[(size + 63) / 64] words: bit id % 64 of word id / 64 is set if the ID is in the set.
+ *
+ * Readers memory-map the file, like the SeenItemsIndex, so a set over millions of users costs no heap.
+ */
+public class DenseIdSet {
+    private static final int MAGIC = 0x49445354;
+    private static final int HEADER_BYTES = 8;
+
+    private final int size;
+    private final LongBuffer words;
+
+    private DenseIdSet(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a dense ID set file");
+        }
+        size = buffer.getInt(4);
+        buffer.position(HEADER_BYTES);
+        words = buffer.slice().asLongBuffer();
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < size && (words.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    /**
+     * Writes the IDs set in ids to path.
+     */
+    public static void write(Configuration conf, BitSet ids, Path path) throws IOException {
+        int size = ids.length();
+        long[] words = ids.toLongArray();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                path.getFileSystem(conf).create(path, true)));
+        out.writeInt(MAGIC);
+        out.writeInt(size);
+        for (int i = 0; i < (size + 63) / 64; i++) {
+            out.writeLong(i < words.length ? words[i] : 0);
+        }
+        out.close();
+    }
+
+    /**
+     * Memory-maps the set at path.
+     */
+    public static DenseIdSet open(Configuration conf, Path path) throws IOException {
+        return new DenseIdSet(SeenItemsIndex.map(conf, path));
+    }
+
+    /**
+     * Reads the IDs from the keys of all the SequenceFiles of (IntWritable id, NullWritable) matching pattern.
+     */
+    public static BitSet readIds(Configuration conf, Path pattern) throws IOException {
+        BitSet ids = new BitSet();
+        FileSystem fileSystem = pattern.getFileSystem(conf);
+        FileStatus[] parts = fileSystem.globStatus(pattern);
+        IntWritable id = new IntWritable();
+        if (parts != null) {
+            for (FileStatus part : parts) {
+                SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+                while (reader.next(id, NullWritable.get())) {
+                    ids.set(id.get());
+                }
+                reader.close();
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,289 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DictionaryEncoder is the first stage of the pipeline. It assigns dense int IDs (0, 1, 2...) to the users and the
+ * movies of the raw data file (format: user,movie,rating), and re-writes the raw data with the dense IDs, so all the
+ * following jobs work on ints. TopKRecommenderListGenerator uses the dictionaries to restore the original IDs.
+ *
+ * It runs two jobs, both writing under the dictionary directory:
+ * 1) ids: the user and movie dictionaries, SequenceFiles of (Text original ID, IntWritable dense ID) named
+ * users-r-* and movies-r-*.
+ * 2) ratings: the encoded raw data, a SequenceFile of (IntWritable user, MovieRatingWritable movie:rating).
+ *
+ * It takes two or three arguments: the raw data file, the dictionary directory and, in the incremental mode of the
+ * Driver, the dictionary directory of the previous run. The raw data is then only the new ratings: the previous
+ * dictionaries are extended with the IDs they do not hold yet, and only the new ratings are encoded.
+ */
+public class DictionaryEncoder {
+
+	public static final String USERS = "users";
+	public static final String MOVIES = "movies";
+	public static final String PREVIOUS = "dictionary.previous";
+
+	private static final char USER_TAG = 'u';
+	private static final char MOVIE_TAG = 'm';
+	private static final byte[] USER_TAG_BYTES = {(byte) USER_TAG};
+	private static final byte[] MOVIE_TAG_BYTES = {(byte) MOVIE_TAG};
+
+	/**
+	 * IdMapper takes the raw data file and emits every user and movie ID, tagged with its type.
+	 *
+	 * inputValue: user,movie,rating (parsed by RatingInputFormat)
+	 * outputKey: u + user, m + movie
+	 * outputValue: null
+	 */
+	public static class IdMapper extends Mapper<LongWritable, RatingRecord, Text, NullWritable> {
+
+		private Text id = new Text();
+
+		@Override
+		public void map(LongWritable key, RatingRecord value, Context context) throws IOException, InterruptedException {
+			id.set(USER_TAG_BYTES);
+			id.append(value.getBytes(), value.getUserStart(), value.getUserLength());
+			context.write(id, NullWritable.get());
+			id.set(MOVIE_TAG_BYTES);
+			id.append(value.getBytes(), value.getMovieStart(), value.getMovieLength());
+			context.write(id, NullWritable.get());
+		}
+	}
+
+	/**
+	 * IdCombiner removes the duplicated IDs on the map side.
+	 */
+	public static class IdCombiner extends Reducer<Text, NullWritable, Text, NullWritable> {
+
+		@Override
+		public void reduce(Text key, Iterable<NullWritable> values, Context context)
+				throws IOException, InterruptedException {
+			context.write(key, NullWritable.get());
+		}
+	}
+
+	/**
+	 * IdReducer assigns the dense IDs in the sorted order of the original IDs. The job runs with a single reducer, so
+	 * the IDs of each type are numbered without gaps; only the distinct IDs reach it.
+	 *
+	 * When a previous dictionary is given ("dictionary.previous"), its IDs keep their dense IDs, the new IDs are
+	 * numbered after them in sorted order, and the previous entries are written out again with the new ones, so the
+	 * output is the complete extended dictionary.
+	 *
+	 * inputKey: u + user, m + movie
+	 * output (users-r-*, movies-r-*): original ID \t dense ID
+	 */
+	public static class IdReducer extends Reducer<Text, NullWritable, Text, IntWritable> {
+
+		private MultipleOutputs<Text, IntWritable> multipleOutputs;
+		private Map<Text, Integer> previousUsers = new HashMap<Text, Integer>();
+		private Map<Text, Integer> previousMovies = new HashMap<Text, Integer>();
+		private int nextUser;
+		private int nextMovie;
+
+		private Text originalId = new Text();
+		private IntWritable denseId = new IntWritable();
+
+		@Override
+		public void setup(Context context) throws IOException {
+			multipleOutputs = new MultipleOutputs<Text, IntWritable>(context);
+			Configuration conf = context.getConfiguration();
+			if (conf.get(PREVIOUS) != null) {
+				previousUsers = loadDictionary(conf, new Path(conf.get(PREVIOUS)), USERS);
+				previousMovies = loadDictionary(conf, new Path(conf.get(PREVIOUS)), MOVIES);
+				nextUser = previousUsers.size();
+				nextMovie = previousMovies.size();
+			}
+		}
+
+		@Override
+		public void reduce(Text key, Iterable<NullWritable> values, Context context)
+				throws IOException, InterruptedException {
+			originalId.set(key.getBytes(), 1, key.getLength() - 1);
+			if (key.charAt(0) == USER_TAG) {
+				if (previousUsers.containsKey(originalId)) {
+					return;
+				}
+				denseId.set(nextUser++);
+				multipleOutputs.write(USERS, originalId, denseId);
+			} else {
+				if (previousMovies.containsKey(originalId)) {
+					return;
+				}
+				denseId.set(nextMovie++);
+				multipleOutputs.write(MOVIES, originalId, denseId);
+			}
+		}
+
+		@Override
+		public void cleanup(Context context) throws IOException, InterruptedException {
+			writeAll(USERS, previousUsers);
+			writeAll(MOVIES, previousMovies);
+			multipleOutputs.close();
+		}
+
+		private void writeAll(String name, Map<Text, Integer> dictionary) throws IOException, InterruptedException {
+			for (Map.Entry<Text, Integer> entry : dictionary.entrySet()) {
+				denseId.set(entry.getValue());
+				multipleOutputs.write(name, entry.getKey(), denseId);
+			}
+		}
+	}
+
+	/**
+	 * EncoderMapper loads both dictionaries and re-writes every line of the raw data file with the dense IDs. The
+	 * dictionaries are keyed by Text, so the IDs are looked up straight from the line buffer.
+	 *
+	 * inputValue: user,movie,rating (parsed by RatingInputFormat)
+	 * outputKey: dense user ID
+	 * outputValue: dense movie ID:rating
+	 */
+	public static class EncoderMapper extends Mapper<LongWritable, RatingRecord, IntWritable, MovieRatingWritable> {
+
+		private Map<Text, Integer> users;
+		private Map<Text, Integer> movies;
+
+		private Text id = new Text();
+		private IntWritable user = new IntWritable();
+		private MovieRatingWritable movieRating = new MovieRatingWritable();
+
+		@Override
+		public void setup(Context context) throws IOException {
+			Configuration conf = context.getConfiguration();
+			Path dictionaryDir = new Path(conf.get("dictionary"));
+			users = loadDictionary(conf, dictionaryDir, USERS);
+			movies = loadDictionary(conf, dictionaryDir, MOVIES);
+		}
+
+		@Override
+		public void map(LongWritable key, RatingRecord value, Context context) throws IOException, InterruptedException {
+			value.getUser(id);
+			user.set(users.get(id));
+			value.getMovie(id);
+			movieRating.set(movies.get(id), value.getRating());
+			context.write(user, movieRating);
+		}
+	}
+
+	/**
+	 * Returns the paths of all the parts of one dictionary (users or movies).
+	 */
+	static List<Path> dictionaryParts(Configuration conf, Path dictionaryDir, String name) throws IOException {
+		FileSystem fileSystem = dictionaryDir.getFileSystem(conf);
+		FileStatus[] parts = fileSystem.globStatus(new Path(new Path(dictionaryDir, "ids"), name + "-r-*"));
+		List<Path> paths = new ArrayList<Path>();
+		if (parts != null) {
+			for (FileStatus part : parts) {
+				paths.add(part.getPath());
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Loads one dictionary as original ID -> dense ID.
+	 */
+	public static Map<Text, Integer> loadDictionary(Configuration conf, Path dictionaryDir, String name)
+			throws IOException {
+		Map<Text, Integer> dictionary = new HashMap<Text, Integer>();
+		FileSystem fileSystem = dictionaryDir.getFileSystem(conf);
+		IntWritable denseId = new IntWritable();
+		for (Path part : dictionaryParts(conf, dictionaryDir, name)) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part, conf);
+			Text originalId = new Text();
+			while (reader.next(originalId, denseId)) {
+				dictionary.put(originalId, denseId.get());
+				originalId = new Text();
+			}
+			reader.close();
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Loads one dictionary as an array indexed by the dense ID, holding the original IDs.
+	 */
+	public static String[] loadReverseDictionary(Configuration conf, Path dictionaryDir, String name)
+			throws IOException {
+		Map<Text, Integer> dictionary = loadDictionary(conf, dictionaryDir, name);
+		String[] originalIds = new String[dictionary.size()];
+		for (Map.Entry<Text, Integer> entry : dictionary.entrySet()) {
+			originalIds[entry.getValue()] = entry.getKey().toString();
+		}
+		return originalIds;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.exit(run(args) ? 0 : 1);
+	}
+
+	public static boolean run(String[] args) throws Exception {
+
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		conf.set("dictionary", args[1]);
+		if (args.length > 2) {
+			conf.set(PREVIOUS, args[2]);
+		}
+
+		Job job = Job.getInstance(conf);
+		job.setMapperClass(IdMapper.class);
+		job.setCombinerClass(IdCombiner.class);
+		job.setReducerClass(IdReducer.class);
+		job.setNumReduceTasks(1);
+		StageConfig.compressIntermediate(job);
+
+		job.setJarByClass(DictionaryEncoder.class);
+
+		job.setInputFormatClass(RatingInputFormat.class);
+		LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+		MultipleOutputs.addNamedOutput(job, USERS, SequenceFileOutputFormat.class, Text.class, IntWritable.class);
+		MultipleOutputs.addNamedOutput(job, MOVIES, SequenceFileOutputFormat.class, Text.class, IntWritable.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(NullWritable.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(IntWritable.class);
+
+		RatingInputFormat.setInputPaths(job, new Path(args[0]));
+		SequenceFileOutputFormat.setOutputPath(job, new Path(args[1], "ids"));
+
+		if (!RunReport.waitForCompletion(job)) {
+			return false;
+		}
+
+		Job encodeJob = Job.getInstance(conf);
+		encodeJob.setMapperClass(EncoderMapper.class);
+		encodeJob.setNumReduceTasks(0);
+		StageConfig.compressIntermediate(encodeJob);
+
+		encodeJob.setJarByClass(DictionaryEncoder.class);
+
+		encodeJob.setInputFormatClass(RatingInputFormat.class);
+		encodeJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		encodeJob.setOutputKeyClass(IntWritable.class);
+		encodeJob.setOutputValueClass(MovieRatingWritable.class);
+
+		RatingInputFormat.setInputPaths(encodeJob, new Path(args[0]));
+		SequenceFileOutputFormat.setOutputPath(encodeJob, new Path(args[1], "ratings"));
+
+		return RunReport.waitForCompletion(encodeJob);
+	}
+}
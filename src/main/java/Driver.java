@@ -1,7 +1,17 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * The Driver set up and run all the jobs for the Recommender System.
  *
- * It takes seven arguments as input:
+ * It takes seven or eight arguments as input:
  * 1) the directory of a raw dataset file -- rawInput
  * 2) the directory of re-format data that divided by user -- userMovieListOutputDir
  * 3) the directory of co-occurrence matrix -- coOccurrenceMatrixDir
@@ -9,17 +19,66 @@
  * 5) the directory of overall movie predicates for users -- overallRatingDir
  * 6) the directory of topK recommender list per user --topKDir
  * 7) k for top k recommender list calculation -- k
+ * 8) (optional) the directory of the user and movie ID dictionaries and the encoded raw data -- dictionaryDir,
+ * by default userMovieListOutputDir + "_dictionary"
+ *
+ * Generic Hadoop options (e.g. -D coOccurrence.mode=stripes) can be put in front of the arguments, they are passed on
+ * to every job.
+ *
+ * With -D itemcf.scoring=mapSide, the Multiplication and OverallRating jobs are replaced by the map-only UserScoring
+ * job, which writes the same output into overallRatingDir (multiplicationDir is then not used).
+ *
+ * With -D itemcf.fuseTopK=true, the OverallRating and TopKRecommenderListGenerator jobs are replaced by the single
+ * OverallRatingTopKGenerator job; the predicates are only written into overallRatingDir if
+ * itemcf.fuseTopK.overallRating is true as well.
+ *
+ * With -D itemcf.incremental.previous=userMovieListOutputDir,coOccurrenceMatrixDir,topKDir[,dictionaryDir] of a
+ * previous run, rawInput only holds the new ratings, and the outputs are updated from the previous ones (see
+ * runIncremental).
+ *
+ * With -D coOccurrence.prune.topM=M (and/or coOccurrence.prune.minSupport), the co-occurrence matrix is pruned into
+ * coOccurrenceMatrixDir + "_pruned" by CoOccurrencePruner, and the scoring jobs read the pruned matrix. The pruned
+ * matrix is always a full matrix, so they run with coOccurrence.upperTriangle=false.
+ *
+ * With -D itemcf.targetUsers=userList, only the users of the list (one original user ID per line) are scored and get
+ * a top k list; the co-occurrence matrix is still built from all the ratings. A TargetUsers stage writes the dense
+ * IDs of the listed users and the movies they rated into userMovieListOutputDir, and the scoring jobs drop the other
+ * users' ratings and the co-occurrence cells no targeted rating is joined with. In the incremental mode, the other
+ * users keep their previous top k lists.
+ *
+ * With -D itemcf.model=modelDir, the user ratings, the co-occurrence matrix the scoring jobs read and the dictionaries
+ * are also exported into modelDir/itemcf.model, a ModelFile for the ModelScorer.
+ *
+ * With -D itemcf.sweep=gridFile, the Driver runs the ParameterSweep instead of scoring the users (see runSweep).
+ *
+ * The stages are run by a PipelineScheduler: a stage starts when the stages it reads from have succeeded (the
+ * SeenItemsIndex and the co-occurrence matrix are built at the same time), the run stops at the first failed stage,
+ * and a rerun with the same arguments skips the stages that completed before. The Driver exits with 1 if a stage
+ * failed.
+ *
+ * At the end of the run, succeeded or not, the Driver writes the RunReport of the stages (their wall time, and the
+ * records, bytes, counters and fan-out histograms of their jobs) as JSON into topKDir + "-report.json", or into
+ * -D itemcf.report=file.
  *
  */
 public class Driver {
+
+	public static final String SCORING = "itemcf.scoring";
+	public static final String MAP_SIDE_SCORING = "mapSide";
+	public static final String FUSE_TOP_K = "itemcf.fuseTopK";
+	public static final String FUSED_OVERALL_RATING = "itemcf.fuseTopK.overallRating";
+	public static final String INCREMENTAL = "itemcf.incremental.previous";
+	public static final String MODEL = "itemcf.model";
+	public static final String REPORT = "itemcf.report";
+	public static final String SWEEP = "itemcf.sweep";
+
 	public static void main(String[] args) throws Exception {
-		
-		DataDividerByUser dataDividerByUser = new DataDividerByUser();
-		CoOccurrenceMatrixGenerator coOccurrenceMatrixGenerator = new CoOccurrenceMatrixGenerator();
-		Multiplication multiplication = new Multiplication();
-		OverallRating overallRating = new OverallRating();
-		TopKRecommenderListGenerator topKRecommenderListGenerator = new TopKRecommenderListGenerator();
 
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		String[] genericArgs = Arrays.copyOfRange(args, 0, args.length - otherArgs.length);
+		args = otherArgs;
+		
 		String rawInput = args[0];
 		String userMovieListOutputDir = args[1];
 		String coOccurrenceMatrixDir = args[2];
@@ -27,18 +86,414 @@ public class Driver {
 		String overallRatingDir = args[4];
 		String topKDir = args[5];
 		String k = args[6];
+		String dictionaryDir = args.length > 7 ? args[7] : userMovieListOutputDir + "_dictionary";
+		String encodedRatings = dictionaryDir + "/ratings";
 
-		String[] path1 = {rawInput, userMovieListOutputDir};
+		String[] path0 = {rawInput, dictionaryDir};
+		String[] path1 = {encodedRatings, userMovieListOutputDir};
+		String[] pathSeen = {userMovieListOutputDir};
 		String[] path2 = {userMovieListOutputDir, coOccurrenceMatrixDir};
-		String[] path3 = {coOccurrenceMatrixDir, rawInput, multiplicationDir, userMovieListOutputDir};
+		String prunedMatrixDir = coOccurrenceMatrixDir + "_pruned";
+		String scoredMatrixDir = CoOccurrencePruner.isEnabled(conf) ? prunedMatrixDir : coOccurrenceMatrixDir;
+		String[] pathPrune = {coOccurrenceMatrixDir, prunedMatrixDir};
+		String[] path3 = {scoredMatrixDir, encodedRatings, multiplicationDir, userMovieListOutputDir};
 		String[] path4 = {multiplicationDir, overallRatingDir};
-		String[] path5 = {overallRatingDir, topKDir, k};
-		
-		dataDividerByUser.main(path1);
-		coOccurrenceMatrixGenerator.main(path2);
-		multiplication.main(path3);
-		overallRating.main(path4);
-		topKRecommenderListGenerator.main(path5);
+		String[] path34 = {userMovieListOutputDir, scoredMatrixDir, overallRatingDir};
+		String[] path5 = {overallRatingDir, topKDir, k, dictionaryDir};
+		String[] path45 = conf.getBoolean(FUSED_OVERALL_RATING, false)
+				? new String[] {multiplicationDir, topKDir, k, dictionaryDir, overallRatingDir}
+				: new String[] {multiplicationDir, topKDir, k, dictionaryDir};
+
+		if (conf.get(SWEEP) != null) {
+			if (!runSweep(conf, genericArgs, args, dictionaryDir)) {
+				System.exit(1);
+			}
+			return;
+		}
+		if (conf.get(INCREMENTAL) != null) {
+			if (!runIncremental(conf, genericArgs, args, dictionaryDir)) {
+				System.exit(1);
+			}
+			return;
+		}
+
+		PipelineScheduler scheduler = new PipelineScheduler(conf);
+		PipelineStage dictionary = scheduler.add(new PipelineStage("dictionary",
+				withGenericArgs(genericArgs, path0), dictionaryDir, new String[] {dictionaryDir}) {
+			protected boolean run(String[] args) throws Exception {
+				return DictionaryEncoder.run(args);
+			}
+		});
+		PipelineStage dataDivider = scheduler.add(new PipelineStage("dataDivider",
+				withGenericArgs(genericArgs, path1), userMovieListOutputDir, new String[] {userMovieListOutputDir},
+				dictionary) {
+			protected boolean run(String[] args) throws Exception {
+				return DataDividerByUser.run(args);
+			}
+		});
+		// the index is written next to the divided data, so the stage does not own an output directory
+		PipelineStage seenItems = scheduler.add(new PipelineStage("seenItems",
+				withGenericArgs(genericArgs, pathSeen), userMovieListOutputDir, new String[0], dataDivider) {
+			protected boolean run(String[] args) throws Exception {
+				return SeenItemsIndex.run(args);
+			}
+		});
+		PipelineStage coOccurrence = scheduler.add(new PipelineStage("coOccurrence",
+				withGenericArgs(genericArgs, path2), coOccurrenceMatrixDir, new String[] {coOccurrenceMatrixDir},
+				dataDivider) {
+			protected boolean run(String[] args) throws Exception {
+				return CoOccurrenceMatrixGenerator.run(args);
+			}
+		});
+		PipelineStage matrix = coOccurrence;
+		String[] scoringArgs = genericArgs;
+		if (CoOccurrencePruner.isEnabled(conf)) {
+			matrix = scheduler.add(prune(genericArgs, pathPrune, coOccurrence));
+			scoringArgs = fullMatrixArgs(genericArgs);
+		}
+		PipelineStage targets = null;
+		if (TargetUsers.isEnabled(conf)) {
+			targets = scheduler.add(targetUsers(conf, genericArgs, dictionaryDir, userMovieListOutputDir,
+					dictionary, seenItems));
+		}
+
+		PipelineStage scores = null;
+		if (MAP_SIDE_SCORING.equals(conf.get(SCORING))) {
+			scores = scheduler.add(new PipelineStage("userScoring",
+					withGenericArgs(scoringArgs, path34), overallRatingDir, new String[] {overallRatingDir},
+					stages(dataDivider, matrix, targets)) {
+				protected boolean run(String[] args) throws Exception {
+					return UserScoring.run(args);
+				}
+			});
+		} else {
+			PipelineStage multiplication = scheduler.add(new PipelineStage("multiplication",
+					withGenericArgs(scoringArgs, path3), multiplicationDir, new String[] {multiplicationDir},
+					stages(dictionary, seenItems, matrix, targets)) {
+				protected boolean run(String[] args) throws Exception {
+					return Multiplication.run(args);
+				}
+			});
+			if (conf.getBoolean(FUSE_TOP_K, false)) {
+				String[] outputs = path45.length > 4 ? new String[] {topKDir, overallRatingDir} : new String[] {topKDir};
+				scheduler.add(new PipelineStage("overallRatingTopK",
+						withGenericArgs(genericArgs, path45), topKDir, outputs, multiplication) {
+					protected boolean run(String[] args) throws Exception {
+						return OverallRatingTopKGenerator.run(args);
+					}
+				});
+			} else {
+				scores = scheduler.add(new PipelineStage("overallRating",
+						withGenericArgs(genericArgs, path4), overallRatingDir, new String[] {overallRatingDir},
+						multiplication) {
+					protected boolean run(String[] args) throws Exception {
+						return OverallRating.run(args);
+					}
+				});
+			}
+		}
+		if (conf.get(MODEL) != null) {
+			String[] pathModel = {userMovieListOutputDir, scoredMatrixDir, dictionaryDir, conf.get(MODEL)};
+			scheduler.add(model(scoringArgs, pathModel, dictionary, dataDivider, matrix));
+		}
+		if (scores != null) {
+			scheduler.add(new PipelineStage("topK",
+					withGenericArgs(genericArgs, path5), topKDir, new String[] {topKDir}, scores) {
+				protected boolean run(String[] args) throws Exception {
+					return TopKRecommenderListGenerator.run(args);
+				}
+			});
+		}
+
+		if (!run(scheduler, conf, topKDir)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs the incremental mode: rawInput holds only the new ratings, and itemcf.incremental.previous names the
+	 * userMovieListOutputDir, coOccurrenceMatrixDir, topKDir and (optionally) dictionaryDir of the previous run.
+	 * The new ratings are merged into the previous user lists and co-occurrence matrix, and only the users affected by
+	 * them are scored (always with UserScoring); their top k lists are merged into the previous top k output.
+	 *
+	 * The merge counts every cell of the new ratings as 1, from the whole history of the user, so it cannot extend a
+	 * matrix built with coOccurrence.maxUserRatings or coOccurrence.userWeighting; the run is rejected if either is set,
+	 * in this run or in the generic arguments the success marker of the previous coOccurrence stage holds.
+	 * Nor can it extend a coOccurrence.mode=minHash matrix, which only holds the cells of the LSH candidate pairs: the
+	 * exact counts of the new pairs would add the cells of pairs that are not candidates. That mode is checked the same
+	 * way.
+	 */
+	private static boolean runIncremental(Configuration conf, String[] genericArgs, String[] args, String dictionaryDir)
+			throws Exception {
+		String[] previous = conf.getStrings(INCREMENTAL);
+		String previousUserMovieListDir = previous[0];
+		String previousCoOccurrenceMatrixDir = previous[1];
+		String previousTopKDir = previous[2];
+		String previousDictionaryDir = previous.length > 3 ? previous[3] : previousUserMovieListDir + "_dictionary";
+		checkMergeable(conf, "this run");
+		checkMergeable(previousSettings(conf, previousCoOccurrenceMatrixDir),
+				"the previous co-occurrence matrix " + previousCoOccurrenceMatrixDir);
+
+		String delta = args[0];
+		String userMovieListOutputDir = args[1];
+		String coOccurrenceMatrixDir = args[2];
+		String overallRatingDir = args[4];
+		String topKDir = args[5];
+		String k = args[6];
+		String encodedDelta = dictionaryDir + "/ratings";
+		String deltaPairs = userMovieListOutputDir + "/" + DataDividerByUser.DELTA + "/" + DataDividerByUser.PAIRS;
+		String affectedUsers = overallRatingDir + "/" + UserScoring.AFFECTED_DIR;
+		String affectedTopKDir = topKDir + "_affected";
+		String prunedMatrixDir = coOccurrenceMatrixDir + "_pruned";
+		String scoredMatrixDir = CoOccurrencePruner.isEnabled(conf) ? prunedMatrixDir : coOccurrenceMatrixDir;
+
+		String[] path0 = {delta, dictionaryDir, previousDictionaryDir};
+		String[] path1 = {encodedDelta, userMovieListOutputDir, previousUserMovieListDir};
+		String[] path2 = {previousCoOccurrenceMatrixDir, deltaPairs, coOccurrenceMatrixDir};
+		String[] pathPrune = {coOccurrenceMatrixDir, prunedMatrixDir};
+		String[] path34 = {userMovieListOutputDir, scoredMatrixDir, overallRatingDir, userMovieListOutputDir};
+		String[] path5 = {overallRatingDir, affectedTopKDir, k, dictionaryDir};
+		String[] path6 = {previousTopKDir, affectedTopKDir, affectedUsers, topKDir, dictionaryDir};
+
+		PipelineScheduler scheduler = new PipelineScheduler(conf);
+		PipelineStage dictionary = scheduler.add(new PipelineStage("dictionary",
+				withGenericArgs(genericArgs, path0), dictionaryDir, new String[] {dictionaryDir}) {
+			protected boolean run(String[] args) throws Exception {
+				return DictionaryEncoder.run(args);
+			}
+		});
+		PipelineStage dataDivider = scheduler.add(new PipelineStage("dataDivider",
+				withGenericArgs(genericArgs, path1), userMovieListOutputDir, new String[] {userMovieListOutputDir},
+				dictionary) {
+			protected boolean run(String[] args) throws Exception {
+				return DataDividerByUser.merge(args);
+			}
+		});
+		PipelineStage coOccurrence = scheduler.add(new PipelineStage("coOccurrence",
+				withGenericArgs(genericArgs, path2), coOccurrenceMatrixDir, new String[] {coOccurrenceMatrixDir},
+				dataDivider) {
+			protected boolean run(String[] args) throws Exception {
+				return CoOccurrenceMatrixGenerator.merge(args);
+			}
+		});
+		PipelineStage matrix = coOccurrence;
+		String[] scoringArgs = genericArgs;
+		if (CoOccurrencePruner.isEnabled(conf)) {
+			// the unpruned matrix is the one merged by the next run, the pruned one is rebuilt from it
+			matrix = scheduler.add(prune(genericArgs, pathPrune, coOccurrence));
+			scoringArgs = fullMatrixArgs(genericArgs);
+		}
+		PipelineStage targets = null;
+		if (TargetUsers.isEnabled(conf)) {
+			targets = scheduler.add(targetUsers(conf, genericArgs, dictionaryDir, userMovieListOutputDir,
+					dictionary, dataDivider));
+		}
+		PipelineStage userScoring = scheduler.add(new PipelineStage("userScoring",
+				withGenericArgs(scoringArgs, path34), overallRatingDir, new String[] {overallRatingDir},
+				stages(dataDivider, matrix, targets)) {
+			protected boolean run(String[] args) throws Exception {
+				return UserScoring.run(args);
+			}
+		});
+		PipelineStage topK = scheduler.add(new PipelineStage("topK",
+				withGenericArgs(genericArgs, path5), affectedTopKDir, new String[] {affectedTopKDir}, userScoring) {
+			protected boolean run(String[] args) throws Exception {
+				return TopKRecommenderListGenerator.run(args);
+			}
+		});
+		if (conf.get(MODEL) != null) {
+			String[] pathModel = {userMovieListOutputDir, scoredMatrixDir, dictionaryDir, conf.get(MODEL)};
+			scheduler.add(model(scoringArgs, pathModel, dictionary, dataDivider, matrix));
+		}
+		scheduler.add(new PipelineStage("topKMerge",
+				withGenericArgs(genericArgs, path6), topKDir, new String[] {topKDir}, topK) {
+			protected boolean run(String[] args) throws Exception {
+				return TopKRecommenderListGenerator.merge(args);
+			}
+		});
+		return run(scheduler, conf, topKDir);
+	}
+
+	/**
+	 * Runs the stages, then writes the run report, whether they succeeded or not.
+	 */
+	/**
+	 * Throws if the settings, those of this run or those the previous matrix was built with, sample or weight the user
+	 * histories or only count the MinHash candidate pairs, which the merge of the incremental mode cannot extend.
+	 */
+	private static void checkMergeable(Configuration settings, String source) {
+		if (settings.getInt(UserHistorySampler.MAX_USER_RATINGS, 0) > 0
+				|| !"none".equals(settings.get(UserHistorySampler.USER_WEIGHTING, "none"))) {
+			throw new IllegalArgumentException("The incremental mode does not support "
+					+ UserHistorySampler.MAX_USER_RATINGS + " or " + UserHistorySampler.USER_WEIGHTING
+					+ ", set by " + source);
+		}
+		if (MinHashCoOccurrence.MODE.equals(settings.get(CoOccurrenceMatrixGenerator.MODE))) {
+			throw new IllegalArgumentException("The incremental mode does not support "
+					+ CoOccurrenceMatrixGenerator.MODE + "=" + MinHashCoOccurrence.MODE + ", set by " + source);
+		}
+	}
+
+	/**
+	 * Returns the configuration the previous co-occurrence matrix was built with, parsed from the generic arguments
+	 * held by the success marker of its coOccurrence stage.
+	 */
+	private static Configuration previousSettings(Configuration conf, String previousCoOccurrenceMatrixDir)
+			throws IOException {
+		Path marker = PipelineStage.marker(new Path(previousCoOccurrenceMatrixDir), "coOccurrence");
+		String[] previousArgs = PipelineScheduler.readMarker(conf, marker);
+		if (previousArgs == null) {
+			throw new IllegalArgumentException("The previous co-occurrence matrix has no success marker " + marker
+					+ ", so the settings it was built with are unknown");
+		}
+		Configuration previousConf = new Configuration();
+		new GenericOptionsParser(previousConf, previousArgs);
+		return previousConf;
+	}
+
+	private static boolean run(PipelineScheduler scheduler, Configuration conf, String topKDir) throws Exception {
+		boolean succeeded = scheduler.run();
+		Path report = conf.get(REPORT) != null ? new Path(conf.get(REPORT)) : new Path(topKDir).suffix("-report.json");
+		scheduler.report().write(conf, report, succeeded);
+		return succeeded;
+	}
+
+	private static PipelineStage prune(String[] genericArgs, String[] pathPrune, PipelineStage coOccurrence) {
+		return new PipelineStage("prune", withGenericArgs(genericArgs, pathPrune), pathPrune[1],
+				new String[] {pathPrune[1]}, coOccurrence) {
+			protected boolean run(String[] args) throws Exception {
+				return CoOccurrencePruner.run(args);
+			}
+		};
+	}
+
+	/**
+	 * Runs the sweep mode: the ratings are split into training and held-out ratings, the co-occurrence matrix of the
+	 * training ratings is built and exported into a ModelFile (into itemcf.model, by default topKDir + "_model"), and
+	 * the ParameterSweep evaluates the combinations of the grid file against the held-out ratings into
+	 * topKDir/sweep.tsv. multiplicationDir and overallRatingDir are not used. A rerun with a changed grid file only
+	 * redoes the sweep stage, the matrix and the model are reused.
+	 */
+	private static boolean runSweep(Configuration conf, String[] genericArgs, String[] args, String dictionaryDir)
+			throws Exception {
+		String rawInput = args[0];
+		String userMovieListOutputDir = args[1];
+		String coOccurrenceMatrixDir = args[2];
+		String topKDir = args[5];
+		String k = args[6];
+		String splitDir = userMovieListOutputDir + "_split";
+		String encodedRatings = dictionaryDir + "/ratings";
+		String prunedMatrixDir = coOccurrenceMatrixDir + "_pruned";
+		String scoredMatrixDir = CoOccurrencePruner.isEnabled(conf) ? prunedMatrixDir : coOccurrenceMatrixDir;
+		String modelDir = conf.get(MODEL) != null ? conf.get(MODEL) : topKDir + "_model";
+		Path grid = new Path(conf.get(SWEEP));
+		FileStatus gridStatus = grid.getFileSystem(conf).getFileStatus(grid);
+
+		String[] pathSplit = {rawInput, splitDir};
+		String[] path0 = {splitDir + "/part-*", dictionaryDir};
+		String[] path1 = {encodedRatings, userMovieListOutputDir};
+		String[] path2 = {userMovieListOutputDir, coOccurrenceMatrixDir};
+		String[] pathPrune = {coOccurrenceMatrixDir, prunedMatrixDir};
+		String[] pathModel = {userMovieListOutputDir, scoredMatrixDir, dictionaryDir, modelDir};
+		String[] pathSweep = {modelDir + "/" + ModelFile.FILE_NAME, splitDir + "/" + ParameterSweep.HOLDOUT_DIR,
+				topKDir, k, grid.toString(), gridStatus.getModificationTime() + ":" + gridStatus.getLen()};
+
+		PipelineScheduler scheduler = new PipelineScheduler(conf);
+		PipelineStage split = scheduler.add(new PipelineStage("holdoutSplit",
+				withGenericArgs(genericArgs, pathSplit), splitDir, new String[] {splitDir}) {
+			protected boolean run(String[] args) throws Exception {
+				return ParameterSweep.split(args);
+			}
+		});
+		PipelineStage dictionary = scheduler.add(new PipelineStage("dictionary",
+				withGenericArgs(genericArgs, path0), dictionaryDir, new String[] {dictionaryDir}, split) {
+			protected boolean run(String[] args) throws Exception {
+				return DictionaryEncoder.run(args);
+			}
+		});
+		PipelineStage dataDivider = scheduler.add(new PipelineStage("dataDivider",
+				withGenericArgs(genericArgs, path1), userMovieListOutputDir, new String[] {userMovieListOutputDir},
+				dictionary) {
+			protected boolean run(String[] args) throws Exception {
+				return DataDividerByUser.run(args);
+			}
+		});
+		PipelineStage coOccurrence = scheduler.add(new PipelineStage("coOccurrence",
+				withGenericArgs(genericArgs, path2), coOccurrenceMatrixDir, new String[] {coOccurrenceMatrixDir},
+				dataDivider) {
+			protected boolean run(String[] args) throws Exception {
+				return CoOccurrenceMatrixGenerator.run(args);
+			}
+		});
+		PipelineStage matrix = coOccurrence;
+		String[] scoringArgs = genericArgs;
+		if (CoOccurrencePruner.isEnabled(conf)) {
+			matrix = scheduler.add(prune(genericArgs, pathPrune, coOccurrence));
+			scoringArgs = fullMatrixArgs(genericArgs);
+		}
+		PipelineStage model = scheduler.add(model(scoringArgs, pathModel, dictionary, dataDivider, matrix));
+		scheduler.add(new PipelineStage("sweep",
+				withGenericArgs(genericArgs, pathSweep), topKDir, new String[] {topKDir}, split, model) {
+			protected boolean run(String[] args) throws Exception {
+				return ParameterSweep.run(args);
+			}
+		});
+		return run(scheduler, conf, topKDir);
+	}
+
+	/**
+	 * Returns the TargetUsers stage. Its sets are written next to the divided data, like the SeenItemsIndex, and the
+	 * modification time and length of the user list are part of its arguments, so a resumed run redoes it (and the
+	 * scoring) when the list has changed.
+	 */
+	private static PipelineStage targetUsers(Configuration conf, String[] genericArgs, String dictionaryDir,
+			String userMovieListOutputDir, PipelineStage... dependencies) throws Exception {
+		Path userList = new Path(conf.get(TargetUsers.TARGET_USERS));
+		FileStatus status = userList.getFileSystem(conf).getFileStatus(userList);
+		String[] pathTargets = {userList.toString(), dictionaryDir, userMovieListOutputDir,
+				status.getModificationTime() + ":" + status.getLen()};
+		return new PipelineStage("targetUsers", withGenericArgs(genericArgs, pathTargets), userMovieListOutputDir,
+				new String[0], dependencies) {
+			protected boolean run(String[] args) throws Exception {
+				return TargetUsers.run(args);
+			}
+		};
+	}
+
+	private static PipelineStage model(String[] genericArgs, String[] pathModel, PipelineStage... dependencies) {
+		return new PipelineStage("model", withGenericArgs(genericArgs, pathModel), pathModel[3],
+				new String[] {pathModel[3]}, dependencies) {
+			protected boolean run(String[] args) throws Exception {
+				return ModelFile.run(args);
+			}
+		};
+	}
+
+	/**
+	 * Returns the generic arguments for the jobs that read the pruned matrix, which is never an upper triangle.
+	 */
+	private static String[] fullMatrixArgs(String[] genericArgs) {
+		return withGenericArgs(genericArgs,
+				new String[] {"-D", CoOccurrenceMatrixGenerator.UPPER_TRIANGLE + "=false"});
+	}
+
+	/**
+	 * Returns the stages that are not null, for a dependency list holding optional stages.
+	 */
+	private static PipelineStage[] stages(PipelineStage... stages) {
+		List<PipelineStage> present = new ArrayList<PipelineStage>();
+		for (PipelineStage stage : stages) {
+			if (stage != null) {
+				present.add(stage);
+			}
+		}
+		return present.toArray(new PipelineStage[present.size()]);
+	}
+
+	private static String[] withGenericArgs(String[] genericArgs, String[] paths) {
+		String[] args = Arrays.copyOf(genericArgs, genericArgs.length + paths.length);
+		System.arraycopy(paths, 0, args, genericArgs.length, paths.length);
+		return args;
 	}
 
 }
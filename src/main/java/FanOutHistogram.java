@@ -0,0 +1,56 @@
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * FanOutHistogram counts the sizes of the groups a task handles (the history of a user, the values of a movie key...)
+ * into power-of-two buckets, kept as counters of the group "FanOut: [name]": the counter "<=b" counts the groups of
+ * b/2+1 to b records, and the counter "records" the records of all the groups. The framework sums the counters of
+ * the tasks, so the job counters hold the histogram of the whole job, which the RunReport turns into the mean group
+ * size and the skew of the stage.
+ *
+ * Every group is counted, not a sample: a bucket counter is looked up once per task, so adding a group costs two
+ * counter increments.
+ */
+public class FanOutHistogram {
+    public static final String GROUP_PREFIX = "FanOut: ";
+    public static final String RECORDS = "records";
+    public static final String BUCKET_PREFIX = "<=";
+
+    // 2^62 is the largest bound that fits in a long
+    private static final int BUCKETS = 63;
+
+    private final TaskInputOutputContext<?, ?, ?, ?> context;
+    private final String group;
+    private final org.apache.hadoop.mapreduce.Counter[] buckets = new org.apache.hadoop.mapreduce.Counter[BUCKETS];
+    private final org.apache.hadoop.mapreduce.Counter records;
+
+    public FanOutHistogram(TaskInputOutputContext<?, ?, ?, ?> context, String name) {
+        this.context = context;
+        this.group = GROUP_PREFIX + name;
+        this.records = context.getCounter(group, RECORDS);
+    }
+
+    /**
+     * Counts one group of the given number of records.
+     */
+    public void add(long size) {
+        int bucket = bucket(size);
+        org.apache.hadoop.mapreduce.Counter counter = buckets[bucket];
+        if (counter == null) {
+            counter = context.getCounter(group, BUCKET_PREFIX + bound(bucket));
+            buckets[bucket] = counter;
+        }
+        counter.increment(1);
+        records.increment(size);
+    }
+
+    /**
+     * Returns the index of the smallest power of two at least as large as size.
+     */
+    static int bucket(long size) {
+        return size <= 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(size - 1));
+    }
+
+    static long bound(int bucket) {
+        return 1L << bucket;
+    }
+}
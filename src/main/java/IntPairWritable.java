@@ -0,0 +1,135 @@
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * IntPairWritable is a (first, second) int pair key, used for movieA:movieB cells of the co-occurrence matrix and for
+ * user:movie keys. It is serialized as two variable-length ints, and its Comparator sorts the raw bytes by decoding
+ * the two ints in place, without deserializing the keys.
+ */
+public class IntPairWritable implements WritableComparable<IntPairWritable> {
+    private int first;
+    private int second;
+
+    public IntPairWritable() {
+    }
+
+    public IntPairWritable(int first, int second) {
+        set(first, second);
+    }
+
+    public void set(int first, int second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getSecond() {
+        return second;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, first);
+        WritableUtils.writeVInt(out, second);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        first = WritableUtils.readVInt(in);
+        second = WritableUtils.readVInt(in);
+    }
+
+    public int compareTo(IntPairWritable o) {
+        int cmp = compareInts(first, o.first);
+        return cmp != 0 ? cmp : compareInts(second, o.second);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntPairWritable)) {
+            return false;
+        }
+        IntPairWritable other = (IntPairWritable) o;
+        return first == other.first && second == other.second;
+    }
+
+    @Override
+    public int hashCode() {
+        return first * 163 + second;
+    }
+
+    @Override
+    public String toString() {
+        return first + ":" + second;
+    }
+
+    static int compareInts(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Comparator sorts the serialized pairs by first, then by second.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(IntPairWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int cmp = compareInts(readVInt(b1, s1), readVInt(b2, s2));
+                if (cmp != 0) {
+                    return cmp;
+                }
+                int second1 = s1 + WritableUtils.decodeVIntSize(b1[s1]);
+                int second2 = s2 + WritableUtils.decodeVIntSize(b2[s2]);
+                return compareInts(readVInt(b1, second1), readVInt(b2, second2));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * FirstComparator compares the serialized pairs by first only, to group the keys of one user (or movie).
+     */
+    public static class FirstComparator extends WritableComparator {
+
+        public FirstComparator() {
+            super(IntPairWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                return compareInts(readVInt(b1, s1), readVInt(b2, s2));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * FirstPartitioner partitions the pairs by first only, so all the keys of one user (or movie) reach one reducer.
+     */
+    public static class FirstPartitioner<V> extends Partitioner<IntPairWritable, V> {
+
+        @Override
+        public int getPartition(IntPairWritable key, V value, int numPartitions) {
+            return (key.getFirst() * 163 & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    static {
+        WritableComparator.define(IntPairWritable.class, new Comparator());
+    }
+}
@@ -0,0 +1,104 @@
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * JoinKeyWritable is the composite key of the secondary-sort join in Multiplication: a movieB:salt pair plus the side
+ * of the join the value belongs to. Keys sort by movieB, salt and side, so the side to buffer (side 0) reaches the
+ * reducer before the side to stream (side 1), while the GroupingComparator and the partitioner only look at
+ * movieB:salt.
+ */
+public class JoinKeyWritable extends IntPairWritable {
+    public static final byte BUFFERED = 0;
+    public static final byte STREAMED = 1;
+
+    private byte side;
+
+    public void setSide(byte side) {
+        this.side = side;
+    }
+
+    public byte getSide() {
+        return side;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeByte(side);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        side = in.readByte();
+    }
+
+    @Override
+    public int compareTo(IntPairWritable o) {
+        int cmp = super.compareTo(o);
+        if (cmp != 0 || !(o instanceof JoinKeyWritable)) {
+            return cmp;
+        }
+        return compareInts(side, ((JoinKeyWritable) o).side);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JoinKeyWritable && super.equals(o) && side == ((JoinKeyWritable) o).side;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * Returns the length of the serialized movieB:salt pair that starts at offset s.
+     */
+    private static int pairLength(byte[] b, int s) {
+        int firstLength = WritableUtils.decodeVIntSize(b[s]);
+        return firstLength + WritableUtils.decodeVIntSize(b[s + firstLength]);
+    }
+
+    /**
+     * Comparator sorts the serialized keys by movieB, salt and side.
+     */
+    public static class Comparator extends WritableComparator {
+        private static final IntPairWritable.Comparator PAIR_COMPARATOR = new IntPairWritable.Comparator();
+
+        public Comparator() {
+            super(JoinKeyWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int cmp = PAIR_COMPARATOR.compare(b1, s1, l1, b2, s2, l2);
+            return cmp != 0 ? cmp : compareInts(b1[s1 + pairLength(b1, s1)], b2[s2 + pairLength(b2, s2)]);
+        }
+    }
+
+    /**
+     * GroupingComparator groups the serialized keys by movieB and salt only, so both sides of the join reach one
+     * reduce call.
+     */
+    public static class GroupingComparator extends WritableComparator {
+        private static final IntPairWritable.Comparator PAIR_COMPARATOR = new IntPairWritable.Comparator();
+
+        public GroupingComparator() {
+            super(JoinKeyWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return PAIR_COMPARATOR.compare(b1, s1, l1, b2, s2, l2);
+        }
+    }
+
+    static {
+        WritableComparator.define(JoinKeyWritable.class, new Comparator());
+    }
+}
@@ -0,0 +1,382 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LocalEngine runs the whole pipeline in one JVM, without Hadoop, for data sets that fit in memory: it reproduces
+ * DictionaryEncoder, DataDividerByUser, CoOccurrenceMatrixGenerator, Multiplication + OverallRating and
+ * TopKRecommenderListGenerator, and writes the top k output of the Driver with one reducer (outputDir/part-r-00000) in
+ * a fraction of the time the job startups alone take.
+ *
+ * All the data are primitive arrays in compressed sparse row layout: the ratings by user, the raters by movie, and the
+ * co-occurrence matrix by row. The co-occurrence rows and the users are computed in parallel on a ForkJoinPool, every
+ * task accumulating into primitive arrays of its own:
+ *
+ * 1) the raw data are parsed with RatingRecord, and the dense IDs are assigned in the sorted byte order of the original
+ * IDs, as IdReducer does,
+ * 2) row movieB of the matrix sums, over the users who rated movieB, one for every movie they rated, which is the
+ * number of pairs MatrixGeneratorMapper emits for the cell,
+ * 3) every user is scored like UserScoring (the same sums as Multiplication and OverallRating) and the top k predicates
+ * are kept in a TopKHeap, so the ties are broken the same way.
+ *
+ * The output is the Driver's up to floating-point summation order (see UserScoring), and only for data without
+ * duplicate ratings: a user who rated a movie twice keeps both ratings here, as in UserScoring, while the
+ * Multiplication job keeps one of them depending on the shuffle order, so that no deterministic choice could match
+ * it. For such data the output is the one of the Driver run with itemcf.scoring=mapSide.
+ *
+ * It takes three or four arguments: the raw data file, the output directory, k and the number of threads (default:
+ * the number of cores).
+ */
+public class LocalEngine {
+
+    private final ForkJoinPool pool;
+
+    private int numUsers;
+    private int numMovies;
+    private String[] userIds;
+    private String[] movieIds;
+    // the ratings by user: user u rated movies[userOffsets[u]] to movies[userOffsets[u + 1] - 1]
+    private int[] userOffsets;
+    private int[] movies;
+    private double[] ratings;
+    // the raters by movie, one entry per rating
+    private int[] movieOffsets;
+    private int[] raters;
+    // the co-occurrence matrix, one row of movieA:relation cells per movieB, sorted by movieA
+    private int[] rowOffsets;
+    private int[] cellMovies;
+    private int[] cellRelations;
+
+    public LocalEngine(int threads) {
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Body of a parallel loop, run for a range of indices.
+     */
+    interface Range {
+        void run(int start, int end);
+    }
+
+    /**
+     * ParallelFor splits [start, end) in halves down to the grain size and runs the body on the leaves.
+     */
+    static class ParallelFor extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Range body;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        ParallelFor(Range body, int start, int end, int grain) {
+            this.body = body;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                body.run(start, end);
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new ParallelFor(body, start, mid, grain), new ParallelFor(body, mid, end, grain));
+        }
+    }
+
+    private void parallelFor(int n, Range body) {
+        pool.invoke(new ParallelFor(body, 0, n, Math.max(1, n / (pool.getParallelism() * 8))));
+    }
+
+    /**
+     * Reads and encodes the raw data file (format: user,movie,rating); lines that do not parse are skipped.
+     */
+    public void load(File rawInput) throws IOException {
+        Map<String, Integer> users = new HashMap<String, Integer>();
+        Map<String, Integer> movieNames = new HashMap<String, Integer>();
+        int[] lineUsers = new int[1024];
+        int[] lineMovies = new int[1024];
+        double[] lineRatings = new double[1024];
+        int numRatings = 0;
+
+        RatingRecord record = new RatingRecord();
+        byte[] line = new byte[256];
+        InputStream in = new BufferedInputStream(new FileInputStream(rawInput), 1 << 16);
+        try {
+            int length = 0;
+            for (int b = in.read(); ; b = in.read()) {
+                if (b != '\n' && b != -1) {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = (byte) b;
+                    continue;
+                }
+                if (record.parse(line, length)) {
+                    if (numRatings == lineUsers.length) {
+                        lineUsers = Arrays.copyOf(lineUsers, numRatings * 2);
+                        lineMovies = Arrays.copyOf(lineMovies, numRatings * 2);
+                        lineRatings = Arrays.copyOf(lineRatings, numRatings * 2);
+                    }
+                    lineUsers[numRatings] = intern(users, new String(record.getBytes(), record.getUserStart(),
+                            record.getUserLength(), StandardCharsets.UTF_8));
+                    lineMovies[numRatings] = intern(movieNames, new String(record.getBytes(), record.getMovieStart(),
+                            record.getMovieLength(), StandardCharsets.UTF_8));
+                    lineRatings[numRatings] = record.getRating();
+                    numRatings++;
+                }
+                if (b == -1) {
+                    break;
+                }
+                length = 0;
+            }
+        } finally {
+            in.close();
+        }
+
+        //dense IDs in the sorted order of the original IDs
+        userIds = new String[users.size()];
+        int[] userRanks = rank(users, userIds);
+        movieIds = new String[movieNames.size()];
+        int[] movieRanks = rank(movieNames, movieIds);
+        numUsers = userIds.length;
+        numMovies = movieIds.length;
+
+        //the ratings by user, in the order of the raw data
+        userOffsets = new int[numUsers + 1];
+        movieOffsets = new int[numMovies + 1];
+        for (int i = 0; i < numRatings; i++) {
+            lineUsers[i] = userRanks[lineUsers[i]];
+            lineMovies[i] = movieRanks[lineMovies[i]];
+            userOffsets[lineUsers[i] + 1]++;
+            movieOffsets[lineMovies[i] + 1]++;
+        }
+        for (int u = 0; u < numUsers; u++) {
+            userOffsets[u + 1] += userOffsets[u];
+        }
+        for (int m = 0; m < numMovies; m++) {
+            movieOffsets[m + 1] += movieOffsets[m];
+        }
+        movies = new int[numRatings];
+        ratings = new double[numRatings];
+        raters = new int[numRatings];
+        int[] nextRating = Arrays.copyOf(userOffsets, numUsers);
+        int[] nextRater = Arrays.copyOf(movieOffsets, numMovies);
+        for (int i = 0; i < numRatings; i++) {
+            int rating = nextRating[lineUsers[i]]++;
+            movies[rating] = lineMovies[i];
+            ratings[rating] = lineRatings[i];
+            raters[nextRater[lineMovies[i]]++] = lineUsers[i];
+        }
+    }
+
+    private static int intern(Map<String, Integer> ids, String id) {
+        Integer index = ids.get(id);
+        if (index == null) {
+            index = ids.size();
+            ids.put(id, index);
+        }
+        return index;
+    }
+
+    /**
+     * Sorts the original IDs by their UTF-8 bytes, as Text keys sort, into sortedIds, and returns the dense ID of
+     * every first-seen index.
+     */
+    private static int[] rank(Map<String, Integer> ids, String[] sortedIds) {
+        final byte[][] bytes = new byte[ids.size()][];
+        Integer[] order = new Integer[ids.size()];
+        for (Map.Entry<String, Integer> id : ids.entrySet()) {
+            bytes[id.getValue()] = id.getKey().getBytes(StandardCharsets.UTF_8);
+            sortedIds[id.getValue()] = id.getKey();
+            order[id.getValue()] = id.getValue();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                byte[] bytesA = bytes[a];
+                byte[] bytesB = bytes[b];
+                for (int i = 0; i < Math.min(bytesA.length, bytesB.length); i++) {
+                    int cmp = (bytesA[i] & 0xff) - (bytesB[i] & 0xff);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return bytesA.length - bytesB.length;
+            }
+        });
+        String[] firstSeen = sortedIds.clone();
+        int[] ranks = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            ranks[order[rank]] = rank;
+            sortedIds[rank] = firstSeen[order[rank]];
+        }
+        return ranks;
+    }
+
+    /**
+     * Computes the co-occurrence matrix, one row per movie in parallel.
+     */
+    public void coOccurrence() {
+        final int[][] rowMovies = new int[numMovies][];
+        final int[][] rowRelations = new int[numMovies][];
+        parallelFor(numMovies, new Range() {
+            public void run(int start, int end) {
+                int[] counts = new int[numMovies];
+                int[] touched = new int[numMovies];
+                for (int movieB = start; movieB < end; movieB++) {
+                    int numTouched = 0;
+                    for (int r = movieOffsets[movieB]; r < movieOffsets[movieB + 1]; r++) {
+                        int user = raters[r];
+                        for (int i = userOffsets[user]; i < userOffsets[user + 1]; i++) {
+                            if (counts[movies[i]]++ == 0) {
+                                touched[numTouched++] = movies[i];
+                            }
+                        }
+                    }
+                    Arrays.sort(touched, 0, numTouched);
+                    rowMovies[movieB] = Arrays.copyOf(touched, numTouched);
+                    rowRelations[movieB] = new int[numTouched];
+                    for (int i = 0; i < numTouched; i++) {
+                        rowRelations[movieB][i] = counts[touched[i]];
+                        counts[touched[i]] = 0;
+                    }
+                }
+            }
+        });
+
+        rowOffsets = new int[numMovies + 1];
+        for (int movie = 0; movie < numMovies; movie++) {
+            rowOffsets[movie + 1] = rowOffsets[movie] + rowMovies[movie].length;
+        }
+        cellMovies = new int[rowOffsets[numMovies]];
+        cellRelations = new int[rowOffsets[numMovies]];
+        for (int movie = 0; movie < numMovies; movie++) {
+            System.arraycopy(rowMovies[movie], 0, cellMovies, rowOffsets[movie], rowMovies[movie].length);
+            System.arraycopy(rowRelations[movie], 0, cellRelations, rowOffsets[movie], rowRelations[movie].length);
+        }
+    }
+
+    /**
+     * Scores every user in parallel and returns the top k lines (user \t movie1:predicate1,...) by dense user ID, null
+     * for the users without predicates.
+     */
+    public String[] topK(final int k) {
+        final String[] lines = new String[numUsers];
+        parallelFor(numUsers, new Range() {
+            public void run(int start, int end) {
+                double[] sums = new double[numMovies];
+                long[] weights = new long[numMovies];
+                boolean[] seen = new boolean[numMovies];
+                int[] touched = new int[numMovies];
+                TopKHeap heap = new TopKHeap(k);
+                StringBuilder builder = new StringBuilder();
+                for (int user = start; user < end; user++) {
+                    for (int i = userOffsets[user]; i < userOffsets[user + 1]; i++) {
+                        seen[movies[i]] = true;
+                    }
+                    int numTouched = 0;
+                    for (int i = userOffsets[user]; i < userOffsets[user + 1]; i++) {
+                        int movieB = movies[i];
+                        double rating = ratings[i];
+                        for (int cell = rowOffsets[movieB]; cell < rowOffsets[movieB + 1]; cell++) {
+                            int movieA = cellMovies[cell];
+                            if (seen[movieA]) {
+                                continue;
+                            }
+                            int relation = cellRelations[cell];
+                            if (weights[movieA] == 0) {
+                                touched[numTouched++] = movieA;
+                            }
+                            sums[movieA] += relation * rating;
+                            weights[movieA] += relation;
+                        }
+                    }
+
+                    heap.reset();
+                    for (int i = 0; i < numTouched; i++) {
+                        int movieA = touched[i];
+                        double predicate = OverallRating.roundPredicate(sums[movieA] / weights[movieA]);
+                        if (predicate > OverallRating.DEFAULT_THRESHOLD) {
+                            heap.offer(movieA, predicate);
+                        }
+                        sums[movieA] = 0;
+                        weights[movieA] = 0;
+                    }
+                    for (int i = userOffsets[user]; i < userOffsets[user + 1]; i++) {
+                        seen[movies[i]] = false;
+                    }
+                    if (heap.size() == 0) {
+                        continue;
+                    }
+
+                    heap.sortDescending();
+                    builder.setLength(0);
+                    builder.append(userIds[user]).append('\t');
+                    for (int i = 0; i < heap.size(); i++) {
+                        if (i > 0) {
+                            builder.append(',');
+                        }
+                        builder.append(movieIds[heap.id(i)]).append(':').append(heap.score(i));
+                    }
+                    lines[user] = builder.toString();
+                }
+            }
+        });
+        return lines;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int k = Integer.parseInt(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        LocalEngine engine = new LocalEngine(threads);
+
+        long start = System.nanoTime();
+        engine.load(new File(args[0]));
+        long loaded = System.nanoTime();
+        engine.coOccurrence();
+        long coOccurrence = System.nanoTime();
+        String[] lines = engine.topK(k);
+        long scored = System.nanoTime();
+        engine.shutdown();
+
+        File outputDir = new File(args[1]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(outputDir, "part-r-00000")), 1 << 16);
+        try {
+            for (String line : lines) {
+                if (line != null) {
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        System.err.printf("%d users, %d movies, %d ratings, %d co-occurrence cells; load %.0f ms, co-occurrence %.0f ms,"
+                        + " scoring %.0f ms, %d threads%n", engine.numUsers, engine.numMovies, engine.movies.length,
+                engine.cellMovies.length, (loaded - start) / 1e6, (coOccurrence - loaded) / 1e6,
+                (scored - coOccurrence) / 1e6, threads);
+    }
+}
@@ -0,0 +1,388 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MinHashCoOccurrence is the approximate mode of CoOccurrenceMatrixGenerator (coOccurrence.mode=minHash). Instead of
+ * enumerating every pair of movies rated by a user, which is quadratic in the length of the user's history, it finds
+ * the candidate pairs of similar movies with MinHash and LSH banding, and counts the co-occurrences of the candidates
+ * only. It runs four jobs:
+ *
+ * 1) signatures: the MinHash signature of every movie's user set, bands * rows hash values per movie,
+ * 2) buckets: the signatures are cut into bands of rows values; two movies with the same values in one band fall into
+ * the same bucket, and every pair in a bucket is a candidate,
+ * 3) candidates: the distinct candidate pairs, written into a CoOccurrenceMatrixFile,
+ * 4) counts: every user adds 1 to the candidate pairs among the movies they rated, found by walking the candidate rows
+ * of their movies, and to the diagonal of every movie they rated. The movies and weights of a user come from a
+ * UserHistorySampler, as in the exact modes.
+ *
+ * Every job costs time linear in the number of ratings (times the number of hash functions or the candidates per
+ * movie), except the pairs of a bucket, which is why buckets larger than coOccurrence.lsh.maxBucketSize are skipped.
+ *
+ * A pair of movies whose user sets have Jaccard similarity s becomes a candidate with probability
+ * 1 - (1 - s^rows)^bands, so more bands raise the recall against the exact matrix and more rows lower the number of
+ * dissimilar candidates. The counts of the candidates are exact, the pairs that are not candidates are missing.
+ *
+ * coOccurrence.lsh.bands: the number of bands (default 20)
+ * coOccurrence.lsh.rows: the number of hash values per band (default 5)
+ * coOccurrence.lsh.maxBucketSize: the number of movies above which a bucket yields no candidates (default 10000)
+ * coOccurrence.lsh.seed: the seed of the hash functions (default 0)
+ * coOccurrence.lsh.maxBuffered: the number of signature values a mapper buffers before flushing (default 1000000)
+ *
+ * input and output format are the same as CoOccurrenceMatrixGenerator's, including coOccurrence.upperTriangle and the
+ * RowLengths side file written by the counts job with multiplication.secondarySort. The intermediate outputs go to the
+ * output directory + "_minHash", which is deleted when the last job succeeds.
+ */
+public class MinHashCoOccurrence {
+
+    public static final String MODE = "minHash";
+    public static final String BANDS = "coOccurrence.lsh.bands";
+    public static final String ROWS = "coOccurrence.lsh.rows";
+    public static final String MAX_BUCKET_SIZE = "coOccurrence.lsh.maxBucketSize";
+    public static final String SEED = "coOccurrence.lsh.seed";
+    public static final String MAX_BUFFERED = "coOccurrence.lsh.maxBuffered";
+
+    public enum Lsh {
+        OVERSIZED_BUCKETS
+    }
+
+    private static int numHashes(Configuration conf) {
+        return conf.getInt(BANDS, 20) * conf.getInt(ROWS, 5);
+    }
+
+    /**
+     * Returns the finalizer of MurmurHash3, which spreads every input bit over the whole output.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * SignatureMapper hashes every user with all the hash functions once, and lowers the signature of each movie the
+     * user rated to those values. The signatures are aggregated across the users of the map task, and flushed whenever
+     * the buffered values reach coOccurrence.lsh.maxBuffered, and in cleanup.
+     *
+     * inputKey: user; inputValue: movie1:rating1,movie2:rating2...
+     * outputKey: movie; outputValue: signature
+     */
+    public static class SignatureMapper
+            extends Mapper<IntWritable, MovieRatingListWritable, IntWritable, SignatureWritable> {
+
+        private Map<Integer, int[]> signatures = new HashMap<Integer, int[]>();
+        private long[] seeds;
+        private int[] hashes;
+        private int maxMovies;
+
+        private IntWritable movie = new IntWritable();
+        private SignatureWritable signature = new SignatureWritable();
+
+        @Override
+        public void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            int numHashes = numHashes(conf);
+            seeds = new long[numHashes];
+            long seed = conf.getLong(SEED, 0);
+            for (int i = 0; i < numHashes; i++) {
+                seeds[i] = mix(seed + 0x9e3779b97f4a7c15L * (i + 1));
+            }
+            hashes = new int[numHashes];
+            maxMovies = Math.max(1, conf.getInt(MAX_BUFFERED, 1000000) / numHashes);
+        }
+
+        @Override
+        public void map(IntWritable key, MovieRatingListWritable value, Context context)
+                throws IOException, InterruptedException {
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = (int) (mix(seeds[i] ^ key.get()) >>> 32);
+            }
+            for (int i = 0; i < value.size(); i++) {
+                int[] values = signatures.get(value.getMovie(i));
+                if (values == null) {
+                    signatures.put(value.getMovie(i), hashes.clone());
+                    continue;
+                }
+                for (int j = 0; j < hashes.length; j++) {
+                    if (hashes[j] < values[j]) {
+                        values[j] = hashes[j];
+                    }
+                }
+            }
+
+            if (signatures.size() >= maxMovies) {
+                flush(context);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            for (Map.Entry<Integer, int[]> entry : signatures.entrySet()) {
+                movie.set(entry.getKey());
+                signature.set(entry.getValue(), entry.getValue().length);
+                context.write(movie, signature);
+            }
+            signatures.clear();
+        }
+    }
+
+    /**
+     * SignatureReducer takes the minimum of every hash function over the partial signatures of a movie. It is also
+     * the combiner.
+     *
+     * inputKey: movie; inputValue: signature1, signature2...
+     * outputKey: movie; outputValue: signature
+     */
+    public static class SignatureReducer extends Reducer<IntWritable, SignatureWritable, IntWritable, SignatureWritable> {
+
+        private int[] values;
+        private SignatureWritable signature = new SignatureWritable();
+
+        @Override
+        public void setup(Context context) {
+            values = new int[numHashes(context.getConfiguration())];
+        }
+
+        @Override
+        public void reduce(IntWritable key, Iterable<SignatureWritable> values, Context context)
+                throws IOException, InterruptedException {
+            Arrays.fill(this.values, Integer.MAX_VALUE);
+            for (SignatureWritable value : values) {
+                SignatureWritable.min(this.values, value);
+            }
+            signature.set(this.values, this.values.length);
+            context.write(key, signature);
+        }
+    }
+
+    /**
+     * BandMapper puts the movie into one bucket per band, keyed by the band and a hash of its rows. Different values
+     * can share a hash, which only adds candidates whose counts are computed anyway.
+     *
+     * inputKey: movie; inputValue: signature
+     * outputKey: band:bucket; outputValue: movie
+     */
+    public static class BandMapper extends Mapper<IntWritable, SignatureWritable, IntPairWritable, IntWritable> {
+
+        private int bands;
+        private int rows;
+
+        private IntPairWritable bucket = new IntPairWritable();
+
+        @Override
+        public void setup(Context context) {
+            bands = context.getConfiguration().getInt(BANDS, 20);
+            rows = context.getConfiguration().getInt(ROWS, 5);
+        }
+
+        @Override
+        public void map(IntWritable key, SignatureWritable value, Context context)
+                throws IOException, InterruptedException {
+            for (int band = 0; band < bands; band++) {
+                long h = band;
+                for (int row = band * rows; row < (band + 1) * rows; row++) {
+                    h = mix(h * 31 + value.get(row));
+                }
+                bucket.set(band, (int) h);
+                context.write(bucket, key);
+            }
+        }
+    }
+
+    /**
+     * BucketReducer emits every pair of movies in a bucket as a candidate, movieA < movieB.
+     *
+     * inputKey: band:bucket; inputValue: movie1, movie2...
+     * outputKey: movieA:movieB; outputValue: 1
+     */
+    public static class BucketReducer extends Reducer<IntPairWritable, IntWritable, IntPairWritable, IntWritable> {
+
+        private static final IntWritable ONE = new IntWritable(1);
+
+        private int maxBucketSize;
+        private int[] movies = new int[16];
+
+        private IntPairWritable moviePair = new IntPairWritable();
+
+        @Override
+        public void setup(Context context) {
+            maxBucketSize = context.getConfiguration().getInt(MAX_BUCKET_SIZE, 10000);
+        }
+
+        @Override
+        public void reduce(IntPairWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int size = 0;
+            for (IntWritable value : values) {
+                if (size == movies.length) {
+                    movies = Arrays.copyOf(movies, size * 2);
+                }
+                movies[size++] = value.get();
+            }
+            if (size > maxBucketSize) {
+                context.getCounter(Lsh.OVERSIZED_BUCKETS).increment(1);
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    moviePair.set(Math.min(movies[i], movies[j]), Math.max(movies[i], movies[j]));
+                    context.write(moviePair, ONE);
+                }
+            }
+        }
+    }
+
+    /**
+     * CandidateCountMapper memory-maps the candidate pairs and emits the co-occurrences of one user: the diagonal of
+     * every rated movie, and every candidate movieA:movieB with both movies rated (movieA < movieB only with
+     * coOccurrence.upperTriangle).
+     *
+     * inputKey: user; inputValue: movie1:rating1,movie2:rating2...
+     * outputKey: movieA:movieB; outputValue: 1
+     */
+    public static class CandidateCountMapper
+            extends Mapper<IntWritable, MovieRatingListWritable, IntPairWritable, IntWritable> {
+
+        private CoOccurrenceMatrixFile candidates;
+        private boolean upperTriangle;
+        private UserHistorySampler sampler;
+        private BitSet rated = new BitSet();
+
+        private IntPairWritable moviePair = new IntPairWritable();
+        private IntWritable weight = new IntWritable();
+
+        @Override
+        public void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            candidates = CoOccurrenceMatrixFile.open(conf,
+                    new Path(conf.get("candidates"), CoOccurrenceMatrixFile.FILE_NAME));
+            upperTriangle = conf.getBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, false);
+            sampler = new UserHistorySampler(context);
+        }
+
+        @Override
+        public void map(IntWritable key, MovieRatingListWritable value, Context context)
+                throws IOException, InterruptedException {
+            sampler.sample(key.get(), value);
+            weight.set(sampler.weight());
+            for (int i = 0; i < sampler.size(); i++) {
+                rated.set(sampler.movie(i));
+            }
+            for (int i = 0; i < sampler.size(); i++) {
+                int movieA = sampler.movie(i);
+                moviePair.set(movieA, movieA);
+                context.write(moviePair, weight);
+                for (int cell = candidates.rowStart(movieA); cell < candidates.rowEnd(movieA); cell++) {
+                    int movieB = candidates.movie(cell);
+                    if (rated.get(movieB) && (!upperTriangle || movieA < movieB)) {
+                        moviePair.set(movieA, movieB);
+                        context.write(moviePair, weight);
+                    }
+                }
+            }
+            for (int i = 0; i < sampler.size(); i++) {
+                rated.clear(sampler.movie(i));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        System.exit(run(conf, new GenericOptionsParser(conf, args).getRemainingArgs()) ? 0 : 1);
+    }
+
+    /**
+     * Runs the four jobs. It takes two arguments: the DataDividerByUser output directory and the output directory.
+     */
+    public static boolean run(Configuration conf, String[] args) throws Exception {
+        Path input = new Path(args[0]);
+        Path output = new Path(args[1]);
+        Path work = new Path(args[1] + "_minHash");
+        Path signatures = new Path(work, "signatures");
+        Path buckets = new Path(work, "buckets");
+        Path candidates = new Path(work, "candidates");
+        work.getFileSystem(conf).delete(work, true);
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(SignatureMapper.class);
+        job.setCombinerClass(SignatureReducer.class);
+        job.setReducerClass(SignatureReducer.class);
+        setUp(job, input, signatures, IntWritable.class, SignatureWritable.class);
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+
+        job = Job.getInstance(conf);
+        job.setMapperClass(BandMapper.class);
+        job.setReducerClass(BucketReducer.class);
+        setUp(job, signatures, buckets, IntPairWritable.class, IntWritable.class);
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+
+        job = Job.getInstance(conf);
+        job.setMapperClass(Mapper.class);
+        job.setCombinerClass(CoOccurrenceMatrixGenerator.RelationSumCombiner.class);
+        job.setReducerClass(CoOccurrenceMatrixGenerator.MatrixGeneratorReducer.class);
+        setUp(job, buckets, candidates, IntPairWritable.class, IntWritable.class);
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+        // the candidates are the upper triangle, the file holds both halves so every movie's row lists all of them
+        Configuration candidatesConf = new Configuration(conf);
+        candidatesConf.setBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, true);
+        CoOccurrenceMatrixFile.write(candidatesConf, candidates, new Path(candidates, CoOccurrenceMatrixFile.FILE_NAME));
+
+        Configuration countConf = new Configuration(conf);
+        countConf.set("candidates", candidates.toString());
+        job = Job.getInstance(countConf);
+        job.setMapperClass(CandidateCountMapper.class);
+        job.setCombinerClass(CoOccurrenceMatrixGenerator.RelationSumCombiner.class);
+        job.setReducerClass(CoOccurrenceMatrixGenerator.MatrixGeneratorReducer.class);
+        setUp(job, input, output, IntPairWritable.class, IntWritable.class);
+        RowLengths.enable(job);
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+        RowLengths.write(job, output);
+        work.getFileSystem(conf).delete(work, true);
+        return true;
+    }
+
+    private static void setUp(Job job, Path input, Path output, Class<?> keyClass, Class<?> valueClass)
+            throws IOException {
+        StageConfig.setReducers(job, "coOccurrence");
+        StageConfig.compressIntermediate(job);
+
+        job.setJarByClass(MinHashCoOccurrence.class);
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setMapOutputKeyClass(keyClass);
+        job.setMapOutputValueClass(valueClass);
+        job.setOutputKeyClass(keyClass);
+        job.setOutputValueClass(valueClass);
+
+        SequenceFileInputFormat.setInputPaths(job, input);
+        SequenceFileOutputFormat.setOutputPath(job, output);
+    }
+}
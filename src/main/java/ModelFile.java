@@ -0,0 +1,383 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * ModelFile is the whole ItemCF model in one binary file, for the ModelScorer to answer queries outside the batch
+ * pipeline. It holds four sections, one after the other:
+ *
+ * int magic, int version,
+ * the co-occurrence matrix, in the CoOccurrenceMatrixFile layout,
+ * the ratings of every user: int numUsers, int numRatings, int[numUsers + 1] offsets, int[numRatings] movies (sorted
+ * for every user), padding to a multiple of 8 bytes, double[numRatings] ratings,
+ * the original user IDs and the original movie IDs, each as: int count, int numBytes, int[count + 1] offsets of the
+ * UTF-8 bytes of every dense ID, int[count] the dense IDs in the byte order of their original IDs, byte[numBytes],
+ * padding to a multiple of 4 bytes.
+ *
+ * Readers memory-map the file and read the primitive arrays in place, so opening a model costs a few system calls and
+ * no heap, whatever its size. A ModelFile is immutable and can be shared by any number of threads.
+ *
+ * The file is mapped into a single buffer with int positions, so the whole model is limited to 2 GB: the matrix at 8
+ * bytes per cell, the ratings at 12 bytes each and the original IDs. write checks every section against the limit
+ * before writing it and fails with an IOException beyond it; it builds the matrix and the ratings sections in the heap
+ * of the client, about the size of each section.
+ *
+ * The Driver runs main as a stage when itemcf.model is set. It takes four arguments: the userMovieListOutputDir, the
+ * co-occurrence matrix directory (as read by the scoring jobs), the dictionaryDir and the output directory, where the
+ * model is written as itemcf.model.
+ */
+public class ModelFile {
+    public static final String FILE_NAME = "itemcf.model";
+
+    private static final int MAGIC = 0x4d4f444c;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+
+    private final CoOccurrenceMatrixFile matrix;
+    private final int numUsers;
+    private final IntBuffer offsets;
+    private final IntBuffer movies;
+    private final DoubleBuffer ratings;
+    private final IdTable userIds;
+    private final IdTable movieIds;
+
+    private ModelFile(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " model file");
+        }
+        buffer.position(HEADER_BYTES);
+        matrix = new CoOccurrenceMatrixFile(buffer.slice());
+
+        int position = HEADER_BYTES + matrix.sizeInBytes();
+        numUsers = buffer.getInt(position);
+        int numRatings = buffer.getInt(position + 4);
+        position += 8;
+        offsets = ints(buffer, position, numUsers + 1);
+        position += 4 * (numUsers + 1);
+        movies = ints(buffer, position, numRatings);
+        position = align(position + 4 * numRatings, 8);
+        buffer.position(position);
+        ratings = buffer.slice().asDoubleBuffer();
+        ratings.limit(numRatings);
+        position += 8 * numRatings;
+
+        userIds = new IdTable(buffer, position);
+        movieIds = new IdTable(buffer, userIds.end);
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int position, int length) {
+        buffer.position(position);
+        IntBuffer ints = buffer.slice().asIntBuffer();
+        ints.limit(length);
+        return ints;
+    }
+
+    private static int align(int position, int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    public CoOccurrenceMatrixFile matrix() {
+        return matrix;
+    }
+
+    public int numUsers() {
+        return numUsers;
+    }
+
+    /**
+     * Returns the index of the first rating of the user.
+     */
+    public int ratingsStart(int user) {
+        return offsets.get(user);
+    }
+
+    /**
+     * Returns the index after the last rating of the user.
+     */
+    public int ratingsEnd(int user) {
+        return offsets.get(user + 1);
+    }
+
+    public int movie(int rating) {
+        return movies.get(rating);
+    }
+
+    public double rating(int rating) {
+        return ratings.get(rating);
+    }
+
+    /**
+     * Returns the dense ID of an original user ID, or -1 if the user is not in the model.
+     */
+    public int userId(String user) {
+        return userIds.find(user.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the dense ID of an original movie ID, or -1 if the movie is not in the model.
+     */
+    public int movieId(String movie) {
+        return movieIds.find(movie.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String userName(int user) {
+        return userIds.name(user);
+    }
+
+    public String movieName(int movie) {
+        return movieIds.name(movie);
+    }
+
+    /**
+     * IdTable maps the dense IDs of a dictionary to the original IDs, and back by binary search over the dense IDs
+     * sorted by their original IDs.
+     */
+    private static class IdTable {
+        private final int count;
+        private final IntBuffer offsets;
+        private final IntBuffer sorted;
+        private final ByteBuffer bytes;
+        private final int end;
+
+        IdTable(ByteBuffer buffer, int position) {
+            count = buffer.getInt(position);
+            int numBytes = buffer.getInt(position + 4);
+            position += 8;
+            offsets = ints(buffer, position, count + 1);
+            position += 4 * (count + 1);
+            sorted = ints(buffer, position, count);
+            position += 4 * count;
+            buffer.position(position);
+            bytes = buffer.slice();
+            bytes.limit(numBytes);
+            end = align(position + numBytes, 4);
+        }
+
+        String name(int id) {
+            if (id < 0 || id >= count) {
+                return null;
+            }
+            byte[] name = new byte[offsets.get(id + 1) - offsets.get(id)];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = bytes.get(offsets.get(id) + i);
+            }
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        int find(byte[] name) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(sorted.get(mid), name);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return sorted.get(mid);
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int id, byte[] name) {
+            int start = offsets.get(id);
+            int length = offsets.get(id + 1) - start;
+            for (int i = 0; i < Math.min(length, name.length); i++) {
+                int cmp = (bytes.get(start + i) & 0xff) - (name[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - name.length;
+        }
+    }
+
+    /**
+     * Writes the model built from the DataDividerByUser output, the co-occurrence matrix and the dictionaries to
+     * modelPath.
+     */
+    public static void write(Configuration conf, Path userMovieListDir, Path matrixDir, Path dictionaryDir,
+            Path modelPath) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                modelPath.getFileSystem(conf).create(modelPath, true)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        CoOccurrenceMatrixFile.write(conf, matrixDir, out);
+        writeRatings(conf, userMovieListDir, out, modelPath);
+        writeIds(DictionaryEncoder.loadReverseDictionary(conf, dictionaryDir, DictionaryEncoder.USERS), out, modelPath);
+        writeIds(DictionaryEncoder.loadReverseDictionary(conf, dictionaryDir, DictionaryEncoder.MOVIES), out,
+                modelPath);
+        out.close();
+    }
+
+    /**
+     * Throws if writing a section of sectionBytes (padding included) after what out holds would make the model too
+     * large to be mapped. out.size() stops counting at Integer.MAX_VALUE, so every section is checked before it is
+     * written.
+     */
+    private static void checkSection(DataOutputStream out, long sectionBytes, Path modelPath) throws IOException {
+        SeenItemsIndex.checkMappable(out.size() + sectionBytes, modelPath);
+    }
+
+    private static void writeRatings(Configuration conf, Path userMovieListDir, DataOutputStream out, Path modelPath)
+            throws IOException {
+        FileSystem fileSystem = userMovieListDir.getFileSystem(conf);
+        FileStatus[] parts = fileSystem.globStatus(new Path(userMovieListDir, "part-*"));
+
+        //first pass: the number of ratings of every user
+        int[] counts = new int[1024];
+        int numUsers = 0;
+        long totalRatings = 0;
+        IntWritable user = new IntWritable();
+        MovieRatingListWritable movieRatings = new MovieRatingListWritable();
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(user, movieRatings)) {
+                if (user.get() >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(user.get() + 1, counts.length * 2));
+                }
+                counts[user.get()] += movieRatings.size();
+                numUsers = Math.max(numUsers, user.get() + 1);
+                totalRatings += movieRatings.size();
+            }
+            reader.close();
+        }
+        checkSection(out, 8 + 4L * (numUsers + 1) + 4 * totalRatings + 7 + 8 * totalRatings, modelPath);
+
+        int[] offsets = new int[numUsers + 1];
+        for (int u = 0; u < numUsers; u++) {
+            offsets[u + 1] = offsets[u] + counts[u];
+        }
+
+        //second pass: the ratings of every user, sorted by movie
+        int numRatings = offsets[numUsers];
+        long[] cells = new long[numRatings];
+        double[] ratings = new double[numRatings];
+        int[] next = Arrays.copyOf(offsets, numUsers);
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(user, movieRatings)) {
+                for (int i = 0; i < movieRatings.size(); i++) {
+                    int rating = next[user.get()]++;
+                    cells[rating] = ((long) movieRatings.getMovie(i) << 32) | rating;
+                    ratings[rating] = movieRatings.getRating(i);
+                }
+            }
+            reader.close();
+        }
+        for (int u = 0; u < numUsers; u++) {
+            Arrays.sort(cells, offsets[u], offsets[u + 1]);
+        }
+
+        out.writeInt(numUsers);
+        out.writeInt(numRatings);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (long cell : cells) {
+            out.writeInt((int) (cell >>> 32));
+        }
+        pad(out, 8);
+        for (long cell : cells) {
+            out.writeDouble(ratings[(int) cell]);
+        }
+    }
+
+    private static void writeIds(String[] ids, DataOutputStream out, Path modelPath) throws IOException {
+        final byte[][] names = new byte[ids.length][];
+        long numBytes = 0;
+        Integer[] sorted = new Integer[ids.length];
+        for (int id = 0; id < ids.length; id++) {
+            names[id] = ids[id].getBytes(StandardCharsets.UTF_8);
+            numBytes += names[id].length;
+            sorted[id] = id;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                byte[] nameA = names[a];
+                byte[] nameB = names[b];
+                for (int i = 0; i < Math.min(nameA.length, nameB.length); i++) {
+                    int cmp = (nameA[i] & 0xff) - (nameB[i] & 0xff);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return nameA.length - nameB.length;
+            }
+        });
+
+        checkSection(out, 8 + 4L * (ids.length + 1) + 4L * ids.length + numBytes + 3, modelPath);
+        out.writeInt(ids.length);
+        out.writeInt((int) numBytes);
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] name : names) {
+            offset += name.length;
+            out.writeInt(offset);
+        }
+        for (int id : sorted) {
+            out.writeInt(id);
+        }
+        for (byte[] name : names) {
+            out.write(name);
+        }
+        pad(out, 4);
+    }
+
+    private static void pad(DataOutputStream out, int alignment) throws IOException {
+        while (out.size() % alignment != 0) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Memory-maps the model file, without going through Hadoop, so an embedded scorer opens it in milliseconds.
+     */
+    public static ModelFile open(File file) throws IOException {
+        SeenItemsIndex.checkMappable(file.length(), new Path(file.getAbsolutePath()));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new ModelFile(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Memory-maps the model file at path, copying it to a local temporary file first if it is not on the local file
+     * system.
+     */
+    public static ModelFile open(Configuration conf, Path path) throws IOException {
+        return new ModelFile(SeenItemsIndex.map(conf, path));
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        write(conf, new Path(args[0]), new Path(args[1]), new Path(args[2]), new Path(args[3], FILE_NAME));
+        return true;
+    }
+}
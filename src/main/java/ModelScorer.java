@@ -0,0 +1,200 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ModelScorer answers top k queries from a ModelFile, outside the batch pipeline: the top k movies for a user of the
+ * model, or for an ad-hoc vector of movie ratings. It scores with the same formula as the Multiplication and
+ * OverallRating jobs (and UserScoring): for every movie the user has not rated, the sum of relation * rating over the
+ * rated movies, divided by the sum of the relations, rounded to three decimals and kept if above the threshold. Ties are
+ * broken the same way as in TopKRecommenderListGenerator, so the list for a user of the model is the one in topKDir up
+ * to floating-point summation order: the sums are accumulated row by row here and in shuffle order by OverallRating,
+ * so a predicate can differ in its last bit and, rarely, round to the other side of a three-decimal boundary.
+ *
+ * A query walks the matrix rows of the rated movies only and accumulates into primitive arrays that are reset
+ * afterwards, so it allocates nothing but its result. A scorer holds these arrays and is not thread-safe; concurrent
+ * callers use one scorer per thread over a shared ModelFile.
+ *
+ * main is a command line client: ModelScorer modelFile k [user...]. Without users, it reads one query per line from
+ * the standard input, either a user ID or an ad-hoc vector movie1:rating1,movie2:rating2... It prints one line per
+ * query (user \t movie1:predicate1,..., with "-" as the user of an ad-hoc vector), and the load time and the query
+ * latencies on the standard error.
+ */
+public class ModelScorer {
+
+    double threshold = OverallRating.DEFAULT_THRESHOLD;
+
+    private final ModelFile model;
+    private final CoOccurrenceMatrixFile matrix;
+    private final double[] sums;
+    private final long[] weights;
+    private final boolean[] seen;
+    private final int[] touched;
+    private int numTouched;
+    private TopKHeap heap;
+    private int heapK;
+
+    public ModelScorer(ModelFile model) {
+        this.model = model;
+        this.matrix = model.matrix();
+        sums = new double[matrix.numMovies()];
+        weights = new long[matrix.numMovies()];
+        seen = new boolean[matrix.numMovies()];
+        touched = new int[matrix.numMovies()];
+    }
+
+    public ModelFile model() {
+        return model;
+    }
+
+    /**
+     * Returns the top k movies for a user of the model, or null if the user is not in the model.
+     */
+    public Recommendations recommend(String user, int k) {
+        int userId = model.userId(user);
+        if (userId < 0 || userId >= model.numUsers()) {
+            return null;
+        }
+        int start = model.ratingsStart(userId);
+        int end = model.ratingsEnd(userId);
+        for (int i = start; i < end; i++) {
+            markSeen(model.movie(i), true);
+        }
+        for (int i = start; i < end; i++) {
+            accumulate(model.movie(i), model.rating(i));
+        }
+        for (int i = start; i < end; i++) {
+            markSeen(model.movie(i), false);
+        }
+        return topK(k);
+    }
+
+    /**
+     * Returns the top k movies for an ad-hoc vector of ratings of the given original movie IDs. Movies that are not
+     * in the model are ignored.
+     */
+    public Recommendations recommend(String[] movies, double[] ratings, int k) {
+        int[] movieIds = new int[movies.length];
+        for (int i = 0; i < movies.length; i++) {
+            movieIds[i] = model.movieId(movies[i]);
+            markSeen(movieIds[i], true);
+        }
+        for (int i = 0; i < movies.length; i++) {
+            if (movieIds[i] >= 0) {
+                accumulate(movieIds[i], ratings[i]);
+            }
+        }
+        for (int movieId : movieIds) {
+            markSeen(movieId, false);
+        }
+        return topK(k);
+    }
+
+    private void markSeen(int movie, boolean value) {
+        if (movie >= 0 && movie < seen.length) {
+            seen[movie] = value;
+        }
+    }
+
+    private void accumulate(int movieB, double rating) {
+        for (int cell = matrix.rowStart(movieB); cell < matrix.rowEnd(movieB); cell++) {
+            int movieA = matrix.movie(cell);
+            if (seen[movieA]) {
+                continue;
+            }
+            int relation = matrix.relation(cell);
+            if (weights[movieA] == 0) {
+                touched[numTouched++] = movieA;
+            }
+            sums[movieA] += relation * rating;
+            weights[movieA] += relation;
+        }
+    }
+
+    private Recommendations topK(int k) {
+        if (heap == null || heapK != k) {
+            heap = new TopKHeap(k);
+            heapK = k;
+        }
+        heap.reset();
+        for (int i = 0; i < numTouched; i++) {
+            int movieA = touched[i];
+            double predicate = OverallRating.roundPredicate(sums[movieA] / weights[movieA]);
+            if (predicate > threshold) {
+                heap.offer(movieA, predicate);
+            }
+            sums[movieA] = 0;
+            weights[movieA] = 0;
+        }
+        numTouched = 0;
+
+        heap.sortDescending();
+        String[] movies = new String[heap.size()];
+        double[] predicates = new double[heap.size()];
+        for (int i = 0; i < heap.size(); i++) {
+            movies[i] = model.movieName(heap.id(i));
+            predicates[i] = heap.score(i);
+        }
+        return new Recommendations(movies, predicates);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long loadStart = System.nanoTime();
+        ModelScorer scorer = new ModelScorer(ModelFile.open(new File(args[0])));
+        long loadNanos = System.nanoTime() - loadStart;
+        int k = Integer.parseInt(args[1]);
+
+        long[] latencies = new long[1024];
+        int numQueries = 0;
+        StringBuilder output = new StringBuilder();
+        BufferedReader in = args.length > 2 ? null
+                : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (int i = 2; ; i++) {
+            String query = in == null ? (i < args.length ? args[i] : null) : in.readLine();
+            if (query == null) {
+                break;
+            }
+            query = query.trim();
+            if (query.isEmpty()) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            Recommendations recommendations;
+            String user;
+            if (query.indexOf(':') < 0) {
+                user = query;
+                recommendations = scorer.recommend(query, k);
+            } else {
+                user = "-";
+                String[] cells = query.split(",");
+                String[] movies = new String[cells.length];
+                double[] ratings = new double[cells.length];
+                for (int j = 0; j < cells.length; j++) {
+                    int colon = cells[j].lastIndexOf(':');
+                    movies[j] = cells[j].substring(0, colon).trim();
+                    ratings[j] = Double.parseDouble(cells[j].substring(colon + 1).trim());
+                }
+                recommendations = scorer.recommend(movies, ratings, k);
+            }
+            if (numQueries == latencies.length) {
+                latencies = Arrays.copyOf(latencies, numQueries * 2);
+            }
+            latencies[numQueries++] = System.nanoTime() - start;
+
+            output.setLength(0);
+            output.append(user).append('\t').append(recommendations == null ? "" : recommendations.toString());
+            System.out.println(output);
+        }
+
+        System.err.printf("model loaded in %.3f ms%n", loadNanos / 1e6);
+        if (numQueries > 0) {
+            Arrays.sort(latencies, 0, numQueries);
+            System.err.printf("%d queries, p50 %.1f us, p99 %.1f us, max %.1f us%n", numQueries,
+                    latencies[numQueries / 2] / 1e3, latencies[(int) Math.min(numQueries - 1, numQueries * 0.99)] / 1e3,
+                    latencies[numQueries - 1] / 1e3);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * MovieRatingListWritable holds all the movies rated by one user with their ratings, in two parallel arrays.
+ * The arrays are reused when the instance is read again, so only the first size() entries are valid.
+ */
+public class MovieRatingListWritable implements Writable {
+    private int size;
+    private int[] movies = new int[16];
+    private double[] ratings = new double[16];
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int movie, double rating) {
+        ensureCapacity(size + 1);
+        movies[size] = movie;
+        ratings[size] = rating;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMovie(int i) {
+        return movies[i];
+    }
+
+    public double getRating(int i) {
+        return ratings[i];
+    }
+
+    public void setRating(int i, double rating) {
+        ratings[i] = rating;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > movies.length) {
+            int newLength = Math.max(capacity, movies.length * 2);
+            movies = Arrays.copyOf(movies, newLength);
+            ratings = Arrays.copyOf(ratings, newLength);
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVInt(out, movies[i]);
+            out.writeDouble(ratings[i]);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        size = 0;
+        int length = WritableUtils.readVInt(in);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            movies[i] = WritableUtils.readVInt(in);
+            ratings[i] = in.readDouble();
+        }
+        size = length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder movieAndRatings = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                movieAndRatings.append(",");
+            }
+            movieAndRatings.append(movies[i]).append(":").append(ratings[i]);
+        }
+        return movieAndRatings.toString();
+    }
+}
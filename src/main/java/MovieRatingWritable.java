@@ -0,0 +1,49 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * MovieRatingWritable holds one movie with its rating, which is either a rating given by a user or a predicate.
+ */
+public class MovieRatingWritable implements Writable {
+    private int movie;
+    private double rating;
+
+    public MovieRatingWritable() {
+    }
+
+    public MovieRatingWritable(int movie, double rating) {
+        set(movie, rating);
+    }
+
+    public void set(int movie, double rating) {
+        this.movie = movie;
+        this.rating = rating;
+    }
+
+    public int getMovie() {
+        return movie;
+    }
+
+    public double getRating() {
+        return rating;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, movie);
+        out.writeDouble(rating);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        movie = WritableUtils.readVInt(in);
+        rating = in.readDouble();
+    }
+
+    @Override
+    public String toString() {
+        return movie + ":" + rating;
+    }
+}
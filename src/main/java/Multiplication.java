@@ -1,32 +1,37 @@
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.chain.ChainMapper;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
- * Multiplication uses two mappers to parse the input file, co-occurrence matrix and raw data file, into key-value
- * pairs, and uses a reducer to do the matrix unit cell multiplication to get the
+ * Multiplication uses two mappers to parse the input file, co-occurrence matrix and encoded raw data file, into
+ * key-value pairs, and uses a reducer to do the matrix unit cell multiplication to get the
  * subrating unit for each user:movieA, and generate the key-value pairs (user:movieA, subrating,movieB:movieA's
  * relation).
  *
  * In order to skip the calculation for the movies that each user has watched and rated, we use a setup method in the
- * reducer to collect all the users and their rated movie lists as key-value pair in hashmap. When go through each movie
+ * reducer to load the SeenItemsIndex of all the users and their rated movie lists. When go through each movie
  * to generate subrating for user:movie, we can skip the ones that the user has rated.
  *
  * Note: co-occurrence matrix * rating matrix per user = predicate rating matrix per user
@@ -40,50 +45,192 @@ import java.util.Set;
  * also need to set the reducer's output key to user:movieA. Because, we need to do the sum up all subrating and
  * normalization in the next job for each movieA for each user.
  *
+ * A movieB rated by many users would send most of the work to a single reducer, so hot movies are split into several
+ * salted keys (movieB:salt): each salt gets a share of the ratings and a copy of the movie's co-occurrence cells.
+ *
+ * The co-occurrence matrix and the re-format data are read as the SequenceFiles written by the previous jobs, and the
+ * output is a SequenceFile of (IntPairWritable user:movieA, SumWeightWritable subrating,relation).
+ *
+ * The SKIPPED_SEEN counter reports the user:movieA products skipped because the user has rated movieA, and both
+ * reducers count the values of every movieB:salt key into the "movie group size" FanOutHistogram.
+ *
  */
 public class Multiplication {
+
+	public static final String HOT_KEY_RATINGS = "multiplication.hotKeyRatings";
+	public static final String SECONDARY_SORT = "multiplication.secondarySort";
+	public static final String MAX_BUFFERED = "multiplication.secondarySort.maxBuffered";
+
+	public enum Triples {
+		SKIPPED_SEEN
+	}
+
+	/**
+	 * Returns the number of salted keys movieB is split into in the shuffle. A movie rated by more than
+	 * "multiplication.hotKeyRatings" users (default 5000) is split into one key per that many ratings, at most one per
+	 * reducer, so that no single reducer gets all the work of a blockbuster movie.
+	 */
+	static int fanout(SeenItemsIndex index, int movie, int hotKeyRatings, int reducers) {
+		int fanout = (index.ratingCount(movie) + hotKeyRatings - 1) / hotKeyRatings;
+		return Math.max(1, Math.min(fanout, reducers));
+	}
+
+	/**
+	 * Returns the side of the secondary-sort join that the values of movieB:salt belong to, so that the smaller side
+	 * is buffered: every salt gets its share of the ratings of movieB and the whole co-occurrence row of movieB, whose
+	 * length is read from the RowLengths side file the stage writing the matrix produced.
+	 */
+	static byte joinSide(SeenItemsIndex index, IntBuffer rowLengths, int movie, int fanout, boolean relation) {
+		int ratingsPerSalt = (index.ratingCount(movie) + fanout - 1) / fanout;
+		int rowLength = movie < rowLengths.limit() ? rowLengths.get(movie) : 0;
+		boolean bufferRatings = ratingsPerSalt <= rowLength;
+		return relation == bufferRatings ? JoinKeyWritable.STREAMED : JoinKeyWritable.BUFFERED;
+	}
+
+	/**
+	 * Memory-maps the row lengths of the matrix for joinSide, or returns null if the secondary sort is off.
+	 */
+	static IntBuffer openRowLengths(Configuration conf) throws IOException {
+		if (!conf.getBoolean(SECONDARY_SORT, false)) {
+			return null;
+		}
+		return RowLengths.open(conf, new Path(conf.get("matrix")));
+	}
+
 	/**
 	 * CoOccurrenceMapper takes co-occurrence matrix file as input.
 	 * Input format for co-occurrence matrix: movieA:movieB \t relation
 	 *
-	 * outputKey: movieB(co-occurrence matrix's one column)
+	 * outputKey: movieB(co-occurrence matrix's one column):salt
 	 * outputValue: movieA(co-occurrence matrix's one row)=relation
 	 *
+	 * If the matrix only holds its upper triangle (coOccurrence.upperTriangle), every cell off the diagonal is also
+	 * written mirrored (key: movieA, value: movieB=relation) to rebuild the full matrix.
+	 *
+	 * The cells of a hot movieB are written once for every salt the movie is split into. In the secondary-sort mode the
+	 * key is a JoinKeyWritable that also carries the side of the join.
+	 *
+	 * If the scoring is targeted (see TargetUsers), the cells of a movieB that no targeted user has rated are dropped.
+	 *
 	 */
-	public static class CoOccurrenceMapper extends Mapper<LongWritable, Text, Text, Text> {
+	public static class CoOccurrenceMapper
+			extends Mapper<IntPairWritable, IntWritable, IntPairWritable, RelationOrRatingWritable> {
+
+		private IntPairWritable movieSalt;
+		private RelationOrRatingWritable movieRelation = new RelationOrRatingWritable();
+		private boolean upperTriangle;
+		private boolean secondarySort;
+		private SeenItemsIndex index;
+		private IntBuffer rowLengths;
+		private DenseIdSet targetMovies;
+		private int hotKeyRatings;
 
 		@Override
-		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+		public void setup(Context context) throws IOException {
+			Configuration conf = context.getConfiguration();
+			upperTriangle = conf.getBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, false);
+			secondarySort = conf.getBoolean(SECONDARY_SORT, false);
+			movieSalt = secondarySort ? new JoinKeyWritable() : new IntPairWritable();
+			index = SeenItemsIndex.open(conf, new Path(conf.get("path"), SeenItemsIndex.FILE_NAME));
+			rowLengths = openRowLengths(conf);
+			targetMovies = TargetUsers.open(conf, conf.get("path"), TargetUsers.MOVIES_FILE);
+			hotKeyRatings = conf.getInt(HOT_KEY_RATINGS, 5000);
+		}
+
+		@Override
+		public void map(IntPairWritable key, IntWritable value, Context context)
+				throws IOException, InterruptedException {
 
-			//output: key: movieB, value: movieA=relation
-			String[] movieRelation = value.toString().trim().split("\t");
-			String[] movies = movieRelation[0].split(":");
-			context.write(new Text(movies[1]), new Text(movies[0] + "=" + movieRelation[1]));
+			//output: key: movieB:salt, value: movieA=relation
+			movieRelation.setRelation(key.getFirst(), value.get());
+			write(key.getSecond(), context);
+			if (upperTriangle && key.getFirst() != key.getSecond()) {
+				movieRelation.setRelation(key.getSecond(), value.get());
+				write(key.getFirst(), context);
+			}
+		}
+
+		private void write(int movieB, Context context) throws IOException, InterruptedException {
+			if (targetMovies != null && !targetMovies.contains(movieB)) {
+				return;
+			}
+			int fanout = fanout(index, movieB, hotKeyRatings, context.getNumReduceTasks());
+			if (secondarySort) {
+				((JoinKeyWritable) movieSalt).setSide(joinSide(index, rowLengths, movieB, fanout, true));
+			}
+			for (int salt = 0; salt < fanout; salt++) {
+				movieSalt.set(movieB, salt);
+				context.write(movieSalt, movieRelation);
+			}
 		}
 	}
 
 	/**
-	 * RatingMapper takes the raw data file (each line: user,movie,rating) and parse it into the key-value pairs
-	 * outputKey: movieB
+	 * RatingMapper takes the encoded raw data (user -> movie:rating, written by DictionaryEncoder) and parse it into
+	 * the key-value pairs
+	 * outputKey: movieB:salt
 	 * outputValue: user:rating
 	 *
+	 * The ratings of a hot movieB are spread over its salts by user. In the secondary-sort mode the key is a
+	 * JoinKeyWritable that also carries the side of the join.
+	 *
+	 * If the scoring is targeted (see TargetUsers), only the ratings of the targeted users are written.
+	 *
 	 */
-	public static class RatingMapper extends Mapper<LongWritable, Text, Text, Text> {
+	public static class RatingMapper
+			extends Mapper<IntWritable, MovieRatingWritable, IntPairWritable, RelationOrRatingWritable> {
+
+		private IntPairWritable movieSalt;
+		private RelationOrRatingWritable userRating = new RelationOrRatingWritable();
+		private boolean secondarySort;
+		private SeenItemsIndex index;
+		private IntBuffer rowLengths;
+		private DenseIdSet targetUsers;
+		private int hotKeyRatings;
+
+		@Override
+		public void setup(Context context) throws IOException {
+			Configuration conf = context.getConfiguration();
+			secondarySort = conf.getBoolean(SECONDARY_SORT, false);
+			movieSalt = secondarySort ? new JoinKeyWritable() : new IntPairWritable();
+			index = SeenItemsIndex.open(conf, new Path(conf.get("path"), SeenItemsIndex.FILE_NAME));
+			rowLengths = openRowLengths(conf);
+			targetUsers = TargetUsers.open(conf, conf.get("path"), TargetUsers.USERS_FILE);
+			hotKeyRatings = conf.getInt(HOT_KEY_RATINGS, 5000);
+		}
 
 		// map method
 		@Override
-		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
-			String[] userMovieRatings = value.toString().trim().split(",");
-			String user = userMovieRatings[0];
-			String movie = userMovieRatings[1];
-			String rating = userMovieRatings[2];
-			context.write(new Text(movie), new Text(user + ":" + rating));
+		public void map(IntWritable key, MovieRatingWritable value, Context context)
+				throws IOException, InterruptedException {
+			if (targetUsers != null && !targetUsers.contains(key.get())) {
+				return;
+			}
+			int fanout = fanout(index, value.getMovie(), hotKeyRatings, context.getNumReduceTasks());
+			movieSalt.set(value.getMovie(), key.get() % fanout);
+			if (secondarySort) {
+				((JoinKeyWritable) movieSalt).setSide(joinSide(index, rowLengths, value.getMovie(), fanout, false));
+			}
+			userRating.setRating(key.get(), value.getRating());
+			context.write(movieSalt, userRating);
+		}
+	}
+
+	/**
+	 * HotMoviePartitioner sends the salted keys of one movie to consecutive reducers, so the salts of a hot movie are
+	 * reduced in parallel.
+	 */
+	public static class HotMoviePartitioner extends Partitioner<IntPairWritable, RelationOrRatingWritable> {
+
+		@Override
+		public int getPartition(IntPairWritable key, RelationOrRatingWritable value, int numPartitions) {
+			return ((key.getFirst() * 163 & Integer.MAX_VALUE) % numPartitions + key.getSecond()) % numPartitions;
 		}
 	}
 
 	/**
-	 * MultiplicationReducer first sets up a hashmap that contains all the users with their rated movie lists for later
-	 * looking up by parsing the re-format data file (format: user \t movie1:rating1,movie2:rating2,movie3:rating3...).
+	 * MultiplicationReducer first memory-maps the SeenItemsIndex built from the DataDividerByUser output
+	 * (format: user \t movie1:rating1,movie2:rating2,movie3:rating3...), to look up the movies rated by every user.
 	 *
 	 * The reducer method collects the data (movieA=relation..., userA:rating...) for each movieB, and do the unit-
 	 * multiplication for each user:movie (movie:movieB relation * movieB's rating from the user),
@@ -93,97 +240,289 @@ public class Multiplication {
 	 * outputValue: subrating,relation(movieA:movieB, for the normalization in the next job)
 	 *
 	 */
-	public static class MultiplicationReducer extends Reducer<Text, Text, Text, Text> {
+	public static class MultiplicationReducer
+			extends Reducer<IntPairWritable, RelationOrRatingWritable, IntPairWritable, SumWeightWritable> {
 
-		private Map<String, Set<String>> userSeenMovie = new HashMap<String, Set<String>>();
+		private SeenItemsIndex userSeenMovie;
+		private FanOutHistogram groupSize;
+		private org.apache.hadoop.mapreduce.Counter skippedSeen;
+
+		private IntPairWritable userMovie = new IntPairWritable();
+		private SumWeightWritable subRatingRelation = new SumWeightWritable();
 
 		@Override
 		public void setup(Context context) throws IOException {
 			Configuration configuration = context.getConfiguration();
 			String path = configuration.get("path", "");
-			FileSystem fileSystem = FileSystem.get(configuration);
-
-			BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
-					fileSystem.open(new Path(path + "/part-r-00000"))));
-
-			String line = bufferedReader.readLine();
-
-			while (line != null) {
-				String[] userMovieRating = line.trim().split("\t");
-				String user = userMovieRating[0];
-				String[] movies = userMovieRating[1].split(",");
-				Set<String> set = new HashSet<String>();
-				for (String movie : movies) {
-					set.add(movie.split(":")[0]);
-				}
-				userSeenMovie.put(user, set);
-				line = bufferedReader.readLine();
-			}
-
-			bufferedReader.close();
+			userSeenMovie = SeenItemsIndex.open(configuration, new Path(path, SeenItemsIndex.FILE_NAME));
+			groupSize = new FanOutHistogram(context, "movie group size");
+			skippedSeen = context.getCounter(Triples.SKIPPED_SEEN);
 		}
 
 		@Override
-		public void reduce(Text key, Iterable<Text> values, Context context)
+		public void reduce(IntPairWritable key, Iterable<RelationOrRatingWritable> values, Context context)
 				throws IOException, InterruptedException {
 
-			//key = movieB value = <movieA=relation, movieC=relation... userA:rating, userB:rating...>
+			//key = movieB:salt value = <movieA=relation, movieC=relation... userA:rating, userB:rating...>
 			//collect the data for each movie and save them in the hashmaps, then do the multiplication
 			//outputKey: user:movieA
 			//outputValue: subRatingUnit,movieA:movieB'relation
-			Map<String, Integer> movieRelation = new HashMap<String, Integer>();
-			Map<String, Double> userRatings = new HashMap<String, Double>();
-			for (Text value : values) {
-				String val = value.toString().trim();
-				if (val.contains("=")) {
-					String[] movieAndRelation = val.split("=");
-					movieRelation.put(movieAndRelation[0], Integer.parseInt(movieAndRelation[1]));
+			Map<Integer, Integer> movieRelation = new HashMap<Integer, Integer>();
+			Map<Integer, Double> userRatings = new HashMap<Integer, Double>();
+			long size = 0;
+			for (RelationOrRatingWritable value : values) {
+				if (value.isRelation()) {
+					movieRelation.put(value.getId(), value.getRelation());
 				} else {
-					String[] userMovieRating = val.split(":");
-					userRatings.put(userMovieRating[0], Double.parseDouble(userMovieRating[1]));
+					userRatings.put(value.getId(), value.getRating());
 				}
+				size++;
 			}
+			groupSize.add(size);
 
-			for (Map.Entry<String, Integer> movieRelationEntry : movieRelation.entrySet()) {
-				String movieA = movieRelationEntry.getKey();
+			long skipped = 0;
+
+			for (Map.Entry<Integer, Integer> movieRelationEntry : movieRelation.entrySet()) {
+				int movieA = movieRelationEntry.getKey();
 				int relation = movieRelationEntry.getValue();
-				for (Map.Entry<String, Double> userRatingsEntry : userRatings.entrySet()) {
-					String user = userRatingsEntry.getKey();
+				for (Map.Entry<Integer, Double> userRatingsEntry : userRatings.entrySet()) {
+					int user = userRatingsEntry.getKey();
 					//check whether the user has rated movieA, if not, do the unit-multiplication
-					if (!userSeenMovie.get(user).contains(movieA)) {
+					if (!userSeenMovie.contains(user, movieA)) {
 						double rating = userRatingsEntry.getValue();
 						double subRating = relation * rating;
-						context.write(new Text(user + ":" + movieA), new Text(subRating + "," + relation));
+						userMovie.set(user, movieA);
+						subRatingRelation.set(subRating, relation);
+						context.write(userMovie, subRatingRelation);
+					} else {
+						skipped++;
 					}
 				}
 			}
+			skippedSeen.increment(skipped);
 		}
 	}
 
+	/**
+	 * StreamingMultiplicationReducer is the reducer of the secondary-sort mode ("multiplication.secondarySort").
+	 * The values of each movieB:salt arrive sorted by the side of the join, so only the first side (the co-occurrence
+	 * cells or the ratings, whichever JoinKeyWritable marked to buffer) is kept, in primitive arrays, and every value
+	 * of the second side is multiplied with it as it streams through.
+	 *
+	 * If the buffered side grows beyond "multiplication.secondarySort.maxBuffered" values (default 1000000), it is
+	 * spilled to a local file, and the streamed side is joined with the file in blocks of the same size, so the memory
+	 * of the reducer stays bounded however popular movieB is.
+	 *
+	 * outputKey: user:movieA
+	 * outputValue: subrating,relation(movieA:movieB, for the normalization in the next job)
+	 *
+	 */
+	public static class StreamingMultiplicationReducer
+			extends Reducer<JoinKeyWritable, RelationOrRatingWritable, IntPairWritable, SumWeightWritable> {
+
+		private SeenItemsIndex userSeenMovie;
+		private int maxBuffered;
+		private FanOutHistogram groupSize;
+		private org.apache.hadoop.mapreduce.Counter skippedSeen;
+		private long skipped;
+
+		private int[] bufferedIds;
+		private double[] bufferedValues;
+		private int buffered;
+		private int[] streamedIds;
+		private double[] streamedValues;
+		private int streamed;
+
+		private File spillFile;
+		private DataOutputStream spill;
+
+		private IntPairWritable userMovie = new IntPairWritable();
+		private SumWeightWritable subRatingRelation = new SumWeightWritable();
+
+		@Override
+		public void setup(Context context) throws IOException {
+			Configuration configuration = context.getConfiguration();
+			userSeenMovie = SeenItemsIndex.open(configuration,
+					new Path(configuration.get("path", ""), SeenItemsIndex.FILE_NAME));
+			maxBuffered = configuration.getInt(MAX_BUFFERED, 1000000);
+			bufferedIds = new int[Math.min(maxBuffered, 1024)];
+			bufferedValues = new double[bufferedIds.length];
+			streamedIds = new int[bufferedIds.length];
+			streamedValues = new double[bufferedIds.length];
+			groupSize = new FanOutHistogram(context, "movie group size");
+			skippedSeen = context.getCounter(Triples.SKIPPED_SEEN);
+		}
+
+		@Override
+		public void reduce(JoinKeyWritable key, Iterable<RelationOrRatingWritable> values, Context context)
+				throws IOException, InterruptedException {
+			//key = movieB:salt:side value = <buffered side..., streamed side...>
+			buffered = 0;
+			streamed = 0;
+			boolean bufferRelations = false;
+			boolean first = true;
+			long size = 0;
+			skipped = 0;
+			try {
+				for (RelationOrRatingWritable value : values) {
+					size++;
+					double val = value.isRelation() ? value.getRelation() : value.getRating();
+					if (first) {
+						bufferRelations = value.isRelation();
+						first = false;
+					}
+					if (value.isRelation() == bufferRelations) {
+						addBuffered(value.getId(), val);
+					} else if (spill == null) {
+						for (int i = 0; i < buffered; i++) {
+							multiply(bufferRelations, bufferedIds[i], bufferedValues[i], value.getId(), val, context);
+						}
+					} else {
+						addStreamed(value.getId(), val);
+						if (streamed == maxBuffered) {
+							joinSpill(bufferRelations, context);
+						}
+					}
+				}
+				if (spill != null && streamed > 0) {
+					joinSpill(bufferRelations, context);
+				}
+			} finally {
+				deleteSpill();
+			}
+			groupSize.add(size);
+			skippedSeen.increment(skipped);
+		}
+
+		/**
+		 * Multiplies one buffered value with one streamed value, if the user has not rated movieA yet.
+		 */
+		private void multiply(boolean bufferRelations, int bufferedId, double bufferedValue, int streamedId,
+				double streamedValue, Context context) throws IOException, InterruptedException {
+			int movieA = bufferRelations ? bufferedId : streamedId;
+			int user = bufferRelations ? streamedId : bufferedId;
+			int relation = (int) (bufferRelations ? bufferedValue : streamedValue);
+			double rating = bufferRelations ? streamedValue : bufferedValue;
+			if (!userSeenMovie.contains(user, movieA)) {
+				userMovie.set(user, movieA);
+				subRatingRelation.set(relation * rating, relation);
+				context.write(userMovie, subRatingRelation);
+			} else {
+				skipped++;
+			}
+		}
+
+		private void addBuffered(int id, double value) throws IOException {
+			if (spill != null) {
+				spill.writeInt(id);
+				spill.writeDouble(value);
+				return;
+			}
+			if (buffered == maxBuffered) {
+				//the buffered side is too large for the memory bound: move it to a local file
+				spillFile = File.createTempFile("multiplication", ".spill");
+				spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+				for (int i = 0; i < buffered; i++) {
+					spill.writeInt(bufferedIds[i]);
+					spill.writeDouble(bufferedValues[i]);
+				}
+				spill.writeInt(id);
+				spill.writeDouble(value);
+				buffered = 0;
+				return;
+			}
+			if (buffered == bufferedIds.length) {
+				int newLength = (int) Math.min((long) bufferedIds.length * 2, maxBuffered);
+				bufferedIds = Arrays.copyOf(bufferedIds, newLength);
+				bufferedValues = Arrays.copyOf(bufferedValues, newLength);
+			}
+			bufferedIds[buffered] = id;
+			bufferedValues[buffered] = value;
+			buffered++;
+		}
+
+		private void addStreamed(int id, double value) {
+			if (streamed == streamedIds.length) {
+				int newLength = (int) Math.min((long) streamedIds.length * 2, maxBuffered);
+				streamedIds = Arrays.copyOf(streamedIds, newLength);
+				streamedValues = Arrays.copyOf(streamedValues, newLength);
+			}
+			streamedIds[streamed] = id;
+			streamedValues[streamed] = value;
+			streamed++;
+		}
+
+		/**
+		 * Joins the current block of streamed values with every value of the spill file.
+		 */
+		private void joinSpill(boolean bufferRelations, Context context) throws IOException, InterruptedException {
+			spill.flush();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+			try {
+				while (true) {
+					int bufferedId;
+					try {
+						bufferedId = in.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					double bufferedValue = in.readDouble();
+					for (int i = 0; i < streamed; i++) {
+						multiply(bufferRelations, bufferedId, bufferedValue, streamedIds[i], streamedValues[i], context);
+					}
+				}
+			} finally {
+				in.close();
+			}
+			streamed = 0;
+		}
+
+		private void deleteSpill() throws IOException {
+			if (spill != null) {
+				spill.close();
+				spill = null;
+				if (!spillFile.delete()) {
+					spillFile.deleteOnExit();
+				}
+			}
+		}
+	}
 
 	public static void main(String[] args) throws Exception {
+		System.exit(run(args) ? 0 : 1);
+	}
+
+	public static boolean run(String[] args) throws Exception {
 		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
 		conf.set("path", args[3]);
+		conf.set("matrix", args[0]);
 
 		Job job = Job.getInstance(conf);
 		job.setJarByClass(Multiplication.class);
 
-		ChainMapper.addMapper(job, CoOccurrenceMapper.class, LongWritable.class, Text.class, Text.class, Text.class, conf);
-		ChainMapper.addMapper(job, RatingMapper.class, Text.class, Text.class, Text.class, Text.class, conf);
-
-		job.setMapperClass(CoOccurrenceMapper.class);
-		job.setMapperClass(RatingMapper.class);
-
-		job.setReducerClass(MultiplicationReducer.class);
+		job.setPartitionerClass(HotMoviePartitioner.class);
+		if (conf.getBoolean(SECONDARY_SORT, false)) {
+			job.setReducerClass(StreamingMultiplicationReducer.class);
+			job.setGroupingComparatorClass(JoinKeyWritable.GroupingComparator.class);
+			job.setMapOutputKeyClass(JoinKeyWritable.class);
+		} else {
+			job.setReducerClass(MultiplicationReducer.class);
+			job.setMapOutputKeyClass(IntPairWritable.class);
+		}
+		StageConfig.setReducers(job, "multiplication");
+		StageConfig.compressIntermediate(job);
 
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(Text.class);
+		job.setMapOutputValueClass(RelationOrRatingWritable.class);
+		job.setOutputKeyClass(IntPairWritable.class);
+		job.setOutputValueClass(SumWeightWritable.class);
 
-		MultipleInputs.addInputPath(job, new Path(args[0]), TextInputFormat.class, CoOccurrenceMapper.class);
-		MultipleInputs.addInputPath(job, new Path(args[1]), TextInputFormat.class, RatingMapper.class);
+		MultipleInputs.addInputPath(job, new Path(args[0]), SequenceFileInputFormat.class, CoOccurrenceMapper.class);
+		MultipleInputs.addInputPath(job, new Path(args[1]), SequenceFileInputFormat.class, RatingMapper.class);
 
-		TextOutputFormat.setOutputPath(job, new Path(args[2]));
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		SequenceFileOutputFormat.setOutputPath(job, new Path(args[2]));
 		
-		job.waitForCompletion(true);
+		return RunReport.waitForCompletion(job);
 	}
 }
@@ -1,15 +1,16 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
-import java.text.DecimalFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 /**
  * OverallRating takes the previous Multiplication job's output and sums up the subratings for the user:movie and
@@ -18,21 +19,62 @@ import java.text.DecimalFormat;
  * input format: user:movieA \t subRatingUnit,movieB:movieA's relation
  * output format: user \t movie:predicate
  *
+ * Both the input and the output are SequenceFiles, of (IntPairWritable, SumWeightWritable) and
+ * (IntWritable, MovieRatingWritable) respectively.
+ *
+ * The BELOW_THRESHOLD counter reports the predicates dropped because they are not above the threshold (it is shared
+ * with the jobs that compute the predicates instead of this one), and the values of every user:movie key are counted
+ * into the "user:movie group size" FanOutHistogram.
+ *
  */
 public class OverallRating {
 
+    public static final double DEFAULT_THRESHOLD = 2.5;
+
+    public enum Predicates {
+        BELOW_THRESHOLD
+    }
+
     /**
      * SubRatingMapper takes the subrating as input and parse it into key-value pairs
      *
      * outputKey: user:movieA
      * outputValue: subRating,movieA:movieB's relation
      */
-    public static class SubRatingMapper extends Mapper<LongWritable, Text, Text, Text> {
+    public static class SubRatingMapper
+            extends Mapper<IntPairWritable, SumWeightWritable, IntPairWritable, SumWeightWritable> {
 
         @Override
-        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
-            String[] keyAndValue = value.toString().trim().split("\t");
-            context.write(new Text(keyAndValue[0]), new Text(keyAndValue[1]));
+        public void map(IntPairWritable key, SumWeightWritable value, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * SubRatingCombiner sums up the subRatings and the relations of one user:movieA on the map side.
+     *
+     * inputKey: user:movieA
+     * inputValue: subrating1,relation1, subrating2,relation2, ...
+     * outputKey: user:movieA
+     * outputValue: sum of subratings,sum of relations
+     */
+    public static class SubRatingCombiner
+            extends Reducer<IntPairWritable, SumWeightWritable, IntPairWritable, SumWeightWritable> {
+
+        private SumWeightWritable sumWeight = new SumWeightWritable();
+
+        @Override
+        public void reduce(IntPairWritable key, Iterable<SumWeightWritable> values, Context context)
+                throws IOException, InterruptedException {
+            double sum = 0;
+            long weight = 0;
+            for (SumWeightWritable value : values) {
+                sum += value.getSum();
+                weight += value.getWeight();
+            }
+            sumWeight.set(sum, weight);
+            context.write(key, sumWeight);
         }
     }
 
@@ -50,54 +92,92 @@ public class OverallRating {
      * the output result.
      *
      */
-    public static class OverallRatingReducer extends Reducer<Text, Text, Text, Text> {
+    public static class OverallRatingReducer
+            extends Reducer<IntPairWritable, SumWeightWritable, IntWritable, MovieRatingWritable> {
+
+        double threshold = DEFAULT_THRESHOLD;
 
-        double threshold = 2.5;
+        private FanOutHistogram groupSize;
+        private org.apache.hadoop.mapreduce.Counter belowThreshold;
+
+        private IntWritable user = new IntWritable();
+        private MovieRatingWritable moviePredicate = new MovieRatingWritable();
+
+        @Override
+        public void setup(Context context) {
+            groupSize = new FanOutHistogram(context, "user:movie group size");
+            belowThreshold = context.getCounter(Predicates.BELOW_THRESHOLD);
+        }
 
         @Override
-        public void reduce(Text key, Iterable<Text> values, Context context)
+        public void reduce(IntPairWritable key, Iterable<SumWeightWritable> values, Context context)
                 throws IOException, InterruptedException {
 
-            int coOccurrenceNum = 0;
+            long coOccurrenceNum = 0;
             double coOccurrenceSum = 0;
             double predicate;
-            for (Text value : values) {
-                String[] unitAndRelation = value.toString().trim().split(",");
-                double subRatingUnit = Double.parseDouble(unitAndRelation[0]);
-                int relation = Integer.parseInt(unitAndRelation[1]);
-                coOccurrenceSum += subRatingUnit;
-                coOccurrenceNum += relation;
+            long size = 0;
+            for (SumWeightWritable value : values) {
+                coOccurrenceSum += value.getSum();
+                coOccurrenceNum += value.getWeight();
+                size++;
             }
+            groupSize.add(size);
 
-            DecimalFormat df = new DecimalFormat("#.000");
-            predicate = Double.valueOf(df.format(coOccurrenceSum / coOccurrenceNum));
+            predicate = roundPredicate(coOccurrenceSum / coOccurrenceNum);
 
-            String[] userAndMovie = key.toString().split(":");
             if (predicate > threshold) {
-                context.write(new Text (userAndMovie[0]), new Text(userAndMovie[1] + ":" + predicate));
+                user.set(key.getFirst());
+                moviePredicate.set(key.getSecond(), predicate);
+                context.write(user, moviePredicate);
+            } else {
+                belowThreshold.increment(1);
             }
         }
     }
 
+    /**
+     * Rounds a predicate to three decimals, half-even, as DecimalFormat("#.000") did, without going through a String.
+     * Only the values that lie on a rounding tie are rounded exactly with BigDecimal.
+     */
+    static double roundPredicate(double predicate) {
+        double scaled = predicate * 1000;
+        double rounded = Math.rint(scaled);
+        if (Math.abs(Math.abs(scaled - rounded) - 0.5) > 1e-6) {
+            return rounded / 1000;
+        }
+        return new BigDecimal(predicate).setScale(3, RoundingMode.HALF_EVEN).doubleValue();
+    }
+
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
 
         Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
 
         Job job = Job.getInstance(conf);
 
         job.setMapperClass(SubRatingMapper.class);
+        job.setCombinerClass(SubRatingCombiner.class);
         job.setReducerClass(OverallRatingReducer.class);
+        StageConfig.setReducers(job, "overallRating");
+        StageConfig.compressIntermediate(job);
 
         job.setJarByClass(OverallRating.class);
 
-        job.setInputFormatClass(TextInputFormat.class);
-        job.setOutputFormatClass(TextOutputFormat.class);
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setMapOutputKeyClass(IntPairWritable.class);
+        job.setMapOutputValueClass(SumWeightWritable.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(MovieRatingWritable.class);
 
-        TextInputFormat.setInputPaths(job, new Path(args[0]));
-        TextOutputFormat.setOutputPath(job, new Path(args[1]));
+        SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+        SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.waitForCompletion(true);
+        return RunReport.waitForCompletion(job);
     }
 }
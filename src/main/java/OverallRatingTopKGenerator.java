@@ -0,0 +1,193 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+
+/**
+ * OverallRatingTopKGenerator fuses the OverallRating and TopKRecommenderListGenerator jobs into one job. It takes the
+ * Multiplication output (user:movieA \t subRatingUnit,relation), partitions and groups it by user while the
+ * user:movie keys stay sorted by movie, sums up the subratings of every movie and keeps the top k predicates of the
+ * user in the same reducer.
+ *
+ * input format: user:movieA \t subRatingUnit,movieB:movieA's relation
+ * output format: outputKey: user; outputValue: top k movie predicates, as TopKRecommenderListGenerator
+ *
+ * The predicates above the threshold (user \t movie:predicate) can still be written, as a side output moved into
+ * the overallRatingDir after the job.
+ *
+ * The predicates not above the threshold are counted by OverallRating's BELOW_THRESHOLD counter, and the values of
+ * every user into the "user group size" FanOutHistogram.
+ *
+ * It takes the arguments: the Multiplication output directory, the topK output directory, k, the dictionary
+ * directory and optionally the overallRatingDir for the side output.
+ */
+public class OverallRatingTopKGenerator {
+
+    private static final String OVERALL_RATING = "overallRating";
+
+    /**
+     * OverallRatingTopKReducer gets all the user:movie keys of one user in one call, sorted by movie. The key is
+     * updated while the values are iterated, so the subratings of every movie are summed up until the movie changes,
+     * normalized into the predicate, and offered to a TopKHeap of the top k predicates.
+     *
+     * inputKey: user:movie (grouped by user)
+     * inputValue: subrating,relation...
+     * outputKey: user
+     * outputValue: movie:predicate (the top k)
+     */
+    public static class OverallRatingTopKReducer
+            extends Reducer<IntPairWritable, SumWeightWritable, Text, Text> {
+
+        double threshold = OverallRating.DEFAULT_THRESHOLD;
+
+        private TopKHeap heap;
+        private String[] users;
+        private String[] movies;
+        private MultipleOutputs<Text, Text> overallRating;
+        private FanOutHistogram groupSize;
+        private org.apache.hadoop.mapreduce.Counter belowThreshold;
+
+        private IntWritable user = new IntWritable();
+        private MovieRatingWritable moviePredicate = new MovieRatingWritable();
+        private Text userText = new Text();
+        private Text recommenderList = new Text();
+        private StringBuilder builder = new StringBuilder();
+
+        @Override
+        public void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            heap = new TopKHeap(conf.getInt("k", 5));
+            String dictionary = conf.get("dictionary");
+            if (dictionary != null) {
+                users = DictionaryEncoder.loadReverseDictionary(conf, new Path(dictionary), DictionaryEncoder.USERS);
+                movies = DictionaryEncoder.loadReverseDictionary(conf, new Path(dictionary), DictionaryEncoder.MOVIES);
+            }
+            if (conf.get(OVERALL_RATING) != null) {
+                overallRating = new MultipleOutputs<Text, Text>(context);
+            }
+            groupSize = new FanOutHistogram(context, "user group size");
+            belowThreshold = context.getCounter(OverallRating.Predicates.BELOW_THRESHOLD);
+        }
+
+        @Override
+        public void reduce(IntPairWritable key, Iterable<SumWeightWritable> values, Context context)
+                throws IOException, InterruptedException {
+            heap.reset();
+            int userId = key.getFirst();
+
+            int movie = -1;
+            double coOccurrenceSum = 0;
+            long coOccurrenceNum = 0;
+            long size = 0;
+            for (SumWeightWritable value : values) {
+                size++;
+                if (key.getSecond() != movie) {
+                    if (movie >= 0) {
+                        offer(userId, movie, coOccurrenceSum, coOccurrenceNum);
+                    }
+                    movie = key.getSecond();
+                    coOccurrenceSum = 0;
+                    coOccurrenceNum = 0;
+                }
+                coOccurrenceSum += value.getSum();
+                coOccurrenceNum += value.getWeight();
+            }
+            if (movie >= 0) {
+                offer(userId, movie, coOccurrenceSum, coOccurrenceNum);
+            }
+            groupSize.add(size);
+
+            TopKRecommenderListGenerator.writeRecommenderList(userId, heap, users, movies, builder, userText,
+                    recommenderList, context);
+        }
+
+        private void offer(int userId, int movie, double coOccurrenceSum, long coOccurrenceNum)
+                throws IOException, InterruptedException {
+            double predicate = OverallRating.roundPredicate(coOccurrenceSum / coOccurrenceNum);
+            if (predicate <= threshold) {
+                belowThreshold.increment(1);
+                return;
+            }
+            if (overallRating != null) {
+                user.set(userId);
+                moviePredicate.set(movie, predicate);
+                overallRating.write(OVERALL_RATING, user, moviePredicate);
+            }
+            heap.offer(movie, predicate);
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (overallRating != null) {
+                overallRating.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        conf.set("k", args[2]);
+        conf.set("dictionary", args[3]);
+        if (args.length > 4) {
+            conf.set(OVERALL_RATING, args[4]);
+        }
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(OverallRating.SubRatingMapper.class);
+        job.setCombinerClass(OverallRating.SubRatingCombiner.class);
+        job.setPartitionerClass(IntPairWritable.FirstPartitioner.class);
+        job.setGroupingComparatorClass(IntPairWritable.FirstComparator.class);
+        job.setReducerClass(OverallRatingTopKReducer.class);
+        StageConfig.setReducers(job, "topK");
+        // the text output and the overallRating side output share one output compression switch, so only the map
+        // output is compressed here
+        StageConfig.compressMapOutput(job);
+
+        job.setJarByClass(OverallRatingTopKGenerator.class);
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setMapOutputKeyClass(IntPairWritable.class);
+        job.setMapOutputValueClass(SumWeightWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        MultipleOutputs.addNamedOutput(job, OVERALL_RATING, SequenceFileOutputFormat.class,
+                IntWritable.class, MovieRatingWritable.class);
+
+        SequenceFileInputFormat.addInputPath(job, new Path(args[0]));
+        TextOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+        if (args.length > 4) {
+            //move the side output into the overallRatingDir
+            Path topKDir = new Path(args[1]);
+            Path overallRatingDir = new Path(args[4]);
+            FileSystem fileSystem = topKDir.getFileSystem(conf);
+            fileSystem.mkdirs(overallRatingDir);
+            FileStatus[] parts = fileSystem.globStatus(new Path(topKDir, OVERALL_RATING + "-r-*"));
+            for (FileStatus part : parts) {
+                String name = part.getPath().getName().replace(OVERALL_RATING, "part");
+                fileSystem.rename(part.getPath(), new Path(overallRatingDir, name));
+            }
+        }
+        return true;
+    }
+}
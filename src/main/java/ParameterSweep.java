@@ -0,0 +1,511 @@
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ParameterSweep evaluates many combinations of the tunables of the pipeline against held-out ratings, without
+ * rerunning the jobs for every combination:
+ *
+ * minSupport: the smallest co-occurrence relation a cell needs to be used in the scoring, as set by
+ * coOccurrence.prune.minSupport (a MatrixGeneratorReducer threshold of t is a minSupport of t + 1),
+ * threshold: the predicates not above it are dropped, as OverallRatingReducer.threshold (2.5),
+ * k: the length of the recommendation lists.
+ *
+ * It has two entry points, run as stages by the Driver when itemcf.sweep is set:
+ *
+ * split is a map-only job that holds out itemcf.sweep.holdoutPercent percent of the ratings (default 20), chosen by a
+ * hash of (user, movie, itemcf.sweep.seed), so the split is the same in every run. The training ratings are written
+ * into the output directory (part-m-*, the raw data format) and the held-out ones into its holdout directory. The
+ * Driver then builds the co-occurrence matrix over the training ratings once and exports it, with the training ratings
+ * and the dictionaries, into a ModelFile.
+ *
+ * run memory-maps that ModelFile, reads the held-out ratings and scores every user once for all the combinations,
+ * in parallel over the users on a ForkJoinPool (see LocalEngine): the cells of every co-occurrence row are accumulated
+ * into the level of the largest minSupport they reach, the levels are summed from the top down, and for every
+ * minSupport the predicates are sorted once into a TopKHeap of the largest k. For a threshold, the top k list is the
+ * prefix of that order above the threshold, so the hits of every (threshold, k) are read from the prefix counts of
+ * the relevant movies. The lists are the ones the pipeline would write with the same tunables, ties included, up to
+ * floating-point summation order (see ModelScorer).
+ *
+ * A held-out rating is relevant if it is at least minRelevantRating. Only the users of the model with at least one
+ * relevant held-out rating are evaluated; a relevant movie missing from the model still counts in their recall.
+ *
+ * precision@k: the relevant movies in the list over k, averaged over the evaluated users,
+ * recall@k: the relevant movies in the list over the relevant held-out movies of the user, averaged likewise.
+ *
+ * run takes the model file, the holdout directory, the output directory, the default k and the grid file; a sixth
+ * argument is ignored (the Driver passes the modification time and length of the grid file in it, so that a resumed
+ * run redoes the sweep when the grid has changed, and nothing else). The grid file is a properties file:
+ *
+ * minSupports=1,2,5 (default 1)
+ * thresholds=2.5,3,3.5 (default 2.5)
+ * ks=5,10,20 (default: the k of the Driver)
+ * minRelevantRating=4 (default 0: every held-out rating is relevant)
+ * threads=8 (default: the number of cores)
+ *
+ * output format: sweep.tsv in the output directory, minSupport \t threshold \t k \t users \t precision \t recall
+ */
+public class ParameterSweep {
+    public static final String HOLDOUT_PERCENT = "itemcf.sweep.holdoutPercent";
+    public static final String SEED = "itemcf.sweep.seed";
+    public static final String HOLDOUT = "holdout";
+    public static final String HOLDOUT_DIR = "holdout";
+    public static final String RESULT_FILE = "sweep.tsv";
+
+    public static final String MIN_SUPPORTS = "minSupports";
+    public static final String THRESHOLDS = "thresholds";
+    public static final String KS = "ks";
+    public static final String MIN_RELEVANT_RATING = "minRelevantRating";
+    public static final String THREADS = "threads";
+
+    private static final Log LOG = LogFactory.getLog(ParameterSweep.class);
+
+    public enum Split {
+        TRAINING, HOLDOUT
+    }
+
+    /**
+     * HoldoutMapper writes every rating into the training output or the holdout directory.
+     *
+     * inputValue: user,movie,rating (parsed by RatingInputFormat)
+     * output: user,movie,rating
+     */
+    public static class HoldoutMapper extends Mapper<LongWritable, RatingRecord, Text, NullWritable> {
+
+        private int percent;
+        private long seed;
+        private MultipleOutputs<Text, NullWritable> multipleOutputs;
+        private org.apache.hadoop.mapreduce.Counter training;
+        private org.apache.hadoop.mapreduce.Counter holdout;
+
+        private Text user = new Text();
+        private Text movie = new Text();
+        private Text line = new Text();
+
+        @Override
+        public void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            percent = conf.getInt(HOLDOUT_PERCENT, 20);
+            seed = conf.getLong(SEED, 0);
+            multipleOutputs = new MultipleOutputs<Text, NullWritable>(context);
+            training = context.getCounter(Split.TRAINING);
+            holdout = context.getCounter(Split.HOLDOUT);
+        }
+
+        @Override
+        public void map(LongWritable key, RatingRecord value, Context context)
+                throws IOException, InterruptedException {
+            value.getUser(user);
+            value.getMovie(movie);
+            line.set(user + "," + movie + "," + value.getRating());
+            if (isHeldOut(user, movie, percent, seed)) {
+                multipleOutputs.write(HOLDOUT, line, NullWritable.get(), HOLDOUT_DIR + "/part");
+                holdout.increment(1);
+            } else {
+                context.write(line, NullWritable.get());
+                training.increment(1);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            multipleOutputs.close();
+        }
+    }
+
+    /**
+     * Returns whether the rating of the movie by the user is held out, for percent percent of the (user, movie) pairs.
+     */
+    static boolean isHeldOut(Text user, Text movie, int percent, long seed) {
+        long userHash = WritableComparator.hashBytes(user.getBytes(), user.getLength());
+        long movieHash = WritableComparator.hashBytes(movie.getBytes(), movie.getLength()) & 0xffffffffL;
+        long hash = MinHashCoOccurrence.mix(seed ^ (userHash << 32) ^ movieHash);
+        return (hash >>> 1) % 100 < percent;
+    }
+
+    private final ModelFile model;
+    private final int numMovies;
+    // ascending, without duplicates
+    private final int[] minSupports;
+    private final double[] thresholds;
+    private final int[] ks;
+    // the level of every relation up to the largest minSupport, -1 below the smallest
+    private final int[] levels;
+
+    // the relevant held-out movies by user, as in the model: user u has movies[offsets[u]] to movies[offsets[u + 1] - 1]
+    private int[] holdoutOffsets;
+    private int[] holdoutMovies;
+    private int[] relevantCounts;
+
+    // by combination, minSupport major, then threshold, then k
+    private final long[] hits;
+    private final double[] recalls;
+    private int evaluatedUsers;
+
+    public ParameterSweep(ModelFile model, int[] minSupports, double[] thresholds, int[] ks) {
+        this.model = model;
+        this.numMovies = model.matrix().numMovies();
+        this.minSupports = minSupports;
+        this.thresholds = thresholds;
+        this.ks = ks;
+        levels = new int[Math.max(0, minSupports[minSupports.length - 1]) + 1];
+        for (int relation = 0; relation < levels.length; relation++) {
+            int level = -1;
+            while (level + 1 < minSupports.length && minSupports[level + 1] <= relation) {
+                level++;
+            }
+            levels[relation] = level;
+        }
+        hits = new long[minSupports.length * thresholds.length * ks.length];
+        recalls = new double[hits.length];
+    }
+
+    private int level(int relation) {
+        if (relation < 0) {
+            return -1;
+        }
+        return relation < levels.length ? levels[relation] : minSupports.length - 1;
+    }
+
+    private int combination(int level, int threshold, int k) {
+        return (level * thresholds.length + threshold) * ks.length + k;
+    }
+
+    /**
+     * Reads the held-out ratings (the raw data format) from all the part-* files of holdoutDir, keeping the relevant
+     * ones of the users in the model.
+     */
+    public void loadHoldout(Configuration conf, Path holdoutDir, double minRelevantRating) throws IOException {
+        relevantCounts = new int[model.numUsers()];
+        int[] users = new int[1024];
+        int[] movies = new int[1024];
+        int numRatings = 0;
+
+        FileSystem fileSystem = holdoutDir.getFileSystem(conf);
+        FileStatus[] parts = fileSystem.globStatus(new Path(holdoutDir, "part-*"));
+        RatingRecord record = new RatingRecord();
+        Text line = new Text();
+        Text id = new Text();
+        for (FileStatus part : parts == null ? new FileStatus[0] : parts) {
+            FSDataInputStream in = fileSystem.open(part.getPath());
+            LineReader reader = new LineReader(in, conf);
+            try {
+                while (reader.readLine(line) > 0) {
+                    if (!record.parse(line.getBytes(), line.getLength()) || record.getRating() < minRelevantRating) {
+                        continue;
+                    }
+                    record.getUser(id);
+                    int user = model.userId(id.toString());
+                    if (user < 0) {
+                        continue;
+                    }
+                    relevantCounts[user]++;
+                    record.getMovie(id);
+                    int movie = model.movieId(id.toString());
+                    if (movie < 0 || movie >= numMovies) {
+                        continue;
+                    }
+                    if (numRatings == users.length) {
+                        users = Arrays.copyOf(users, numRatings * 2);
+                        movies = Arrays.copyOf(movies, numRatings * 2);
+                    }
+                    users[numRatings] = user;
+                    movies[numRatings] = movie;
+                    numRatings++;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        holdoutOffsets = new int[model.numUsers() + 1];
+        for (int i = 0; i < numRatings; i++) {
+            holdoutOffsets[users[i] + 1]++;
+        }
+        for (int user = 0; user < model.numUsers(); user++) {
+            holdoutOffsets[user + 1] += holdoutOffsets[user];
+        }
+        holdoutMovies = new int[numRatings];
+        int[] next = Arrays.copyOf(holdoutOffsets, model.numUsers());
+        for (int i = 0; i < numRatings; i++) {
+            holdoutMovies[next[users[i]]++] = movies[i];
+        }
+    }
+
+    /**
+     * Scores the evaluated users once for all the combinations, in parallel on the pool.
+     */
+    public void evaluate(ForkJoinPool pool) {
+        final int maxK = ks[ks.length - 1];
+        LocalEngine.Range body = new LocalEngine.Range() {
+            public void run(int start, int end) {
+                double[][] sums = new double[minSupports.length][numMovies];
+                long[][] weights = new long[minSupports.length][numMovies];
+                boolean[] seen = new boolean[numMovies];
+                boolean[] relevant = new boolean[numMovies];
+                boolean[] marked = new boolean[numMovies];
+                int[] touched = new int[numMovies];
+                int[] hitPrefix = new int[maxK + 1];
+                TopKHeap heap = new TopKHeap(maxK);
+                CoOccurrenceMatrixFile matrix = model.matrix();
+                long[] rangeHits = new long[hits.length];
+                double[] rangeRecalls = new double[hits.length];
+                int rangeUsers = 0;
+
+                for (int user = start; user < end; user++) {
+                    if (relevantCounts[user] == 0) {
+                        continue;
+                    }
+                    rangeUsers++;
+                    for (int i = model.ratingsStart(user); i < model.ratingsEnd(user); i++) {
+                        if (model.movie(i) < numMovies) {
+                            seen[model.movie(i)] = true;
+                        }
+                    }
+                    for (int i = holdoutOffsets[user]; i < holdoutOffsets[user + 1]; i++) {
+                        relevant[holdoutMovies[i]] = true;
+                    }
+
+                    int numTouched = 0;
+                    for (int i = model.ratingsStart(user); i < model.ratingsEnd(user); i++) {
+                        int movieB = model.movie(i);
+                        if (movieB >= numMovies) {
+                            continue;
+                        }
+                        double rating = model.rating(i);
+                        for (int cell = matrix.rowStart(movieB); cell < matrix.rowEnd(movieB); cell++) {
+                            int movieA = matrix.movie(cell);
+                            int relation = matrix.relation(cell);
+                            int level = level(relation);
+                            if (seen[movieA] || level < 0) {
+                                continue;
+                            }
+                            if (!marked[movieA]) {
+                                marked[movieA] = true;
+                                touched[numTouched++] = movieA;
+                            }
+                            sums[level][movieA] += relation * rating;
+                            weights[level][movieA] += relation;
+                        }
+                    }
+                    //a cell of one level is also used at all the lower minSupports
+                    for (int i = 0; i < numTouched; i++) {
+                        int movieA = touched[i];
+                        for (int level = minSupports.length - 1; level > 0; level--) {
+                            sums[level - 1][movieA] += sums[level][movieA];
+                            weights[level - 1][movieA] += weights[level][movieA];
+                        }
+                    }
+
+                    for (int level = 0; level < minSupports.length; level++) {
+                        heap.reset();
+                        for (int i = 0; i < numTouched; i++) {
+                            int movieA = touched[i];
+                            if (weights[level][movieA] == 0) {
+                                continue;
+                            }
+                            double predicate = OverallRating.roundPredicate(sums[level][movieA] / weights[level][movieA]);
+                            if (predicate > thresholds[0]) {
+                                heap.offer(movieA, predicate);
+                            }
+                        }
+                        heap.sortDescending();
+                        for (int i = 0; i < heap.size(); i++) {
+                            hitPrefix[i + 1] = hitPrefix[i] + (relevant[heap.id(i)] ? 1 : 0);
+                        }
+
+                        int aboveThreshold = heap.size();
+                        for (int threshold = thresholds.length - 1; threshold >= 0; threshold--) {
+                            while (aboveThreshold > 0 && heap.score(aboveThreshold - 1) <= thresholds[threshold]) {
+                                aboveThreshold--;
+                            }
+                            for (int k = 0; k < ks.length; k++) {
+                                int userHits = hitPrefix[Math.min(ks[k], aboveThreshold)];
+                                int combination = combination(level, threshold, k);
+                                rangeHits[combination] += userHits;
+                                rangeRecalls[combination] += (double) userHits / relevantCounts[user];
+                            }
+                        }
+                    }
+
+                    for (int i = 0; i < numTouched; i++) {
+                        int movieA = touched[i];
+                        for (int level = 0; level < minSupports.length; level++) {
+                            sums[level][movieA] = 0;
+                            weights[level][movieA] = 0;
+                        }
+                        marked[movieA] = false;
+                    }
+                    for (int i = model.ratingsStart(user); i < model.ratingsEnd(user); i++) {
+                        if (model.movie(i) < numMovies) {
+                            seen[model.movie(i)] = false;
+                        }
+                    }
+                    for (int i = holdoutOffsets[user]; i < holdoutOffsets[user + 1]; i++) {
+                        relevant[holdoutMovies[i]] = false;
+                    }
+                }
+                merge(rangeHits, rangeRecalls, rangeUsers);
+            }
+        };
+        int numUsers = model.numUsers();
+        pool.invoke(new LocalEngine.ParallelFor(body, 0, numUsers,
+                Math.max(1, numUsers / (pool.getParallelism() * 8))));
+    }
+
+    private synchronized void merge(long[] rangeHits, double[] rangeRecalls, int rangeUsers) {
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] += rangeHits[i];
+            recalls[i] += rangeRecalls[i];
+        }
+        evaluatedUsers += rangeUsers;
+    }
+
+    /**
+     * Writes the precision and recall of every combination to path.
+     */
+    public void write(Configuration conf, Path path) throws IOException {
+        OutputStream out = path.getFileSystem(conf).create(path, true);
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            writer.print("minSupport\tthreshold\tk\tusers\tprecision\trecall\n");
+            for (int level = 0; level < minSupports.length; level++) {
+                for (int threshold = 0; threshold < thresholds.length; threshold++) {
+                    for (int k = 0; k < ks.length; k++) {
+                        int combination = combination(level, threshold, k);
+                        double precision = evaluatedUsers == 0 ? 0
+                                : (double) hits[combination] / ((long) ks[k] * evaluatedUsers);
+                        double recall = evaluatedUsers == 0 ? 0 : recalls[combination] / evaluatedUsers;
+                        writer.print(String.format(Locale.ROOT, "%d\t%s\t%d\t%d\t%.6f\t%.6f\n", minSupports[level],
+                                thresholds[threshold], ks[k], evaluatedUsers, precision, recall));
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of ints into an ascending array without duplicates.
+     */
+    static int[] parseInts(String list) {
+        String[] values = list.split(",");
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = Integer.parseInt(values[i].trim());
+        }
+        Arrays.sort(ints);
+        int size = 0;
+        for (int i = 0; i < ints.length; i++) {
+            if (size == 0 || ints[i] != ints[size - 1]) {
+                ints[size++] = ints[i];
+            }
+        }
+        return Arrays.copyOf(ints, size);
+    }
+
+    /**
+     * Parses a comma-separated list of doubles into an ascending array without duplicates.
+     */
+    static double[] parseDoubles(String list) {
+        String[] values = list.split(",");
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = Double.parseDouble(values[i].trim());
+        }
+        Arrays.sort(doubles);
+        int size = 0;
+        for (int i = 0; i < doubles.length; i++) {
+            if (size == 0 || doubles[i] != doubles[size - 1]) {
+                doubles[size++] = doubles[i];
+            }
+        }
+        return Arrays.copyOf(doubles, size);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        Path gridPath = new Path(args[4]);
+        Properties grid = new Properties();
+        FSDataInputStream in = gridPath.getFileSystem(conf).open(gridPath);
+        try {
+            grid.load(in);
+        } finally {
+            in.close();
+        }
+
+        long start = System.currentTimeMillis();
+        ParameterSweep sweep = new ParameterSweep(ModelFile.open(conf, new Path(args[0])),
+                parseInts(grid.getProperty(MIN_SUPPORTS, "1")),
+                parseDoubles(grid.getProperty(THRESHOLDS, String.valueOf(OverallRating.DEFAULT_THRESHOLD))),
+                parseInts(grid.getProperty(KS, args[3])));
+        sweep.loadHoldout(conf, new Path(args[1]),
+                Double.parseDouble(grid.getProperty(MIN_RELEVANT_RATING, "0")));
+        ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(grid.getProperty(THREADS,
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        try {
+            sweep.evaluate(pool);
+        } finally {
+            pool.shutdown();
+        }
+        sweep.write(conf, new Path(args[2], RESULT_FILE));
+        LOG.info("Evaluated " + sweep.hits.length + " combinations over " + sweep.evaluatedUsers + " users in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return true;
+    }
+
+    /**
+     * Runs the holdout split job. It takes two arguments: the raw data and the output directory.
+     */
+    public static boolean split(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(HoldoutMapper.class);
+        job.setNumReduceTasks(0);
+        job.setJarByClass(ParameterSweep.class);
+
+        job.setInputFormatClass(RatingInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        MultipleOutputs.addNamedOutput(job, HOLDOUT, TextOutputFormat.class, Text.class, NullWritable.class);
+
+        RatingInputFormat.setInputPaths(job, new Path(args[0]));
+        TextOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        return RunReport.waitForCompletion(job);
+    }
+}
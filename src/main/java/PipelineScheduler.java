@@ -0,0 +1,219 @@
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PipelineScheduler runs the stages of the pipeline as a dependency graph. A stage starts as soon as all the stages it
+ * depends on have succeeded, so independent stages run concurrently. When a stage fails (returns false or throws), no
+ * further stage is started and the run fails once the running stages have finished.
+ *
+ * Every stage that succeeds writes a success marker (_[stage].success, holding the stage arguments) into its marker
+ * directory. With resume on, a later run skips a stage whose marker holds the same arguments if none of the stages it
+ * depends on is rerun, so the pipeline resumes from the first incomplete stage. Before a stage is rerun, its marker and
+ * its output directories are deleted.
+ *
+ * The stages, their wall time and the jobs they ran are recorded into a RunReport, see report().
+ *
+ * itemcf.scheduler.parallelism: the maximum number of stages running at the same time (default 4)
+ * itemcf.resume: if false, every stage is rerun (default true)
+ */
+public class PipelineScheduler {
+    public static final String PARALLELISM = "itemcf.scheduler.parallelism";
+    public static final String RESUME = "itemcf.resume";
+
+    private static final Log LOG = LogFactory.getLog(PipelineScheduler.class);
+
+    private final Configuration conf;
+    private final List<PipelineStage> stages = new ArrayList<PipelineStage>();
+    private final RunReport report = new RunReport();
+
+    public PipelineScheduler(Configuration conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * Adds a stage; the stages it depends on must have been added before.
+     */
+    public PipelineStage add(PipelineStage stage) {
+        for (PipelineStage dependency : stage.dependencies) {
+            if (!stages.contains(dependency)) {
+                throw new IllegalArgumentException(stage.name + " depends on " + dependency.name
+                        + ", which was not added before");
+            }
+        }
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Runs or skips all the stages and returns whether all of them succeeded.
+     */
+    public boolean run() throws IOException, InterruptedException {
+        boolean resume = conf.getBoolean(RESUME, true);
+        List<PipelineStage> pending = new ArrayList<PipelineStage>(stages);
+        Set<PipelineStage> done = new HashSet<PipelineStage>();
+        Set<PipelineStage> rerun = new HashSet<PipelineStage>();
+        Map<Future<Boolean>, PipelineStage> running = new HashMap<Future<Boolean>, PipelineStage>();
+        boolean failed = false;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, conf.getInt(PARALLELISM, 4)));
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+        try {
+            while (true) {
+                // the stages are in dependency order, so one pass also skips a chain of completed stages
+                for (Iterator<PipelineStage> it = pending.iterator(); !failed && it.hasNext(); ) {
+                    final PipelineStage stage = it.next();
+                    if (!done.containsAll(Arrays.asList(stage.dependencies))) {
+                        continue;
+                    }
+                    it.remove();
+                    if (resume && !dependsOnAny(stage, rerun) && isComplete(stage)) {
+                        LOG.info("Skipping stage " + stage.name + ", it completed in an earlier run");
+                        report.skipped(stage);
+                        done.add(stage);
+                        continue;
+                    }
+                    prepare(stage);
+                    LOG.info("Starting stage " + stage.name);
+                    running.put(completion.submit(new Callable<Boolean>() {
+                        public Boolean call() throws Exception {
+                            return report.run(stage);
+                        }
+                    }), stage);
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+
+                Future<Boolean> future = completion.take();
+                PipelineStage stage = running.remove(future);
+                boolean succeeded;
+                try {
+                    succeeded = future.get();
+                } catch (ExecutionException e) {
+                    LOG.error("Stage " + stage.name + " threw an exception", e.getCause());
+                    succeeded = false;
+                }
+                if (succeeded) {
+                    writeMarker(stage);
+                    done.add(stage);
+                    rerun.add(stage);
+                    LOG.info("Stage " + stage.name + " succeeded");
+                } else {
+                    LOG.error("Stage " + stage.name + " failed, no further stage is started");
+                    failed = true;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return !failed && pending.isEmpty();
+    }
+
+    /**
+     * Returns the report of the stages run or skipped so far.
+     */
+    public RunReport report() {
+        return report;
+    }
+
+    private static boolean dependsOnAny(PipelineStage stage, Set<PipelineStage> stages) {
+        for (PipelineStage dependency : stage.dependencies) {
+            if (stages.contains(dependency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the marker of the stage exists and holds the current arguments.
+     */
+    private boolean isComplete(PipelineStage stage) throws IOException {
+        Path marker = stage.marker();
+        FileSystem fileSystem = marker.getFileSystem(conf);
+        if (!fileSystem.exists(marker)) {
+            return false;
+        }
+        byte[] expected = markerContent(stage);
+        if (fileSystem.getFileStatus(marker).getLen() != expected.length) {
+            return false;
+        }
+        byte[] actual = new byte[expected.length];
+        FSDataInputStream in = fileSystem.open(marker);
+        try {
+            in.readFully(actual);
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(expected, actual);
+    }
+
+    private void prepare(PipelineStage stage) throws IOException {
+        Path marker = stage.marker();
+        marker.getFileSystem(conf).delete(marker, false);
+        for (Path output : stage.outputs) {
+            output.getFileSystem(conf).delete(output, true);
+        }
+    }
+
+    private void writeMarker(PipelineStage stage) throws IOException {
+        Path marker = stage.marker();
+        FSDataOutputStream out = marker.getFileSystem(conf).create(marker, true);
+        try {
+            out.write(markerContent(stage));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the arguments held by a success marker, i.e. the arguments the stage succeeded with, or null if there is
+     * no such marker.
+     */
+    static String[] readMarker(Configuration conf, Path marker) throws IOException {
+        FileSystem fileSystem = marker.getFileSystem(conf);
+        if (!fileSystem.exists(marker)) {
+            return null;
+        }
+        byte[] content = new byte[(int) fileSystem.getFileStatus(marker).getLen()];
+        FSDataInputStream in = fileSystem.open(marker);
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        String text = new String(content, StandardCharsets.UTF_8);
+        return text.isEmpty() ? new String[0] : text.substring(0, text.length() - 1).split("\n", -1);
+    }
+
+    private static byte[] markerContent(PipelineStage stage) {
+        StringBuilder content = new StringBuilder();
+        for (String arg : stage.args) {
+            content.append(arg).append('\n');
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+import org.apache.hadoop.fs.Path;
+
+/**
+ * PipelineStage is one node of the graph run by the PipelineScheduler. Its run method gets the stage arguments and
+ * returns whether the stage succeeded.
+ */
+public abstract class PipelineStage {
+    final String name;
+    final String[] args;
+    final Path markerDir;
+    final Path[] outputs;
+    final PipelineStage[] dependencies;
+
+    /**
+     * @param markerDir the directory holding the success marker, usually the first output directory
+     * @param outputs the output directories, deleted before the stage is run
+     */
+    protected PipelineStage(String name, String[] args, String markerDir, String[] outputs,
+            PipelineStage... dependencies) {
+        this.name = name;
+        this.args = args;
+        this.markerDir = new Path(markerDir);
+        this.outputs = new Path[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            this.outputs[i] = new Path(outputs[i]);
+        }
+        this.dependencies = dependencies;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    protected abstract boolean run(String[] args) throws Exception;
+
+    Path marker() {
+        return marker(markerDir, name);
+    }
+
+    /**
+     * Returns the path of the success marker of the stage named name in markerDir.
+     */
+    static Path marker(Path markerDir, String name) {
+        return new Path(markerDir, "_" + name + ".success");
+    }
+}
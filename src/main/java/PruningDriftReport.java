@@ -0,0 +1,228 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PruningDriftReport measures how far the predicates of a run with a pruned co-occurrence matrix (see
+ * CoOccurrencePruner) drift from the predicates of an unpruned reference run over the same data. It joins the two
+ * overallRatingDir outputs per user and reports:
+ *
+ * coverage: the share of the reference predicates the pruned run still predicts,
+ * MAE and RMSE: the mean absolute and root mean squared difference of the predicates both runs predict,
+ * top k overlap: the share of the reference top k movies per user that are also in the pruned top k.
+ *
+ * output format: user \t common predicates,top k overlap (one line per user), plus the report in _drift-report.txt
+ *
+ * It takes three or four arguments: the reference overallRatingDir, the pruned overallRatingDir, the output directory
+ * and k (default 10).
+ */
+public class PruningDriftReport {
+
+    public static final String K = "pruningDrift.k";
+    public static final String REPORT_FILE = "_drift-report.txt";
+
+    // the errors are summed in counters, as fixed-point millionths
+    private static final double MICROS = 1e6;
+
+    public enum Drift {
+        USERS, REFERENCE_PREDICATES, PRUNED_PREDICATES, COMMON_PREDICATES, ABSOLUTE_ERROR_MICROS,
+        SQUARED_ERROR_MICROS, REFERENCE_TOP_K, TOP_K_OVERLAP
+    }
+
+    /**
+     * ReferenceMapper takes the predicates of the reference run.
+     * outputKey: user:0, side 0; outputValue: movie:predicate
+     */
+    public static class ReferenceMapper extends Mapper<IntWritable, MovieRatingWritable, JoinKeyWritable,
+            MovieRatingWritable> {
+
+        private JoinKeyWritable userKey = new JoinKeyWritable();
+
+        @Override
+        public void map(IntWritable key, MovieRatingWritable value, Context context)
+                throws IOException, InterruptedException {
+            userKey.set(key.get(), 0);
+            userKey.setSide(JoinKeyWritable.BUFFERED);
+            context.write(userKey, value);
+        }
+    }
+
+    /**
+     * PrunedMapper takes the predicates of the pruned run.
+     * outputKey: user:0, side 1; outputValue: movie:predicate
+     */
+    public static class PrunedMapper extends Mapper<IntWritable, MovieRatingWritable, JoinKeyWritable,
+            MovieRatingWritable> {
+
+        private JoinKeyWritable userKey = new JoinKeyWritable();
+
+        @Override
+        public void map(IntWritable key, MovieRatingWritable value, Context context)
+                throws IOException, InterruptedException {
+            userKey.set(key.get(), 0);
+            userKey.setSide(JoinKeyWritable.STREAMED);
+            context.write(userKey, value);
+        }
+    }
+
+    /**
+     * DriftReducer buffers the reference predicates of a user, which sort first, and compares the pruned predicates
+     * with them as they stream by.
+     *
+     * inputKey: user:0; inputValue: reference movie:predicate..., pruned movie:predicate...
+     * outputKey: user; outputValue: common predicates,top k overlap
+     */
+    public static class DriftReducer extends Reducer<JoinKeyWritable, MovieRatingWritable, IntWritable, Text> {
+
+        private Map<Integer, Double> reference = new HashMap<Integer, Double>();
+        private TopKHeap referenceTopK;
+        private TopKHeap prunedTopK;
+
+        private IntWritable user = new IntWritable();
+        private Text drift = new Text();
+
+        @Override
+        public void setup(Context context) {
+            int k = context.getConfiguration().getInt(K, 10);
+            referenceTopK = new TopKHeap(k);
+            prunedTopK = new TopKHeap(k);
+        }
+
+        @Override
+        public void reduce(JoinKeyWritable key, Iterable<MovieRatingWritable> values, Context context)
+                throws IOException, InterruptedException {
+            reference.clear();
+            referenceTopK.reset();
+            prunedTopK.reset();
+            int pruned = 0;
+            int common = 0;
+            double absoluteError = 0;
+            double squaredError = 0;
+            // the side of the key changes while the values are iterated
+            for (MovieRatingWritable value : values) {
+                if (key.getSide() == JoinKeyWritable.BUFFERED) {
+                    reference.put(value.getMovie(), value.getRating());
+                    referenceTopK.offer(value.getMovie(), value.getRating());
+                    continue;
+                }
+                pruned++;
+                prunedTopK.offer(value.getMovie(), value.getRating());
+                Double expected = reference.get(value.getMovie());
+                if (expected != null) {
+                    double error = Math.abs(value.getRating() - expected);
+                    common++;
+                    absoluteError += error;
+                    squaredError += error * error;
+                }
+            }
+
+            int overlap = 0;
+            for (int i = 0; i < prunedTopK.size(); i++) {
+                for (int j = 0; j < referenceTopK.size(); j++) {
+                    if (prunedTopK.id(i) == referenceTopK.id(j)) {
+                        overlap++;
+                        break;
+                    }
+                }
+            }
+
+            context.getCounter(Drift.USERS).increment(1);
+            context.getCounter(Drift.REFERENCE_PREDICATES).increment(reference.size());
+            context.getCounter(Drift.PRUNED_PREDICATES).increment(pruned);
+            context.getCounter(Drift.COMMON_PREDICATES).increment(common);
+            context.getCounter(Drift.ABSOLUTE_ERROR_MICROS).increment(Math.round(absoluteError * MICROS));
+            context.getCounter(Drift.SQUARED_ERROR_MICROS).increment(Math.round(squaredError * MICROS));
+            context.getCounter(Drift.REFERENCE_TOP_K).increment(referenceTopK.size());
+            context.getCounter(Drift.TOP_K_OVERLAP).increment(overlap);
+
+            user.set(key.getFirst());
+            drift.set(common + "," + overlap + "/" + referenceTopK.size());
+            context.write(user, drift);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length > 3) {
+            conf.setInt(K, Integer.parseInt(args[3]));
+        }
+
+        Job job = Job.getInstance(conf);
+        job.setReducerClass(DriftReducer.class);
+        job.setPartitionerClass(IntPairWritable.FirstPartitioner.class);
+        job.setGroupingComparatorClass(JoinKeyWritable.GroupingComparator.class);
+        StageConfig.setReducers(job, "pruningDrift");
+        StageConfig.compressMapOutput(job);
+
+        job.setJarByClass(PruningDriftReport.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setMapOutputKeyClass(JoinKeyWritable.class);
+        job.setMapOutputValueClass(MovieRatingWritable.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(Text.class);
+
+        MultipleInputs.addInputPath(job, new Path(args[0]), SequenceFileInputFormat.class, ReferenceMapper.class);
+        MultipleInputs.addInputPath(job, new Path(args[1]), SequenceFileInputFormat.class, PrunedMapper.class);
+        Path output = new Path(args[2]);
+        TextOutputFormat.setOutputPath(job, output);
+
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+        String report = report(job.getCounters());
+        System.out.print(report);
+        FSDataOutputStream out = output.getFileSystem(conf).create(new Path(output, REPORT_FILE), true);
+        try {
+            out.write(report.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    private static String report(Counters counters) {
+        long users = counters.findCounter(Drift.USERS).getValue();
+        long referencePredicates = counters.findCounter(Drift.REFERENCE_PREDICATES).getValue();
+        long prunedPredicates = counters.findCounter(Drift.PRUNED_PREDICATES).getValue();
+        long common = counters.findCounter(Drift.COMMON_PREDICATES).getValue();
+        double absoluteError = counters.findCounter(Drift.ABSOLUTE_ERROR_MICROS).getValue() / MICROS;
+        double squaredError = counters.findCounter(Drift.SQUARED_ERROR_MICROS).getValue() / MICROS;
+        long referenceTopK = counters.findCounter(Drift.REFERENCE_TOP_K).getValue();
+        long overlap = counters.findCounter(Drift.TOP_K_OVERLAP).getValue();
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("users\t%d%n", users));
+        report.append(String.format("reference predicates\t%d%n", referencePredicates));
+        report.append(String.format("pruned predicates\t%d%n", prunedPredicates));
+        report.append(String.format("coverage\t%.4f%n", ratio(common, referencePredicates)));
+        report.append(String.format("MAE\t%.6f%n", common == 0 ? 0 : absoluteError / common));
+        report.append(String.format("RMSE\t%.6f%n", common == 0 ? 0 : Math.sqrt(squaredError / common)));
+        report.append(String.format("top k overlap\t%.4f%n", ratio(overlap, referenceTopK)));
+        return report.toString();
+    }
+
+    private static double ratio(long part, long whole) {
+        return whole == 0 ? 1 : (double) part / whole;
+    }
+}
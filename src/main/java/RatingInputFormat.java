@@ -0,0 +1,93 @@
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+import java.io.IOException;
+
+/**
+ * RatingInputFormat reads the raw data file (format: user,movie,rating) and parses every line into a reused
+ * RatingRecord, without creating Strings. Lines are split the same way as TextInputFormat; lines that do not parse are
+ * skipped and counted in the MALFORMED_LINES counter (empty lines are skipped silently).
+ *
+ * key: offset of the line in the file
+ * value: the parsed line
+ */
+public class RatingInputFormat extends FileInputFormat<LongWritable, RatingRecord> {
+
+    public enum Counters {
+        MALFORMED_LINES
+    }
+
+    @Override
+    public RecordReader<LongWritable, RatingRecord> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new RatingRecordReader();
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+    }
+
+    /**
+     * RatingRecordReader reads the lines with a LineRecordReader and parses them in place from its Text buffer.
+     */
+    public static class RatingRecordReader extends RecordReader<LongWritable, RatingRecord> {
+
+        private final LineRecordReader lineReader = new LineRecordReader();
+        private final RatingRecord record = new RatingRecord();
+        // qualified, FileInputFormat declares its own Counter enum
+        private org.apache.hadoop.mapreduce.Counter malformedLines;
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            lineReader.initialize(split, context);
+            // the framework hands the mapper context to the reader, which can update counters
+            if (context instanceof TaskInputOutputContext) {
+                TaskInputOutputContext<?, ?, ?, ?> taskContext = (TaskInputOutputContext<?, ?, ?, ?>) context;
+                malformedLines = taskContext.getCounter(Counters.MALFORMED_LINES);
+            }
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            while (lineReader.nextKeyValue()) {
+                Text line = lineReader.getCurrentValue();
+                if (record.parse(line.getBytes(), line.getLength())) {
+                    return true;
+                }
+                if (malformedLines != null && line.getLength() > 0) {
+                    malformedLines.increment(1);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return lineReader.getCurrentKey();
+        }
+
+        @Override
+        public RatingRecord getCurrentValue() {
+            return record;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return lineReader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            lineReader.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RatingRecord is one parsed line of the raw data file (format: user,movie,rating). It does not copy the line: the
+ * user and movie IDs are ranges of the line buffer, which stays valid until the next record is read, and the rating is
+ * parsed straight from the bytes. RatingInputFormat reuses one record for all the lines of a split.
+ */
+public class RatingRecord {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // mantissas up to 2^53 are exact doubles, so mantissa / 10^scale is correctly rounded
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private byte[] bytes;
+    private int userStart;
+    private int userEnd;
+    private int movieStart;
+    private int movieEnd;
+    private double rating;
+
+    /**
+     * Parses the first length bytes of a line. Returns false if the line is not user,movie,rating with non-empty IDs
+     * and a numeric rating. Like String.trim, whitespace around the line is ignored; so are any fields after the rating.
+     */
+    public boolean parse(byte[] bytes, int length) {
+        this.bytes = bytes;
+        int end = length;
+        while (end > 0 && isSpace(bytes[end - 1])) {
+            end--;
+        }
+        int start = 0;
+        while (start < end && isSpace(bytes[start])) {
+            start++;
+        }
+
+        int firstComma = indexOf(bytes, start, end, (byte) ',');
+        if (firstComma < 0) {
+            return false;
+        }
+        int secondComma = indexOf(bytes, firstComma + 1, end, (byte) ',');
+        if (secondComma < 0) {
+            return false;
+        }
+        int ratingEnd = indexOf(bytes, secondComma + 1, end, (byte) ',');
+        if (ratingEnd < 0) {
+            ratingEnd = end;
+        }
+
+        userStart = start;
+        userEnd = firstComma;
+        movieStart = firstComma + 1;
+        movieEnd = secondComma;
+        return userEnd > userStart && movieEnd > movieStart && parseRating(secondComma + 1, ratingEnd);
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getUserStart() {
+        return userStart;
+    }
+
+    public int getUserLength() {
+        return userEnd - userStart;
+    }
+
+    public int getMovieStart() {
+        return movieStart;
+    }
+
+    public int getMovieLength() {
+        return movieEnd - movieStart;
+    }
+
+    public double getRating() {
+        return rating;
+    }
+
+    /**
+     * Copies the user ID into the given Text.
+     */
+    public void getUser(Text user) {
+        user.set(bytes, userStart, userEnd - userStart);
+    }
+
+    /**
+     * Copies the movie ID into the given Text.
+     */
+    public void getMovie(Text movie) {
+        movie.set(bytes, movieStart, movieEnd - movieStart);
+    }
+
+    /**
+     * Parses plain decimals ([+-]digits[.digits]) that fit the exact mantissa directly, and falls back to
+     * Double.parseDouble for everything else (exponents, long fractions), which is rare in rating files.
+     */
+    private boolean parseRating(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    scale++;
+                }
+                if (mantissa > MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+                    return parseRatingSlow(start, end);
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                return parseRatingSlow(start, end);
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        double value = mantissa / POWERS_OF_TEN[scale];
+        rating = negative ? -value : value;
+        return true;
+    }
+
+    private boolean parseRatingSlow(int start, int end) {
+        try {
+            rating = Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+}
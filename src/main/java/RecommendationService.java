@@ -0,0 +1,267 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RecommendationService serves concurrent top k queries for the users of a ModelFile:
+ *
+ * - the queries are scored on a bounded thread pool, one ModelScorer per thread; when the pool and its queue are full,
+ * a query fails fast with a RejectedExecutionException instead of piling up,
+ * - identical queries (same user and k) that arrive while one is being scored share its result instead of scoring
+ * again,
+ * - computed lists are kept in an LRU cache of at most cacheSize entries, each valid for ttlMillis,
+ * - reload() swaps in a new model atomically: queries that already started finish on the old model, later queries use
+ * the new one, and the cache of the old model is dropped with it.
+ *
+ * The model, its cache and its in-flight queries form one immutable generation, so a result of the old model can never
+ * be cached for, or shared with, a query of the new one.
+ *
+ * main is a load test: RecommendationService modelFile k [threads] [cacheSize] [ttlMillis] reads user IDs from the
+ * standard input, sends them all at once, and prints the throughput and cache statistics on the standard error.
+ */
+public class RecommendationService {
+
+    private final int cacheSize;
+    private final long ttlMillis;
+    private final ExecutorService executor;
+    private final AtomicReference<Generation> current = new AtomicReference<Generation>();
+    private final ThreadLocal<ModelScorer> scorers = new ThreadLocal<ModelScorer>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public RecommendationService(File modelFile, int threads, int queueCapacity, int cacheSize, long ttlMillis)
+            throws IOException {
+        this.cacheSize = cacheSize;
+        this.ttlMillis = ttlMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+        reload(modelFile);
+    }
+
+    /**
+     * One model with its cache and in-flight queries.
+     */
+    private static class Generation {
+        final ModelFile model;
+        final File file;
+        final long lastModified;
+        final ResultCache cache;
+        final ConcurrentMap<Query, CompletableFuture<Recommendations>> inFlight =
+                new ConcurrentHashMap<Query, CompletableFuture<Recommendations>>();
+
+        Generation(ModelFile model, File file, long lastModified, int cacheSize, long ttlMillis) {
+            this.model = model;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.cache = new ResultCache(cacheSize, ttlMillis);
+        }
+    }
+
+    private static class Query {
+        final String user;
+        final int k;
+
+        Query(String user, int k) {
+            this.user = user;
+            this.k = k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Query && k == ((Query) o).k && user.equals(((Query) o).user);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * user.hashCode() + k;
+        }
+    }
+
+    /**
+     * ResultCache is an LRU map of the computed lists, whose entries expire ttlMillis after they were computed.
+     */
+    private static class ResultCache {
+        private final long ttlMillis;
+        private final LinkedHashMap<Query, Entry> entries;
+
+        private static class Entry {
+            final Recommendations recommendations;
+            final long expires;
+
+            Entry(Recommendations recommendations, long expires) {
+                this.recommendations = recommendations;
+                this.expires = expires;
+            }
+        }
+
+        ResultCache(final int capacity, long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+            this.entries = new LinkedHashMap<Query, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Query, Entry> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized Recommendations get(Query query, long now) {
+            Entry entry = entries.get(query);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires <= now) {
+                entries.remove(query);
+                return null;
+            }
+            return entry.recommendations;
+        }
+
+        synchronized void put(Query query, Recommendations recommendations, long now) {
+            entries.put(query, new Entry(recommendations, now + ttlMillis));
+        }
+    }
+
+    /**
+     * Returns the top k list of the user, completed with null if the user is not in the model, or exceptionally if the
+     * service is overloaded.
+     */
+    public CompletableFuture<Recommendations> recommend(final String user, final int k) {
+        final Generation generation = current.get();
+        final Query query = new Query(user, k);
+        Recommendations cached = generation.cache.get(query, System.currentTimeMillis());
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final CompletableFuture<Recommendations> future = new CompletableFuture<Recommendations>();
+        CompletableFuture<Recommendations> running = generation.inFlight.putIfAbsent(query, future);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return running;
+        }
+        misses.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Recommendations recommendations = scorer(generation.model).recommend(user, k);
+                        if (recommendations != null) {
+                            generation.cache.put(query, recommendations, System.currentTimeMillis());
+                        }
+                        future.complete(recommendations);
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        generation.inFlight.remove(query, future);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            generation.inFlight.remove(query, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private ModelScorer scorer(ModelFile model) {
+        ModelScorer scorer = scorers.get();
+        if (scorer == null || scorer.model() != model) {
+            scorer = new ModelScorer(model);
+            scorers.set(scorer);
+        }
+        return scorer;
+    }
+
+    /**
+     * Opens the model file and makes it the current model. Queries that already started are not waited for.
+     */
+    public void reload(File modelFile) throws IOException {
+        long lastModified = modelFile.lastModified();
+        ModelFile model = ModelFile.open(modelFile);
+        current.set(new Generation(model, modelFile, lastModified, cacheSize, ttlMillis));
+    }
+
+    /**
+     * Reloads the current model file if it changed since it was loaded, and returns whether it did.
+     */
+    public boolean reloadIfModified() throws IOException {
+        Generation generation = current.get();
+        if (generation.file.lastModified() == generation.lastModified) {
+            return false;
+        }
+        reload(generation.file);
+        return true;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int k = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int cacheSize = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+        long ttlMillis = args.length > 4 ? Long.parseLong(args[4]) : 60000;
+
+        List<String> users = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (!line.trim().isEmpty()) {
+                users.add(line.trim());
+            }
+        }
+
+        RecommendationService service = new RecommendationService(new File(args[0]), threads, users.size() + 1,
+                cacheSize, ttlMillis);
+        long start = System.nanoTime();
+        List<CompletableFuture<Recommendations>> results = new ArrayList<CompletableFuture<Recommendations>>();
+        for (String user : users) {
+            results.add(service.recommend(user, k));
+        }
+        int failed = 0;
+        for (CompletableFuture<Recommendations> result : results) {
+            try {
+                result.join();
+            } catch (RuntimeException e) {
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        service.shutdown();
+
+        System.err.printf("%d queries in %.3f s (%.0f/s), %d failed, %d cache hits, %d coalesced, %d scored%n",
+                users.size(), seconds, users.size() / seconds, failed, service.hits(), service.coalesced(),
+                service.misses());
+    }
+}
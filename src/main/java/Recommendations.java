@@ -0,0 +1,40 @@
+/**
+ * Recommendations is an immutable top k list computed by the ModelScorer: the original movie IDs and their predicates,
+ * from the highest predicate to the lowest.
+ */
+public final class Recommendations {
+    private final String[] movies;
+    private final double[] predicates;
+
+    Recommendations(String[] movies, double[] predicates) {
+        this.movies = movies;
+        this.predicates = predicates;
+    }
+
+    public int size() {
+        return movies.length;
+    }
+
+    public String movie(int i) {
+        return movies[i];
+    }
+
+    public double predicate(int i) {
+        return predicates[i];
+    }
+
+    /**
+     * Returns the list in the topKDir format: movie1:predicate1,movie2:predicate2...
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < movies.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(movies[i]).append(':').append(predicates[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,73 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * RelationOrRatingWritable is the tagged value of the Multiplication job for one movieB. It is either a cell of the
+ * co-occurrence matrix (id: movieA, relation: movieA:movieB's relation) or a rating of movieB (id: user, rating).
+ */
+public class RelationOrRatingWritable implements Writable {
+    private static final byte RELATION = 0;
+    private static final byte RATING = 1;
+
+    private byte tag;
+    private int id;
+    private int relation;
+    private double rating;
+
+    public void setRelation(int movie, int relation) {
+        this.tag = RELATION;
+        this.id = movie;
+        this.relation = relation;
+    }
+
+    public void setRating(int user, double rating) {
+        this.tag = RATING;
+        this.id = user;
+        this.rating = rating;
+    }
+
+    public boolean isRelation() {
+        return tag == RELATION;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getRelation() {
+        return relation;
+    }
+
+    public double getRating() {
+        return rating;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(tag);
+        WritableUtils.writeVInt(out, id);
+        if (tag == RELATION) {
+            WritableUtils.writeVInt(out, relation);
+        } else {
+            out.writeDouble(rating);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        tag = in.readByte();
+        id = WritableUtils.readVInt(in);
+        if (tag == RELATION) {
+            relation = WritableUtils.readVInt(in);
+        } else {
+            rating = in.readDouble();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return tag == RELATION ? id + "=" + relation : id + ":" + rating;
+    }
+}
@@ -0,0 +1,168 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * RowLengths is the number of cells in every row of a co-occurrence matrix (the movieA:movieB cells of movieB, the
+ * mirrored half included if only the upper triangle is stored), for Multiplication.joinSide. It is a side file of the
+ * matrix directory, _row-lengths:
+ *
+ * int magic, int numMovies, int[numMovies] lengths, indexed by movieB.
+ *
+ * The stage writing the matrix produces it. Its reducers count the cells they write with a Collector, which writes
+ * one (IntWritable movie, IntWritable cells) record per row it has cells of into the _rows directory of the output;
+ * after the job, write sums these partial counts into the side file and deletes them. The cost is one record per row
+ * and reducer instead of a pass over the matrix. It is only done when multiplication.secondarySort is set, the only
+ * reader of the file.
+ */
+public class RowLengths {
+    public static final String FILE_NAME = "_row-lengths";
+    public static final String ENABLED = "coOccurrence.rowLengths";
+
+    private static final String NAMED_OUTPUT = "rows";
+    private static final String PARTS_DIR = "_rows";
+    private static final int MAGIC = 0x524f574c;
+
+    private RowLengths() {
+    }
+
+    /**
+     * Makes the reducers of job collect the row lengths if the secondary-sort join will read them.
+     */
+    public static void enable(Job job) {
+        if (!job.getConfiguration().getBoolean(Multiplication.SECONDARY_SORT, false)) {
+            return;
+        }
+        job.getConfiguration().setBoolean(ENABLED, true);
+        MultipleOutputs.addNamedOutput(job, NAMED_OUTPUT, SequenceFileOutputFormat.class,
+                IntWritable.class, IntWritable.class);
+    }
+
+    /**
+     * Returns a Collector for a reducer writing matrix cells, or null if the job does not collect the row lengths.
+     */
+    public static Collector collector(TaskInputOutputContext<?, ?, IntPairWritable, IntWritable> context,
+            boolean upperTriangle) {
+        return context.getConfiguration().getBoolean(ENABLED, false) ? new Collector(context, upperTriangle) : null;
+    }
+
+    /**
+     * Collector counts the cells written by one reducer. Its counts are only written by close, in the reducer's
+     * cleanup.
+     */
+    public static class Collector {
+        private final MultipleOutputs<IntPairWritable, IntWritable> multipleOutputs;
+        private final boolean upperTriangle;
+        private int[] counts = new int[1024];
+
+        Collector(TaskInputOutputContext<?, ?, IntPairWritable, IntWritable> context, boolean upperTriangle) {
+            this.multipleOutputs = new MultipleOutputs<IntPairWritable, IntWritable>(context);
+            this.upperTriangle = upperTriangle;
+        }
+
+        /**
+         * Counts the cell movieA:movieB into the row of movieB, and into the row of movieA if it is mirrored.
+         */
+        public void add(int movieA, int movieB) {
+            count(movieB);
+            if (upperTriangle && movieA != movieB) {
+                count(movieA);
+            }
+        }
+
+        private void count(int movie) {
+            if (movie >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(movie + 1, counts.length * 2));
+            }
+            counts[movie]++;
+        }
+
+        public void close() throws IOException, InterruptedException {
+            IntWritable movie = new IntWritable();
+            IntWritable cells = new IntWritable();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    movie.set(i);
+                    cells.set(counts[i]);
+                    multipleOutputs.write(NAMED_OUTPUT, movie, cells, PARTS_DIR + "/part");
+                }
+            }
+            multipleOutputs.close();
+        }
+    }
+
+    /**
+     * Sums the partial counts the reducers of job wrote into matrixDir into the side file, and deletes them. Does
+     * nothing if the job did not collect the row lengths.
+     */
+    public static void write(Job job, Path matrixDir) throws IOException {
+        Configuration conf = job.getConfiguration();
+        if (!conf.getBoolean(ENABLED, false)) {
+            return;
+        }
+        FileSystem fileSystem = matrixDir.getFileSystem(conf);
+        Path partsDir = new Path(matrixDir, PARTS_DIR);
+        FileStatus[] parts = fileSystem.globStatus(new Path(partsDir, "part-*"));
+        int[] lengths = new int[0];
+        IntWritable movie = new IntWritable();
+        IntWritable cells = new IntWritable();
+        if (parts != null) {
+            for (FileStatus part : parts) {
+                SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+                while (reader.next(movie, cells)) {
+                    if (movie.get() >= lengths.length) {
+                        lengths = Arrays.copyOf(lengths, Math.max(movie.get() + 1, lengths.length * 2));
+                    }
+                    lengths[movie.get()] += cells.get();
+                }
+                reader.close();
+            }
+        }
+        int numMovies = lengths.length;
+        while (numMovies > 0 && lengths[numMovies - 1] == 0) {
+            numMovies--;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                fileSystem.create(new Path(matrixDir, FILE_NAME), true)));
+        out.writeInt(MAGIC);
+        out.writeInt(numMovies);
+        for (int i = 0; i < numMovies; i++) {
+            out.writeInt(lengths[i]);
+        }
+        out.close();
+        fileSystem.delete(partsDir, true);
+    }
+
+    /**
+     * Memory-maps the row lengths of the matrix in matrixDir, indexed by movieB.
+     */
+    public static IntBuffer open(Configuration conf, Path matrixDir) throws IOException {
+        Path path = new Path(matrixDir, FILE_NAME);
+        if (!path.getFileSystem(conf).exists(path)) {
+            throw new IOException("The co-occurrence matrix " + matrixDir + " has no " + FILE_NAME
+                    + ", it was not built with " + Multiplication.SECONDARY_SORT);
+        }
+        IntBuffer ints = SeenItemsIndex.map(conf, path).asIntBuffer();
+        if (ints.get(0) != MAGIC) {
+            throw new IOException("Not a row lengths file");
+        }
+        ints.position(2);
+        IntBuffer lengths = ints.slice();
+        lengths.limit(ints.get(1));
+        return lengths;
+    }
+}
@@ -0,0 +1,383 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RunReport collects what a run of the pipeline did, and writes it as a JSON document for the runs to be compared by
+ * a script. For every stage run or skipped by the PipelineScheduler, in the order they started, it holds the status,
+ * the start time (from the start of the run) and the wall time of the stage, and the jobs of the stage with:
+ *
+ * name, id: the name of the job (by default its reducer class) and its job ID
+ * wallMillis: the time waitForCompletion took
+ * records: the framework record counters (MAP_INPUT_RECORDS, REDUCE_OUTPUT_RECORDS...)
+ * bytes: the framework byte counters (MAP_OUTPUT_BYTES, FILE_BYTES_WRITTEN, HDFS_BYTES_READ...)
+ * fanOut: for every FanOutHistogram of the job, the number of groups, of records, the mean group size, the bound of
+ * the largest bucket, the skew (the largest bound over the mean) and the buckets
+ * counters: every counter of the job, by group
+ *
+ * The stages report their jobs by running them with RunReport.waitForCompletion(job), which records the job into the
+ * stage the current thread runs for the scheduler. Outside of a scheduler (a job run from its own main), it only runs
+ * the job.
+ */
+public class RunReport {
+
+    private static final String[] RECORD_COUNTERS = {
+            "MAP_INPUT_RECORDS", "MAP_OUTPUT_RECORDS", "COMBINE_INPUT_RECORDS", "COMBINE_OUTPUT_RECORDS",
+            "REDUCE_INPUT_GROUPS", "REDUCE_INPUT_RECORDS", "REDUCE_OUTPUT_RECORDS", "SPILLED_RECORDS"
+    };
+    private static final String[] BYTE_COUNTERS = {
+            "MAP_OUTPUT_BYTES", "MAP_OUTPUT_MATERIALIZED_BYTES", "REDUCE_SHUFFLE_BYTES", "FILE_BYTES_READ",
+            "FILE_BYTES_WRITTEN", "HDFS_BYTES_READ", "HDFS_BYTES_WRITTEN"
+    };
+
+    private static final ThreadLocal<Stage> CURRENT = new ThreadLocal<Stage>();
+
+    private final long start = System.currentTimeMillis();
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    /**
+     * Runs the job, printing its progress, and records it into the stage of the current thread.
+     */
+    public static boolean waitForCompletion(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+        long jobStart = System.currentTimeMillis();
+        boolean succeeded = job.waitForCompletion(true);
+        Stage stage = CURRENT.get();
+        if (stage != null) {
+            stage.add(new JobRecord(jobName(job), job.getJobID().toString(), succeeded,
+                    System.currentTimeMillis() - jobStart, job.getCounters()));
+        }
+        return succeeded;
+    }
+
+    /**
+     * Returns the name of the job or, as the jobs of the pipeline do not set one, the name of its reducer class, or
+     * of its mapper class if it is map-only.
+     */
+    private static String jobName(Job job) throws ClassNotFoundException {
+        if (!job.getJobName().isEmpty()) {
+            return job.getJobName();
+        }
+        return (job.getNumReduceTasks() > 0 ? job.getReducerClass() : job.getMapperClass()).getName();
+    }
+
+    /**
+     * Records a stage skipped by the scheduler.
+     */
+    public void skipped(PipelineStage stage) {
+        Stage skipped = newStage(stage.name);
+        skipped.status = "skipped";
+    }
+
+    /**
+     * Runs the stage, recording the jobs it runs in the current thread.
+     */
+    public boolean run(PipelineStage stage) throws Exception {
+        Stage current = newStage(stage.name);
+        CURRENT.set(current);
+        boolean succeeded = false;
+        try {
+            succeeded = stage.run(stage.args);
+            return succeeded;
+        } finally {
+            CURRENT.remove();
+            current.finish(succeeded);
+        }
+    }
+
+    private Stage newStage(String name) {
+        Stage stage = new Stage(name, System.currentTimeMillis(), start);
+        synchronized (stages) {
+            stages.add(stage);
+        }
+        return stage;
+    }
+
+    /**
+     * Writes the report as JSON into the given file, replacing it.
+     */
+    public void write(Configuration conf, Path path, boolean succeeded) throws IOException {
+        JsonWriter json = new JsonWriter();
+        json.beginObject(null);
+        json.field("status", succeeded ? "succeeded" : "failed");
+        json.field("wallMillis", System.currentTimeMillis() - start);
+        json.beginArray("stages");
+        synchronized (stages) {
+            for (Stage stage : stages) {
+                stage.write(json);
+            }
+        }
+        json.endArray();
+        json.endObject();
+
+        FSDataOutputStream out = path.getFileSystem(conf).create(path, true);
+        try {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class Stage {
+        final String name;
+        final long startedAt;
+        final long runStartedAt;
+        final List<JobRecord> jobs = new ArrayList<JobRecord>();
+        String status = "running";
+        long wallMillis;
+
+        Stage(String name, long startedAt, long runStartedAt) {
+            this.name = name;
+            this.startedAt = startedAt;
+            this.runStartedAt = runStartedAt;
+        }
+
+        synchronized void add(JobRecord job) {
+            jobs.add(job);
+        }
+
+        synchronized void finish(boolean succeeded) {
+            status = succeeded ? "succeeded" : "failed";
+            wallMillis = System.currentTimeMillis() - startedAt;
+        }
+
+        synchronized void write(JsonWriter json) {
+            json.beginObject(null);
+            json.field("name", name);
+            json.field("status", status);
+            json.field("startMillis", startedAt - runStartedAt);
+            json.field("wallMillis", wallMillis);
+            json.beginArray("jobs");
+            for (JobRecord job : jobs) {
+                job.write(json);
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    private static class JobRecord {
+        final String name;
+        final String id;
+        final boolean succeeded;
+        final long wallMillis;
+        // group -> counter -> value, sorted for a stable output
+        final Map<String, Map<String, Long>> counters = new TreeMap<String, Map<String, Long>>();
+
+        JobRecord(String name, String id, boolean succeeded, long wallMillis, Counters jobCounters) {
+            this.name = name;
+            this.id = id;
+            this.succeeded = succeeded;
+            this.wallMillis = wallMillis;
+            if (jobCounters == null) {
+                return;
+            }
+            for (CounterGroup group : jobCounters) {
+                Map<String, Long> values = new TreeMap<String, Long>();
+                for (org.apache.hadoop.mapreduce.Counter counter : group) {
+                    values.put(counter.getName(), counter.getValue());
+                }
+                counters.put(group.getName(), values);
+            }
+        }
+
+        /**
+         * Returns the value of a framework counter, looked up by name in every group, as the group names differ
+         * between the Hadoop versions; -1 if the job has no such counter.
+         */
+        long frameworkCounter(String name) {
+            for (Map.Entry<String, Map<String, Long>> group : counters.entrySet()) {
+                if (!group.getKey().startsWith(FanOutHistogram.GROUP_PREFIX) && group.getValue().containsKey(name)) {
+                    return group.getValue().get(name);
+                }
+            }
+            return -1;
+        }
+
+        void write(JsonWriter json) {
+            json.beginObject(null);
+            json.field("name", name);
+            json.field("id", id);
+            json.field("succeeded", succeeded);
+            json.field("wallMillis", wallMillis);
+            writeFrameworkCounters(json, "records", RECORD_COUNTERS);
+            writeFrameworkCounters(json, "bytes", BYTE_COUNTERS);
+            json.beginObject("fanOut");
+            for (Map.Entry<String, Map<String, Long>> group : counters.entrySet()) {
+                if (group.getKey().startsWith(FanOutHistogram.GROUP_PREFIX)) {
+                    writeHistogram(json, group.getKey().substring(FanOutHistogram.GROUP_PREFIX.length()),
+                            group.getValue());
+                }
+            }
+            json.endObject();
+            json.beginObject("counters");
+            for (Map.Entry<String, Map<String, Long>> group : counters.entrySet()) {
+                json.beginObject(group.getKey());
+                for (Map.Entry<String, Long> counter : group.getValue().entrySet()) {
+                    json.field(counter.getKey(), counter.getValue());
+                }
+                json.endObject();
+            }
+            json.endObject();
+            json.endObject();
+        }
+
+        private void writeFrameworkCounters(JsonWriter json, String name, String[] counterNames) {
+            json.beginObject(name);
+            for (String counterName : counterNames) {
+                long value = frameworkCounter(counterName);
+                if (value >= 0) {
+                    json.field(counterName, value);
+                }
+            }
+            json.endObject();
+        }
+
+        private static void writeHistogram(JsonWriter json, String name, Map<String, Long> counters) {
+            Map<Long, Long> buckets = new TreeMap<Long, Long>();
+            long groups = 0;
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                if (counter.getKey().startsWith(FanOutHistogram.BUCKET_PREFIX)) {
+                    buckets.put(Long.parseLong(counter.getKey().substring(FanOutHistogram.BUCKET_PREFIX.length())),
+                            counter.getValue());
+                    groups += counter.getValue();
+                }
+            }
+            Long records = counters.get(FanOutHistogram.RECORDS);
+
+            json.beginObject(name);
+            json.field("groups", groups);
+            json.field("records", records == null ? 0 : records);
+            if (groups > 0 && records != null && records > 0) {
+                long largestBound = 0;
+                for (long bound : buckets.keySet()) {
+                    largestBound = bound;
+                }
+                double mean = (double) records / groups;
+                json.field("mean", mean);
+                json.field("largestBound", largestBound);
+                json.field("skew", largestBound / mean);
+            }
+            json.beginObject("buckets");
+            for (Map.Entry<Long, Long> bucket : buckets.entrySet()) {
+                json.field(String.valueOf(bucket.getKey()), bucket.getValue());
+            }
+            json.endObject();
+            json.endObject();
+        }
+    }
+
+    /**
+     * JsonWriter writes an indented JSON document: the fields are written in the object or array last begun.
+     */
+    private static class JsonWriter {
+        private final StringBuilder out = new StringBuilder();
+        private int depth;
+        private boolean first = true;
+
+        void beginObject(String name) {
+            begin(name, '{');
+        }
+
+        void endObject() {
+            end('}');
+        }
+
+        void beginArray(String name) {
+            begin(name, '[');
+        }
+
+        void endArray() {
+            end(']');
+        }
+
+        void field(String name, String value) {
+            name(name);
+            string(value);
+        }
+
+        void field(String name, long value) {
+            name(name);
+            out.append(value);
+        }
+
+        void field(String name, double value) {
+            name(name);
+            out.append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value));
+        }
+
+        void field(String name, boolean value) {
+            name(name);
+            out.append(value);
+        }
+
+        private void begin(String name, char bracket) {
+            name(name);
+            out.append(bracket);
+            depth++;
+            first = true;
+        }
+
+        private void end(char bracket) {
+            depth--;
+            if (!first) {
+                newLine();
+            }
+            out.append(bracket);
+            first = false;
+        }
+
+        /**
+         * Starts a new element of the current object or array: the separator, the indentation and the name, if any.
+         */
+        private void name(String name) {
+            if (!first) {
+                out.append(',');
+            }
+            if (depth > 0) {
+                newLine();
+            }
+            first = false;
+            if (name != null) {
+                string(name);
+                out.append(": ");
+            }
+        }
+
+        private void newLine() {
+            out.append('\n');
+            for (int i = 0; i < depth; i++) {
+                out.append("  ");
+            }
+        }
+
+        private void string(String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return out.toString() + '\n';
+        }
+    }
+}
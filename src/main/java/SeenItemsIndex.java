@@ -0,0 +1,252 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * SeenItemsIndex is a compact index of the movies rated by every user, used to skip the movies a user has already
+ * rated. It is written once from the DataDividerByUser output (all the part-r-* files) into a binary side file:
+ *
+ * int magic, int numUsers, int numMovies, int numRatings,
+ * int[numUsers + 1] offsets: the movies of user u are movies[offsets[u]] to movies[offsets[u + 1] - 1],
+ * int[numRatings] movies: sorted for every user,
+ * int[numMovies] ratingCounts: the number of users who rated every movie.
+ *
+ * Readers memory-map the file instead of parsing it, so opening it costs no heap. A file on a non-local file system is
+ * copied to a local temporary file first.
+ *
+ * The file is mapped into a single buffer, which Java limits to 2 GB (Integer.MAX_VALUE bytes), so the index holds at
+ * most about 500 million ratings; write checks the size before building anything and fails with an IOException
+ * beyond it. write builds the offsets and movies arrays in the heap of the client, about the size of the file.
+ *
+ * The Driver runs main as a stage of its own, next to the CoOccurrenceMatrixGenerator job. It takes the
+ * userMovieListOutputDir as its only argument and writes the index into it as _seen-items.index.
+ */
+public class SeenItemsIndex {
+    public static final String FILE_NAME = "_seen-items.index";
+
+    private static final int MAGIC = 0x5345454e;
+    private static final int HEADER_INTS = 4;
+
+    private final int numUsers;
+    private final int numMovies;
+    private final IntBuffer offsets;
+    private final IntBuffer movies;
+    private final IntBuffer ratingCounts;
+
+    private SeenItemsIndex(ByteBuffer buffer) throws IOException {
+        IntBuffer ints = buffer.asIntBuffer();
+        if (ints.get(0) != MAGIC) {
+            throw new IOException("Not a seen items index");
+        }
+        numUsers = ints.get(1);
+        numMovies = ints.get(2);
+        int numRatings = ints.get(3);
+        offsets = slice(ints, HEADER_INTS, numUsers + 1);
+        movies = slice(ints, HEADER_INTS + numUsers + 1, numRatings);
+        ratingCounts = slice(ints, HEADER_INTS + numUsers + 1 + numRatings, numMovies);
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int position, int length) {
+        ints.limit(position + length);
+        ints.position(position);
+        IntBuffer slice = ints.slice();
+        ints.clear();
+        return slice;
+    }
+
+    public int numUsers() {
+        return numUsers;
+    }
+
+    public int numMovies() {
+        return numMovies;
+    }
+
+    /**
+     * Returns the number of users who rated the movie.
+     */
+    public int ratingCount(int movie) {
+        return movie >= 0 && movie < numMovies ? ratingCounts.get(movie) : 0;
+    }
+
+    /**
+     * Returns true if the user has rated the movie.
+     */
+    public boolean contains(int user, int movie) {
+        if (user < 0 || user >= numUsers) {
+            return false;
+        }
+        int low = offsets.get(user);
+        int high = offsets.get(user + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midMovie = movies.get(mid);
+            if (midMovie < movie) {
+                low = mid + 1;
+            } else if (midMovie > movie) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the bits of the movies rated by the user in movies.
+     */
+    public void addMovies(int user, BitSet movies) {
+        if (user < 0 || user >= numUsers) {
+            return;
+        }
+        for (int i = offsets.get(user); i < offsets.get(user + 1); i++) {
+            movies.set(this.movies.get(i));
+        }
+    }
+
+    /**
+     * Reads all the parts of the DataDividerByUser output in userMovieListDir and writes the index to indexPath.
+     */
+    public static void write(Configuration conf, Path userMovieListDir, Path indexPath) throws IOException {
+        FileSystem fileSystem = userMovieListDir.getFileSystem(conf);
+        FileStatus[] parts = fileSystem.globStatus(new Path(userMovieListDir, "part-*"));
+
+        //first pass: the number of ratings of every user
+        int[] counts = new int[1024];
+        int numUsers = 0;
+        long numRatings = 0;
+        int maxMovie = -1;
+        IntWritable user = new IntWritable();
+        MovieRatingListWritable movieRatings = new MovieRatingListWritable();
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(user, movieRatings)) {
+                if (user.get() >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(user.get() + 1, counts.length * 2));
+                }
+                counts[user.get()] += movieRatings.size();
+                numUsers = Math.max(numUsers, user.get() + 1);
+                numRatings += movieRatings.size();
+                for (int i = 0; i < movieRatings.size(); i++) {
+                    maxMovie = Math.max(maxMovie, movieRatings.getMovie(i));
+                }
+            }
+            reader.close();
+        }
+        checkMappable(4L * (HEADER_INTS + numUsers + 1 + numRatings + maxMovie + 1), indexPath);
+
+        int[] offsets = new int[numUsers + 1];
+        for (int u = 0; u < numUsers; u++) {
+            offsets[u + 1] = offsets[u] + counts[u];
+        }
+
+        //second pass: the movies of every user, sorted
+        int[] movies = new int[offsets[numUsers]];
+        int[] next = Arrays.copyOf(offsets, numUsers);
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(user, movieRatings)) {
+                for (int i = 0; i < movieRatings.size(); i++) {
+                    movies[next[user.get()]++] = movieRatings.getMovie(i);
+                }
+            }
+            reader.close();
+        }
+        int numMovies = 0;
+        for (int u = 0; u < numUsers; u++) {
+            Arrays.sort(movies, offsets[u], offsets[u + 1]);
+            if (offsets[u + 1] > offsets[u]) {
+                numMovies = Math.max(numMovies, movies[offsets[u + 1] - 1] + 1);
+            }
+        }
+        int[] ratingCounts = new int[numMovies];
+        for (int movie : movies) {
+            ratingCounts[movie]++;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                indexPath.getFileSystem(conf).create(indexPath, true)));
+        out.writeInt(MAGIC);
+        out.writeInt(numUsers);
+        out.writeInt(numMovies);
+        out.writeInt(movies.length);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int movie : movies) {
+            out.writeInt(movie);
+        }
+        for (int ratingCount : ratingCounts) {
+            out.writeInt(ratingCount);
+        }
+        out.close();
+    }
+
+    /**
+     * Memory-maps the index at indexPath.
+     */
+    public static SeenItemsIndex open(Configuration conf, Path indexPath) throws IOException {
+        return new SeenItemsIndex(map(conf, indexPath));
+    }
+
+    /**
+     * Throws if a file of the given size cannot be memory-mapped by map.
+     */
+    static void checkMappable(long bytes, Path path) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException(path + ": " + bytes + " bytes, more than the " + Integer.MAX_VALUE
+                    + " bytes a memory-mapped buffer can hold");
+        }
+    }
+
+    /**
+     * Memory-maps a read-only file, copying it to a local temporary file first if it is not on the local file system.
+     * The file must not be larger than Integer.MAX_VALUE bytes.
+     */
+    static ByteBuffer map(Configuration conf, Path path) throws IOException {
+        FileSystem fileSystem = path.getFileSystem(conf);
+        checkMappable(fileSystem.getFileStatus(path).getLen(), path);
+        File localFile;
+        if (fileSystem instanceof LocalFileSystem) {
+            localFile = ((LocalFileSystem) fileSystem).pathToFile(path);
+        } else {
+            localFile = File.createTempFile(path.getName(), ".local");
+            localFile.deleteOnExit();
+            fileSystem.copyToLocalFile(path, new Path(localFile.getAbsolutePath()));
+        }
+
+        RandomAccessFile file = new RandomAccessFile(localFile, "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        write(conf, new Path(args[0]), new Path(args[0], FILE_NAME));
+        return true;
+    }
+}
@@ -0,0 +1,65 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SignatureWritable holds the MinHash signature of one movie: the minimum of every hash function over the users who
+ * rated it. The hash values are uniformly spread, so they are written as fixed-length ints. The array is reused when
+ * the instance is read again, so only the first size() values are valid.
+ */
+public class SignatureWritable implements Writable {
+    private int size;
+    private int[] values = new int[16];
+
+    public void set(int[] values, int size) {
+        ensureCapacity(size);
+        System.arraycopy(values, 0, this.values, 0, size);
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Lowers every value to the value of the same hash function in signature, where that is smaller.
+     */
+    public static void min(int[] values, SignatureWritable signature) {
+        for (int i = 0; i < signature.size; i++) {
+            if (signature.values[i] < values[i]) {
+                values[i] = signature.values[i];
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        size = 0;
+        int length = WritableUtils.readVInt(in);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        size = length;
+    }
+}
@@ -0,0 +1,75 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/**
+ * StageConfig holds the configuration properties shared by the jobs of the pipeline, and the helpers that apply them
+ * to a job.
+ *
+ * itemcf.reducers: the number of reducers of every stage, unless the stage sets its own
+ * itemcf.[stage].reducers: the number of reducers of one stage (dataDivider, coOccurrence, multiplication,
+ * overallRating, topK)
+ *
+ * If neither is set, the job keeps the cluster default.
+ *
+ * itemcf.compress: if true (default), the SequenceFiles handed over between the stages are block-compressed and the
+ * map output of every job is compressed
+ * itemcf.compress.codec: the CompressionCodec class of both (default: DefaultCodec, which needs no native library)
+ */
+public final class StageConfig {
+    public static final String REDUCERS = "itemcf.reducers";
+    public static final String COMPRESS = "itemcf.compress";
+    public static final String CODEC = "itemcf.compress.codec";
+
+    private StageConfig() {
+    }
+
+    public static String stageReducers(String stage) {
+        return "itemcf." + stage + ".reducers";
+    }
+
+    /**
+     * Sets the number of reducers of the job from itemcf.[stage].reducers or itemcf.reducers.
+     */
+    public static void setReducers(Job job, String stage) {
+        int reducers = job.getConfiguration().getInt(stageReducers(stage),
+                job.getConfiguration().getInt(REDUCERS, -1));
+        if (reducers > 0) {
+            job.setNumReduceTasks(reducers);
+        }
+    }
+
+    /**
+     * Block-compresses the SequenceFile output of a job whose output is read by a later stage, and compresses its map
+     * output, unless itemcf.compress is false.
+     */
+    public static void compressIntermediate(Job job) {
+        if (!job.getConfiguration().getBoolean(COMPRESS, true)) {
+            return;
+        }
+        SequenceFileOutputFormat.setCompressOutput(job, true);
+        SequenceFileOutputFormat.setOutputCompressorClass(job, codec(job.getConfiguration()));
+        SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        compressMapOutput(job);
+    }
+
+    /**
+     * Compresses the map output of a job, unless itemcf.compress is false. Used alone by the jobs writing the final
+     * text output, which stays uncompressed.
+     */
+    public static void compressMapOutput(Job job) {
+        Configuration conf = job.getConfiguration();
+        if (!conf.getBoolean(COMPRESS, true)) {
+            return;
+        }
+        conf.setBoolean("mapred.compress.map.output", true);
+        conf.setClass("mapred.map.output.compression.codec", codec(conf), CompressionCodec.class);
+    }
+
+    private static Class<? extends CompressionCodec> codec(Configuration conf) {
+        return conf.getClass(CODEC, DefaultCodec.class, CompressionCodec.class);
+    }
+}
@@ -0,0 +1,67 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * StripeWritable holds one stripe of the co-occurrence matrix: the movieB:count cells of one movieA, in two parallel
+ * arrays. The arrays are reused when the instance is read again, so only the first size() entries are valid.
+ */
+public class StripeWritable implements Writable {
+    private int size;
+    private int[] movies = new int[16];
+    private int[] counts = new int[16];
+
+    public void set(Map<Integer, Integer> cells) {
+        size = 0;
+        ensureCapacity(cells.size());
+        for (Map.Entry<Integer, Integer> cell : cells.entrySet()) {
+            movies[size] = cell.getKey();
+            counts[size] = cell.getValue();
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMovie(int i) {
+        return movies[i];
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > movies.length) {
+            int newLength = Math.max(capacity, movies.length * 2);
+            movies = Arrays.copyOf(movies, newLength);
+            counts = Arrays.copyOf(counts, newLength);
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVInt(out, movies[i]);
+            WritableUtils.writeVInt(out, counts[i]);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        size = 0;
+        int length = WritableUtils.readVInt(in);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            movies[i] = WritableUtils.readVInt(in);
+            counts[i] = WritableUtils.readVInt(in);
+        }
+        size = length;
+    }
+}
@@ -0,0 +1,50 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * SumWeightWritable holds a (sum of subratings, sum of relations) pair for one user:movie. Pairs can be added up
+ * before the sum is normalized by the weight into the predicate.
+ */
+public class SumWeightWritable implements Writable {
+    private double sum;
+    private long weight;
+
+    public SumWeightWritable() {
+    }
+
+    public SumWeightWritable(double sum, long weight) {
+        set(sum, weight);
+    }
+
+    public void set(double sum, long weight) {
+        this.sum = sum;
+        this.weight = weight;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeDouble(sum);
+        WritableUtils.writeVLong(out, weight);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        sum = in.readDouble();
+        weight = WritableUtils.readVLong(in);
+    }
+
+    @Override
+    public String toString() {
+        return sum + "," + weight;
+    }
+}
@@ -0,0 +1,131 @@
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * TargetUsers restricts the scoring jobs to a list of users, for the runs that only need the recommendations of a
+ * subset of them (e.g. the users active today). The co-occurrence matrix is still built from the ratings of all the
+ * users; only the scoring is targeted, so its cost grows with the targeted users instead of the whole user base.
+ *
+ * The list, named by -D itemcf.targetUsers=userList, holds one original user ID per line. The Driver runs main as a
+ * stage of its own before the scoring jobs. It streams the users dictionary, looking the dense ID of every listed user
+ * up, and writes two DenseIdSets into the userMovieListOutputDir:
+ *
+ * _target-users.set: the targeted users, read by Multiplication's RatingMapper and by UserScoring, which drop the
+ * other users before anything is shuffled or scored,
+ * _target-movies.set: the movies rated by the targeted users, read from the SeenItemsIndex (not written if there is no
+ * index, as in the incremental mode). Multiplication's CoOccurrenceMapper drops the co-occurrence cells of the other
+ * movieBs, which no targeted rating would be joined with.
+ *
+ * Listed users that are not in the dictionary are skipped. main takes the user list, the dictionaryDir and the
+ * userMovieListOutputDir; a fourth argument is ignored, the Driver passes the modification time and length of the
+ * list in it so that a resumed run redoes the stage when the list has changed.
+ */
+public class TargetUsers {
+    public static final String TARGET_USERS = "itemcf.targetUsers";
+    public static final String USERS_FILE = "_target-users.set";
+    public static final String MOVIES_FILE = "_target-movies.set";
+
+    private static final Log LOG = LogFactory.getLog(TargetUsers.class);
+
+    private TargetUsers() {
+    }
+
+    /**
+     * Returns whether the scoring jobs are targeted, i.e. itemcf.targetUsers is set.
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.get(TARGET_USERS) != null;
+    }
+
+    /**
+     * Memory-maps one of the sets (USERS_FILE or MOVIES_FILE) written into userMovieListDir, or returns null if the
+     * scoring jobs are not targeted.
+     */
+    public static DenseIdSet open(Configuration conf, String userMovieListDir, String fileName) throws IOException {
+        return isEnabled(conf) ? DenseIdSet.open(conf, new Path(userMovieListDir, fileName)) : null;
+    }
+
+    /**
+     * Reads the original user IDs of the list, one per line, skipping blank lines.
+     */
+    static Set<Text> readUserList(Configuration conf, Path userList) throws IOException {
+        Set<Text> users = new HashSet<Text>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                userList.getFileSystem(conf).open(userList), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    users.add(new Text(line));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return users;
+    }
+
+    /**
+     * Returns the dense IDs of the listed users, streaming the users dictionary instead of loading it.
+     */
+    static BitSet encode(Configuration conf, Path dictionaryDir, Set<Text> originalIds) throws IOException {
+        BitSet users = new BitSet();
+        FileSystem fileSystem = dictionaryDir.getFileSystem(conf);
+        Text originalId = new Text();
+        IntWritable denseId = new IntWritable();
+        for (Path part : DictionaryEncoder.dictionaryParts(conf, dictionaryDir, DictionaryEncoder.USERS)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part, conf);
+            while (reader.next(originalId, denseId)) {
+                if (originalIds.contains(originalId)) {
+                    users.set(denseId.get());
+                }
+            }
+            reader.close();
+        }
+        return users;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        Path userMovieListDir = new Path(args[2]);
+
+        Set<Text> listed = readUserList(conf, new Path(args[0]));
+        BitSet users = encode(conf, new Path(args[1]), listed);
+        DenseIdSet.write(conf, users, new Path(userMovieListDir, USERS_FILE));
+        LOG.info("Targeting " + users.cardinality() + " users, " + (listed.size() - users.cardinality())
+                + " listed users are not in the dictionary");
+
+        Path indexPath = new Path(userMovieListDir, SeenItemsIndex.FILE_NAME);
+        if (indexPath.getFileSystem(conf).exists(indexPath)) {
+            SeenItemsIndex index = SeenItemsIndex.open(conf, indexPath);
+            BitSet movies = new BitSet();
+            for (int user = users.nextSetBit(0); user >= 0; user = users.nextSetBit(user + 1)) {
+                index.addMovies(user, movies);
+            }
+            DenseIdSet.write(conf, movies, new Path(userMovieListDir, MOVIES_FILE));
+            LOG.info("The targeted users rated " + movies.cardinality() + " movies");
+        }
+        return true;
+    }
+}
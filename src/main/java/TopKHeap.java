@@ -0,0 +1,108 @@
+/**
+ * TopKHeap keeps the k best (id, score) entries offered to it, in two parallel primitive arrays, so selecting the top k
+ * predicates of a user allocates nothing. It is reset and reused for every user.
+ *
+ * An entry is better than another if its score is higher, or if the scores are equal and its id is lower, so the
+ * selection does not depend on the order the entries are offered in. The heap keeps the worst entry at its root.
+ */
+public class TopKHeap {
+    private final int capacity;
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopKHeap(int capacity) {
+        this.capacity = capacity;
+        this.ids = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public double score(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Offers one entry, which is kept if the heap is not full or if it is better than the worst entry kept.
+     */
+    public void offer(int id, double score) {
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (capacity > 0 && isBetter(id, score, ids[0], scores[0])) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Sorts the entries from the best to the worst, so id(0) and score(0) are the best. The heap must be reset
+     * before entries are offered again.
+     */
+    public void sortDescending() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private static boolean isBetter(int id, double score, int otherId, double otherScore) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private boolean isWorse(int i, int j) {
+        return isBetter(ids[j], scores[j], ids[i], scores[i]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isWorse(i, parent)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < end && isWorse(left, worst)) {
+                worst = left;
+            }
+            if (right < end && isWorse(right, worst)) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
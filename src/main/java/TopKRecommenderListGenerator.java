@@ -1,95 +1,302 @@
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
-import java.util.*;
 
 /**
  * TopKRecommenderListGenerator takes the movie predicate results for users as input, and computes the top k movie
  * predicates for each user.
  *
  * input format: userID \t movie:predicate
- * output format: outputKey: user; outputValue: top k movie predicates
+ * output format: outputKey: user; outputValue: top k movie predicates (movie1:predicate1,movie2:predicate2...)
+ *
+ * The input is the SequenceFile written by OverallRating, the output is text. If a dictionary directory is given,
+ * the dense user and movie IDs are decoded back into the original IDs written by DictionaryEncoder.
+ *
+ * In the incremental mode of the Driver, only the affected users are scored, and merge() combines their new lists with
+ * the top k output of the previous run.
+ *
+ * TopKRecommenderListReducer counts the predicates of every user into the "predicates per user" FanOutHistogram.
  */
 public class TopKRecommenderListGenerator {
 
+    private static final byte[] PREVIOUS_TAG = {'p'};
+    private static final byte[] NEW_TAG = {'n'};
+    private static final byte[] AFFECTED_TAG = {'a'};
+
     /**
      * TopKRecommenderListMapper parses the movie predicates for users into key-value pairs.
      * outputKey: user
      * outputValue: movie:predicate
      */
-    public static class TopKRecommenderListMapper extends Mapper<LongWritable, Text, Text, Text> {
+    public static class TopKRecommenderListMapper
+            extends Mapper<IntWritable, MovieRatingWritable, IntWritable, MovieRatingWritable> {
 
         @Override
-        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+        public void map(IntWritable key, MovieRatingWritable value, Context context)
+                throws IOException, InterruptedException {
             //input format: user \t movie:predicate
-            String[] tokens = value.toString().trim().split("\t");
-            context.write(new Text(tokens[0]), new Text(tokens[1]));
+            context.write(key, value);
         }
     }
 
     /**
      * TopKRecommenderListReducer takes in the k value from the argument (command line) or use the default value of 5.
-     * Each input value (movie1:predicate1) is wrapped into PredicateData object. The reducer uses a PriorityQueue to
-     * compute the top k movie predicates for each user.
+     * The reducer offers every input value (movie1:predicate1) to a TopKHeap, reused for all the users, to compute the
+     * top k movie predicates for each user, and writes them as one record, from the highest predicate to the lowest.
+     *
+     * outputKey: user
+     * outputValue: movie1:predicate1,movie2:predicate2... (top k, descending)
      */
-    public static class TopKRecommenderListReducer extends Reducer<Text, Text, Text, Text> {
+    public static class TopKRecommenderListReducer
+            extends Reducer<IntWritable, MovieRatingWritable, Text, Text> {
+
+        private TopKHeap heap;
+        private String[] users;
+        private String[] movies;
+        private FanOutHistogram predicates;
 
-        private int k;
+        private Text user = new Text();
+        private Text recommenderList = new Text();
+        private StringBuilder builder = new StringBuilder();
 
         @Override
-        public void setup(Context context) {
+        public void setup(Context context) throws IOException {
             Configuration conf = context.getConfiguration();
-            k = conf.getInt("k", 5);
+            heap = new TopKHeap(conf.getInt("k", 5));
+            String dictionary = conf.get("dictionary");
+            if (dictionary != null) {
+                users = DictionaryEncoder.loadReverseDictionary(conf, new Path(dictionary), DictionaryEncoder.USERS);
+                movies = DictionaryEncoder.loadReverseDictionary(conf, new Path(dictionary), DictionaryEncoder.MOVIES);
+            }
+            predicates = new FanOutHistogram(context, "predicates per user");
         }
 
         @Override
-        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+        public void reduce(IntWritable key, Iterable<MovieRatingWritable> values, Context context)
+                throws IOException, InterruptedException {
             //input format: key: userID, values: movie1:predicate1, movie2:predicate2...
-            PriorityQueue<PredicateData> pq = new PriorityQueue<PredicateData>();
+            heap.reset();
+            long size = 0;
+            for (MovieRatingWritable value : values) {
+                heap.offer(value.getMovie(), value.getRating());
+                size++;
+            }
+            predicates.add(size);
 
-            for (Text value : values) {
-                String[] movieAndPredicate = value.toString().trim().split(":");
-                double predicate = Double.parseDouble(movieAndPredicate[1]);
-                pq.offer(new PredicateData(movieAndPredicate[0], predicate));
+            writeRecommenderList(key.get(), heap, users, movies, builder, user, recommenderList, context);
+        }
+    }
+
+    /**
+     * PreviousListMapper takes the top k output of the previous run and tags every list as previous.
+     *
+     * inputKey: user; inputValue: movie1:predicate1,movie2:predicate2...
+     * outputKey: user; outputValue: p + movie1:predicate1,movie2:predicate2...
+     */
+    public static class PreviousListMapper extends Mapper<Text, Text, Text, Text> {
+
+        private Text taggedList = new Text();
 
-                if (pq.size() > k) {
-                    pq.poll();
+        @Override
+        public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
+            context.write(key, tag(PREVIOUS_TAG, value, taggedList));
+        }
+    }
+
+    /**
+     * NewListMapper takes the top k lists of the affected users and tags them as new.
+     *
+     * inputKey: user; inputValue: movie1:predicate1,movie2:predicate2...
+     * outputKey: user; outputValue: n + movie1:predicate1,movie2:predicate2...
+     */
+    public static class NewListMapper extends Mapper<Text, Text, Text, Text> {
+
+        private Text taggedList = new Text();
+
+        @Override
+        public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
+            context.write(key, tag(NEW_TAG, value, taggedList));
+        }
+    }
+
+    /**
+     * AffectedUserMapper takes the dense IDs of the affected users written by UserScoring and decodes them.
+     *
+     * inputKey: dense user ID
+     * outputKey: user; outputValue: a
+     */
+    public static class AffectedUserMapper extends Mapper<IntWritable, NullWritable, Text, Text> {
+
+        private String[] users;
+
+        private Text user = new Text();
+        private Text affected = new Text(AFFECTED_TAG);
+
+        @Override
+        public void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            String dictionary = conf.get("dictionary");
+            if (dictionary != null) {
+                users = DictionaryEncoder.loadReverseDictionary(conf, new Path(dictionary), DictionaryEncoder.USERS);
+            }
+        }
+
+        @Override
+        public void map(IntWritable key, NullWritable value, Context context) throws IOException, InterruptedException {
+            user.set(decode(users, key.get()));
+            context.write(user, affected);
+        }
+    }
+
+    /**
+     * MergeListReducer keeps the new list of an affected user, and the previous list of a user that was not affected.
+     * An affected user without a new list has no predicate any more and is left out, as in a full run.
+     *
+     * outputKey: user
+     * outputValue: movie1:predicate1,movie2:predicate2... (top k, descending)
+     */
+    public static class MergeListReducer extends Reducer<Text, Text, Text, Text> {
+
+        private Text previousList = new Text();
+        private Text newList = new Text();
+
+        @Override
+        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            boolean hasPrevious = false;
+            boolean hasNew = false;
+            boolean affected = false;
+            for (Text value : values) {
+                byte tag = value.getBytes()[0];
+                if (tag == NEW_TAG[0]) {
+                    newList.set(value.getBytes(), 1, value.getLength() - 1);
+                    hasNew = true;
+                } else if (tag == PREVIOUS_TAG[0]) {
+                    previousList.set(value.getBytes(), 1, value.getLength() - 1);
+                    hasPrevious = true;
+                } else {
+                    affected = true;
                 }
             }
+            if (hasNew) {
+                context.write(key, newList);
+            } else if (hasPrevious && !affected) {
+                context.write(key, previousList);
+            }
+        }
+    }
+
+    private static Text tag(byte[] tag, Text value, Text taggedValue) {
+        taggedValue.set(tag);
+        taggedValue.append(value.getBytes(), 0, value.getLength());
+        return taggedValue;
+    }
+
+    /**
+     * Decodes a dense ID with the dictionary, if there is one.
+     */
+    static String decode(String[] dictionary, int id) {
+        return dictionary == null ? String.valueOf(id) : dictionary[id];
+    }
 
-            while (!pq.isEmpty()) {
-                PredicateData predicateData = pq.poll();
-                context.write(key, new Text(predicateData.getMovie() + ":" + predicateData.getPredicate()));
+    /**
+     * Writes the top k predicates kept in the heap as one record: user \t movie1:predicate1,movie2:predicate2...
+     * from the highest predicate to the lowest. Nothing is written for a user without predicates.
+     */
+    static void writeRecommenderList(int userId, TopKHeap heap, String[] users, String[] movies, StringBuilder builder,
+            Text user, Text recommenderList, TaskInputOutputContext<?, ?, Text, Text> context)
+            throws IOException, InterruptedException {
+        if (heap.size() == 0) {
+            return;
+        }
+        heap.sortDescending();
+        builder.setLength(0);
+        for (int i = 0; i < heap.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
             }
+            builder.append(decode(movies, heap.id(i))).append(':').append(heap.score(i));
         }
+        user.set(decode(users, userId));
+        recommenderList.set(builder.toString());
+        context.write(user, recommenderList);
     }
 
     public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
         Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
         conf.set("k", args[2]);
+        if (args.length > 3) {
+            conf.set("dictionary", args[3]);
+        }
 
         Job job = Job.getInstance(conf);
         job.setMapperClass(TopKRecommenderListMapper.class);
         job.setReducerClass(TopKRecommenderListReducer.class);
+        StageConfig.setReducers(job, "topK");
+        StageConfig.compressMapOutput(job);
 
         job.setJarByClass(TopKRecommenderListGenerator.class);
 
-        job.setInputFormatClass(TextInputFormat.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
         job.setOutputFormatClass(TextOutputFormat.class);
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(MovieRatingWritable.class);
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(Text.class);
 
-        TextInputFormat.addInputPath(job, new Path(args[0]));
+        SequenceFileInputFormat.addInputPath(job, new Path(args[0]));
         TextOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.waitForCompletion(true);
+        return RunReport.waitForCompletion(job);
+    }
+
+    /**
+     * Runs the incremental mode: merges the top k lists of the affected users into the top k output of the previous
+     * run. It takes four or five arguments: the previous top k directory, the top k directory of the affected users,
+     * the directory of the affected users written by UserScoring, the output directory and the dictionary directory.
+     */
+    public static boolean merge(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length > 4) {
+            conf.set("dictionary", args[4]);
+        }
+
+        Job job = Job.getInstance(conf);
+        job.setReducerClass(MergeListReducer.class);
+        StageConfig.setReducers(job, "topK");
+        StageConfig.compressMapOutput(job);
+
+        job.setJarByClass(TopKRecommenderListGenerator.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        MultipleInputs.addInputPath(job, new Path(args[0]), KeyValueTextInputFormat.class, PreviousListMapper.class);
+        MultipleInputs.addInputPath(job, new Path(args[1]), KeyValueTextInputFormat.class, NewListMapper.class);
+        MultipleInputs.addInputPath(job, new Path(args[2]), SequenceFileInputFormat.class, AffectedUserMapper.class);
+        TextOutputFormat.setOutputPath(job, new Path(args[3]));
+
+        return RunReport.waitForCompletion(job);
     }
 }
@@ -0,0 +1,108 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * UserHistorySampler caps the movies of one user that the co-occurrence mappers pair up, and weights the user's
+ * co-occurrences by the length of their history. A user with n ratings generates n^2 cells, so a few power users or
+ * bots would otherwise dominate the shuffle and make straggler map tasks.
+ *
+ * Users with more than coOccurrence.maxUserRatings ratings are sampled down to that many movies, by deterministic
+ * reservoir sampling: every movie gets the priority hash(user, movie) and the movies with the highest priorities are
+ * kept, so the sample does not depend on the order of the ratings and is the same in every run. The CAPPED_USERS and
+ * PAIRS_SAVED counters report how many users were capped and how many cells they did not generate.
+ *
+ * With coOccurrence.userWeighting=iuf, every co-occurrence of a user with n ratings (after sampling) counts
+ * round(IUF_SCALE / log2(n + 1)) instead of 1 (inverse user frequency), so the relations are fixed-point weights that
+ * favour the evidence of users with short histories.
+ *
+ * coOccurrence.maxUserRatings: the maximum number of movies paired per user (default 0: no cap)
+ * coOccurrence.userWeighting: "none" (default) or "iuf"
+ */
+public class UserHistorySampler {
+    public static final String MAX_USER_RATINGS = "coOccurrence.maxUserRatings";
+    public static final String USER_WEIGHTING = "coOccurrence.userWeighting";
+    public static final String IUF = "iuf";
+    public static final int IUF_SCALE = 1000;
+
+    public enum Sampling {
+        CAPPED_USERS, PAIRS_SAVED
+    }
+
+    private final int maxRatings;
+    private final boolean iuf;
+    private final boolean upperTriangle;
+    private final TopKHeap sample;
+    private final org.apache.hadoop.mapreduce.Counter cappedUsers;
+    private final org.apache.hadoop.mapreduce.Counter pairsSaved;
+
+    private int[] movies = new int[16];
+    private int size;
+
+    public UserHistorySampler(TaskInputOutputContext<?, ?, ?, ?> context) {
+        Configuration conf = context.getConfiguration();
+        maxRatings = conf.getInt(MAX_USER_RATINGS, 0);
+        iuf = IUF.equals(conf.get(USER_WEIGHTING, "none"));
+        upperTriangle = conf.getBoolean(CoOccurrenceMatrixGenerator.UPPER_TRIANGLE, false);
+        sample = maxRatings > 0 ? new TopKHeap(maxRatings) : null;
+        cappedUsers = context.getCounter(Sampling.CAPPED_USERS);
+        pairsSaved = context.getCounter(Sampling.PAIRS_SAVED);
+    }
+
+    /**
+     * Selects the movies of the user to pair up; they are then read with size() and movie(i).
+     */
+    public void sample(int user, MovieRatingListWritable ratings) {
+        int n = ratings.size();
+        if (sample == null || n <= maxRatings) {
+            if (n > movies.length) {
+                movies = new int[Math.max(n, movies.length * 2)];
+            }
+            for (int i = 0; i < n; i++) {
+                movies[i] = ratings.getMovie(i);
+            }
+            size = n;
+            return;
+        }
+
+        sample.reset();
+        for (int i = 0; i < n; i++) {
+            int movie = ratings.getMovie(i);
+            // 53 bits, so the priority is an exact double
+            sample.offer(movie, MinHashCoOccurrence.mix(((long) user << 32) ^ movie) >>> 11);
+        }
+        if (maxRatings > movies.length) {
+            movies = new int[maxRatings];
+        }
+        for (int i = 0; i < sample.size(); i++) {
+            movies[i] = sample.id(i);
+        }
+        size = sample.size();
+        cappedUsers.increment(1);
+        pairsSaved.increment(pairs(n) - pairs(size));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int movie(int i) {
+        return movies[i];
+    }
+
+    /**
+     * Returns what every co-occurrence of the sampled movies counts.
+     */
+    public int weight() {
+        if (!iuf) {
+            return 1;
+        }
+        if (size <= 1) {
+            return IUF_SCALE;
+        }
+        return (int) Math.max(1, Math.round(IUF_SCALE * Math.log(2) / Math.log(size + 1)));
+    }
+
+    private long pairs(long n) {
+        return upperTriangle ? n * (n + 1) / 2 : n * n;
+    }
+}
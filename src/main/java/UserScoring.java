@@ -0,0 +1,221 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * UserScoring computes the movie predicates of every user in a single map-only job, replacing the Multiplication and
+ * OverallRating jobs. Instead of shuffling one record per (user, unseen movie, co-rated movie), every mapper
+ * memory-maps the CoOccurrenceMatrixFile and accumulates the weighted sums of one user in primitive arrays:
+ *
+ * for every movieB rated by the user, for every movieA:movieB relation in the row of movieB, if the user has not rated
+ * movieA: sum[movieA] += relation * rating, weight[movieA] += relation
+ * predicate of movieA = sum[movieA] / weight[movieA]
+ *
+ * input: the DataDividerByUser output, user \t movie1:rating1,movie2:rating2...
+ * output format: user \t movie:predicate, the same SequenceFile as the OverallRating output
+ *
+ * The predicates are those of OverallRating up to floating-point summation order: the sums are accumulated row by row
+ * here and in shuffle order there, so a predicate can differ in its last bit and, rarely, round to the other side of a
+ * three-decimal boundary.
+ *
+ * It takes three arguments: the DataDividerByUser output directory, the co-occurrence matrix directory (the matrix file
+ * is written into it before the job starts) and the output directory.
+ *
+ * In the incremental mode of the Driver, a fourth argument names the directory holding the changed users and touched
+ * movies sets written by DataDividerByUser.merge. Only the affected users are then scored: the users with new ratings
+ * and the users who rated a touched movie, whose co-occurrence row has changed. The affected users are also written
+ * into the _affected/users directory of the output, (IntWritable user, NullWritable), so that the users left without any
+ * predicate can be told apart from the users that were not scored.
+ *
+ * If the scoring is targeted (see TargetUsers), the users that are not targeted are neither scored nor counted as
+ * affected, so the incremental merge keeps their previous top k lists.
+ *
+ * The predicates not above the threshold are counted by OverallRating's BELOW_THRESHOLD counter, and the history
+ * length of every scored user into the "user history length" FanOutHistogram.
+ */
+public class UserScoring {
+
+    public static final String AFFECTED = "affected";
+    public static final String AFFECTED_DIR = "_affected/users";
+
+    /**
+     * UserScoringMapper scores one user per input record.
+     *
+     * inputKey: user
+     * inputValue: movie1:rating1,movie2:rating2...
+     * outputKey: user
+     * outputValue: movie:predicate
+     */
+    public static class UserScoringMapper
+            extends Mapper<IntWritable, MovieRatingListWritable, IntWritable, MovieRatingWritable> {
+
+        double threshold = OverallRating.DEFAULT_THRESHOLD;
+
+        private CoOccurrenceMatrixFile matrix;
+        private DenseIdSet changedUsers;
+        private DenseIdSet touchedMovies;
+        private DenseIdSet targetUsers;
+        private MultipleOutputs<IntWritable, MovieRatingWritable> multipleOutputs;
+        private FanOutHistogram historyLength;
+        private org.apache.hadoop.mapreduce.Counter belowThreshold;
+        private double[] sums;
+        private long[] weights;
+        private boolean[] seen;
+        private int[] touched;
+
+        private MovieRatingWritable moviePredicate = new MovieRatingWritable();
+
+        @Override
+        public void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            matrix = CoOccurrenceMatrixFile.open(conf, new Path(conf.get("matrix"), CoOccurrenceMatrixFile.FILE_NAME));
+            sums = new double[matrix.numMovies()];
+            weights = new long[matrix.numMovies()];
+            seen = new boolean[matrix.numMovies()];
+            touched = new int[matrix.numMovies()];
+            historyLength = new FanOutHistogram(context, "user history length");
+            belowThreshold = context.getCounter(OverallRating.Predicates.BELOW_THRESHOLD);
+            targetUsers = TargetUsers.open(conf, conf.get("path"), TargetUsers.USERS_FILE);
+            if (conf.get(AFFECTED) != null) {
+                Path sets = new Path(conf.get(AFFECTED));
+                changedUsers = DenseIdSet.open(conf, new Path(sets, DataDividerByUser.CHANGED_USERS_FILE));
+                touchedMovies = DenseIdSet.open(conf, new Path(sets, DataDividerByUser.TOUCHED_MOVIES_FILE));
+                multipleOutputs = new MultipleOutputs<IntWritable, MovieRatingWritable>(context);
+            }
+        }
+
+        private boolean isAffected(int user, MovieRatingListWritable movies) {
+            if (changedUsers.contains(user)) {
+                return true;
+            }
+            for (int i = 0; i < movies.size(); i++) {
+                if (touchedMovies.contains(movies.getMovie(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void map(IntWritable key, MovieRatingListWritable value, Context context)
+                throws IOException, InterruptedException {
+            if (targetUsers != null && !targetUsers.contains(key.get())) {
+                return;
+            }
+            if (multipleOutputs != null) {
+                if (!isAffected(key.get(), value)) {
+                    return;
+                }
+                multipleOutputs.write(AFFECTED, key, NullWritable.get(), AFFECTED_DIR + "/part");
+            }
+            historyLength.add(value.size());
+
+            for (int i = 0; i < value.size(); i++) {
+                if (value.getMovie(i) < seen.length) {
+                    seen[value.getMovie(i)] = true;
+                }
+            }
+
+            int numTouched = 0;
+            for (int i = 0; i < value.size(); i++) {
+                int movieB = value.getMovie(i);
+                double rating = value.getRating(i);
+                for (int cell = matrix.rowStart(movieB); cell < matrix.rowEnd(movieB); cell++) {
+                    int movieA = matrix.movie(cell);
+                    if (seen[movieA]) {
+                        continue;
+                    }
+                    int relation = matrix.relation(cell);
+                    if (weights[movieA] == 0) {
+                        touched[numTouched++] = movieA;
+                    }
+                    sums[movieA] += relation * rating;
+                    weights[movieA] += relation;
+                }
+            }
+
+            //write the predicates in movie order, as OverallRating does
+            Arrays.sort(touched, 0, numTouched);
+            long dropped = 0;
+            for (int i = 0; i < numTouched; i++) {
+                int movieA = touched[i];
+                double predicate = OverallRating.roundPredicate(sums[movieA] / weights[movieA]);
+                if (predicate > threshold) {
+                    moviePredicate.set(movieA, predicate);
+                    context.write(key, moviePredicate);
+                } else {
+                    dropped++;
+                }
+                sums[movieA] = 0;
+                weights[movieA] = 0;
+            }
+            belowThreshold.increment(dropped);
+            for (int i = 0; i < value.size(); i++) {
+                if (value.getMovie(i) < seen.length) {
+                    seen[value.getMovie(i)] = false;
+                }
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (multipleOutputs != null) {
+                multipleOutputs.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(run(args) ? 0 : 1);
+    }
+
+    public static boolean run(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        conf.set("path", args[0]);
+        conf.set("matrix", args[1]);
+        if (args.length > 3) {
+            conf.set(AFFECTED, args[3]);
+        }
+
+        CoOccurrenceMatrixFile.write(conf, new Path(args[1]), new Path(args[1], CoOccurrenceMatrixFile.FILE_NAME));
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(UserScoringMapper.class);
+        job.setNumReduceTasks(0);
+        StageConfig.compressIntermediate(job);
+
+        job.setJarByClass(UserScoring.class);
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(MovieRatingWritable.class);
+        MultipleOutputs.addNamedOutput(job, AFFECTED, SequenceFileOutputFormat.class,
+                IntWritable.class, NullWritable.class);
+
+        SequenceFileInputFormat.setInputPaths(job, new Path(args[0]));
+        SequenceFileOutputFormat.setOutputPath(job, new Path(args[2]));
+
+        if (!RunReport.waitForCompletion(job)) {
+            return false;
+        }
+        if (args.length > 3) {
+            //the affected users are an input of the top k merge, even if there is none
+            Path affectedDir = new Path(args[2], AFFECTED_DIR);
+            affectedDir.getFileSystem(conf).mkdirs(affectedDir);
+        }
+        return true;
+    }
+}
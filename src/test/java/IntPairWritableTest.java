@@ -0,0 +1,79 @@
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntPairWritableTest {
+    private static final int[] EDGE_VALUES = {
+            0, 1, -1, 127, 128, -112, -113, 255, 256, 65535, 65536, Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    static byte[] serialize(IntPairWritable pair) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        pair.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    static int signum(int cmp) {
+        return Integer.signum(cmp);
+    }
+
+    private static int randomInt(Random random) {
+        return random.nextBoolean() ? EDGE_VALUES[random.nextInt(EDGE_VALUES.length)] : random.nextInt();
+    }
+
+    @Test
+    public void rawComparatorAgreesWithCompareTo() throws IOException {
+        Random random = new Random(42);
+        IntPairWritable.Comparator comparator = new IntPairWritable.Comparator();
+        for (int i = 0; i < 10000; i++) {
+            IntPairWritable a = new IntPairWritable(randomInt(random), randomInt(random));
+            IntPairWritable b = random.nextInt(4) == 0
+                    ? new IntPairWritable(a.getFirst(), randomInt(random))
+                    : new IntPairWritable(randomInt(random), randomInt(random));
+            byte[] bytesA = serialize(a);
+            byte[] bytesB = serialize(b);
+            assertEquals(a + " vs " + b, signum(a.compareTo(b)),
+                    signum(comparator.compare(bytesA, 0, bytesA.length, bytesB, 0, bytesB.length)));
+        }
+    }
+
+    @Test
+    public void rawComparatorReadsAtAnOffset() throws IOException {
+        IntPairWritable.Comparator comparator = new IntPairWritable.Comparator();
+        byte[] a = serialize(new IntPairWritable(300, 7));
+        byte[] b = serialize(new IntPairWritable(300, 8));
+        byte[] shifted = new byte[b.length + 3];
+        System.arraycopy(b, 0, shifted, 3, b.length);
+        assertEquals(-1, signum(comparator.compare(a, 0, a.length, shifted, 3, b.length)));
+    }
+
+    @Test
+    public void firstComparatorGroupsByFirstOnly() throws IOException {
+        Random random = new Random(7);
+        IntPairWritable.FirstComparator comparator = new IntPairWritable.FirstComparator();
+        for (int i = 0; i < 1000; i++) {
+            IntPairWritable a = new IntPairWritable(randomInt(random), randomInt(random));
+            IntPairWritable b = new IntPairWritable(random.nextBoolean() ? a.getFirst() : randomInt(random),
+                    randomInt(random));
+            byte[] bytesA = serialize(a);
+            byte[] bytesB = serialize(b);
+            assertEquals(signum(Integer.compare(a.getFirst(), b.getFirst())),
+                    signum(comparator.compare(bytesA, 0, bytesA.length, bytesB, 0, bytesB.length)));
+        }
+    }
+
+    @Test
+    public void firstPartitionerSendsAFirstToOnePartition() {
+        IntPairWritable.FirstPartitioner<Object> partitioner = new IntPairWritable.FirstPartitioner<Object>();
+        for (int first : EDGE_VALUES) {
+            int partition = partitioner.getPartition(new IntPairWritable(first, 0), null, 7);
+            for (int second : EDGE_VALUES) {
+                assertEquals(partition, partitioner.getPartition(new IntPairWritable(first, second), null, 7));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JoinKeyWritableTest {
+
+    private static JoinKeyWritable key(int movie, int salt, byte side) {
+        JoinKeyWritable key = new JoinKeyWritable();
+        key.set(movie, salt);
+        key.setSide(side);
+        return key;
+    }
+
+    private static JoinKeyWritable randomKey(Random random) {
+        int movie = random.nextBoolean() ? random.nextInt(5) : random.nextInt();
+        return key(movie, random.nextInt(3), random.nextBoolean() ? JoinKeyWritable.BUFFERED : JoinKeyWritable.STREAMED);
+    }
+
+    private static int compareRaw(Comparator<byte[]> comparator, JoinKeyWritable a, JoinKeyWritable b) {
+        return Integer.signum(comparator.compare(serialized(a), serialized(b)));
+    }
+
+    private static byte[] serialized(JoinKeyWritable key) {
+        try {
+            return IntPairWritableTest.serialize(key);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Comparator<byte[]> raw(final org.apache.hadoop.io.WritableComparator comparator) {
+        return new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return comparator.compare(a, 0, a.length, b, 0, b.length);
+            }
+        };
+    }
+
+    @Test
+    public void rawComparatorAgreesWithCompareTo() {
+        Random random = new Random(42);
+        Comparator<byte[]> comparator = raw(new JoinKeyWritable.Comparator());
+        for (int i = 0; i < 10000; i++) {
+            JoinKeyWritable a = randomKey(random);
+            JoinKeyWritable b = randomKey(random);
+            assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)), compareRaw(comparator, a, b));
+        }
+    }
+
+    @Test
+    public void groupingComparatorIgnoresTheSide() {
+        Random random = new Random(7);
+        Comparator<byte[]> grouping = raw(new JoinKeyWritable.GroupingComparator());
+        for (int i = 0; i < 1000; i++) {
+            JoinKeyWritable a = randomKey(random);
+            JoinKeyWritable b = randomKey(random);
+            int expected = Integer.signum(new IntPairWritable(a.getFirst(), a.getSecond())
+                    .compareTo(new IntPairWritable(b.getFirst(), b.getSecond())));
+            assertEquals(expected, compareRaw(grouping, a, b));
+        }
+        assertEquals(0, compareRaw(grouping, key(3, 1, JoinKeyWritable.BUFFERED), key(3, 1, JoinKeyWritable.STREAMED)));
+    }
+
+    @Test
+    public void bufferedSideComesFirstInEveryGroup() {
+        Random random = new Random(3);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(serialized(key(random.nextInt(4), random.nextInt(2),
+                    random.nextBoolean() ? JoinKeyWritable.BUFFERED : JoinKeyWritable.STREAMED)));
+        }
+        Collections.sort(keys, raw(new JoinKeyWritable.Comparator()));
+
+        // walk the groups as the reducer sees them: no buffered key may follow a streamed key of the same group
+        Comparator<byte[]> grouping = raw(new JoinKeyWritable.GroupingComparator());
+        boolean streamed = false;
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0 && grouping.compare(keys.get(i - 1), keys.get(i)) != 0) {
+                assertTrue(grouping.compare(keys.get(i - 1), keys.get(i)) < 0);
+                streamed = false;
+            }
+            byte side = keys.get(i)[keys.get(i).length - 1];
+            if (side == JoinKeyWritable.STREAMED) {
+                streamed = true;
+            } else {
+                assertTrue("buffered key after a streamed key of its group", !streamed);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModelFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration conf = TestFiles.localConf();
+    private Path modelPath;
+
+    @Before
+    public void writeModel() throws IOException {
+        Path root = new Path(folder.getRoot().getAbsolutePath());
+        Path userMovieListDir = new Path(root, "users");
+        Path matrixDir = new Path(root, "matrix");
+        Path dictionaryDir = new Path(root, "dictionary");
+        TestFiles.writeUserLists(conf, new Path(userMovieListDir, "part-r-00000"),
+                new int[] {1, 0}, new double[][] {{2, 1.5, 0, 4}, {1, 3, 0, 5, 2, 2.5}});
+        TestFiles.writeMatrix(conf, new Path(matrixDir, "part-r-00000"), new int[][] {
+                {2, 0, 1}, {0, 0, 2}, {1, 0, 1}, {0, 1, 1}, {1, 1, 1}, {0, 2, 1}, {2, 2, 2}});
+        TestFiles.writeDictionary(conf, dictionaryDir, DictionaryEncoder.USERS, new String[] {"bob", "alice"});
+        TestFiles.writeDictionary(conf, dictionaryDir, DictionaryEncoder.MOVIES,
+                new String[] {"m30", "m4", "\u00e9t\u00e9"});
+        modelPath = new Path(root, ModelFile.FILE_NAME);
+        ModelFile.write(conf, userMovieListDir, matrixDir, dictionaryDir, modelPath);
+    }
+
+    private static void assertModel(ModelFile model) {
+        CoOccurrenceMatrixFile matrix = model.matrix();
+        assertEquals(3, matrix.numMovies());
+        // row movieB = 0 holds movieA 0, 1, 2 in order
+        int[][] rows = {{0, 2, 1, 1, 2, 1}, {0, 1, 1, 1}, {0, 1, 2, 2}};
+        for (int movieB = 0; movieB < rows.length; movieB++) {
+            assertEquals(rows[movieB].length / 2, matrix.rowEnd(movieB) - matrix.rowStart(movieB));
+            for (int i = 0; i < rows[movieB].length / 2; i++) {
+                int cell = matrix.rowStart(movieB) + i;
+                assertEquals(rows[movieB][2 * i], matrix.movie(cell));
+                assertEquals(rows[movieB][2 * i + 1], matrix.relation(cell));
+            }
+        }
+
+        assertEquals(2, model.numUsers());
+        double[][] ratings = {{0, 5, 1, 3, 2, 2.5}, {0, 4, 2, 1.5}};
+        for (int user = 0; user < ratings.length; user++) {
+            assertEquals(ratings[user].length / 2, model.ratingsEnd(user) - model.ratingsStart(user));
+            for (int i = 0; i < ratings[user].length / 2; i++) {
+                int rating = model.ratingsStart(user) + i;
+                assertEquals((int) ratings[user][2 * i], model.movie(rating));
+                assertEquals(ratings[user][2 * i + 1], model.rating(rating), 0);
+            }
+        }
+
+        assertEquals(0, model.userId("bob"));
+        assertEquals(1, model.userId("alice"));
+        assertEquals(-1, model.userId("carol"));
+        assertEquals(2, model.movieId("\u00e9t\u00e9"));
+        assertEquals(1, model.movieId("m4"));
+        assertEquals(-1, model.movieId("m3"));
+        assertEquals("alice", model.userName(1));
+        assertEquals("m30", model.movieName(0));
+        assertNull(model.movieName(3));
+    }
+
+    @Test
+    public void roundTripsThroughHadoop() throws IOException {
+        assertModel(ModelFile.open(conf, modelPath));
+    }
+
+    @Test
+    public void roundTripsFromALocalFile() throws IOException {
+        assertModel(ModelFile.open(new File(modelPath.toUri().getPath())));
+    }
+}
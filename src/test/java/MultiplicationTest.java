@@ -0,0 +1,153 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the Multiplication job in local mode over a small data set whose popular movie exceeds the buffer of the
+ * secondary-sort join on both sides, so StreamingMultiplicationReducer spills and joins in blocks, and checks its
+ * output against the default reducer and against the products computed here.
+ */
+public class MultiplicationTest {
+    private static final int[] USERS = {0, 1, 2, 3, 4, 5};
+    private static final double[][] RATINGS = {
+            {0, 5, 1, 3, 2, 4},
+            {0, 4, 3, 2.5},
+            {0, 1, 1, 4.5, 4, 2},
+            {0, 3.5, 2, 5},
+            {0, 2, 3, 4, 4, 1},
+            {0, 4.5}};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration conf = TestFiles.localConf();
+    private Path root;
+    private Path userMovieListDir;
+    private Path ratingsDir;
+    private Path matrixDir;
+
+    private String[] args(String... args) {
+        String[] generic = {"-D", "fs.default.name=file:///", "-D", "mapred.job.tracker=local",
+                "-D", Multiplication.SECONDARY_SORT + "=true", "-D", Multiplication.MAX_BUFFERED + "=2"};
+        String[] all = new String[generic.length + args.length];
+        System.arraycopy(generic, 0, all, 0, generic.length);
+        System.arraycopy(args, 0, all, generic.length, args.length);
+        return all;
+    }
+
+    @Before
+    public void writeInputs() throws Exception {
+        root = new Path(folder.getRoot().getAbsolutePath());
+        userMovieListDir = new Path(root, "users");
+        ratingsDir = new Path(root, "ratings");
+        matrixDir = new Path(root, "matrix");
+        TestFiles.writeUserLists(conf, new Path(userMovieListDir, "part-r-00000"), USERS, RATINGS);
+        TestFiles.writeRatings(conf, new Path(ratingsDir, "part-m-00000"), USERS, RATINGS);
+        SeenItemsIndex.write(conf, userMovieListDir, new Path(userMovieListDir, SeenItemsIndex.FILE_NAME));
+        assertTrue(CoOccurrenceMatrixGenerator.run(args(userMovieListDir.toString(), matrixDir.toString())));
+    }
+
+    /**
+     * Sums the (subrating, relation) records of every user:movieA in the output directory.
+     */
+    private Map<String, double[]> readOutput(Path outputDir) throws IOException {
+        FileSystem fileSystem = outputDir.getFileSystem(conf);
+        Map<String, double[]> sums = new TreeMap<String, double[]>();
+        IntPairWritable userMovie = new IntPairWritable();
+        SumWeightWritable sumWeight = new SumWeightWritable();
+        for (FileStatus part : fileSystem.globStatus(new Path(outputDir, "part-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, part.getPath(), conf);
+            while (reader.next(userMovie, sumWeight)) {
+                double[] sum = sums.get(userMovie.toString());
+                if (sum == null) {
+                    sum = new double[2];
+                    sums.put(userMovie.toString(), sum);
+                }
+                sum[0] += sumWeight.getSum();
+                sum[1] += sumWeight.getWeight();
+            }
+            reader.close();
+        }
+        return sums;
+    }
+
+    /**
+     * Joins the ratings with the co-occurrence counts directly: for every rating of movieB and every movieA the user
+     * has not rated, relation(movieA, movieB) * rating.
+     */
+    private static Map<String, double[]> expected() {
+        int numMovies = 5;
+        int[][] relations = new int[numMovies][numMovies];
+        boolean[][] seen = new boolean[USERS.length][numMovies];
+        for (int u = 0; u < USERS.length; u++) {
+            for (int i = 0; i < RATINGS[u].length; i += 2) {
+                seen[u][(int) RATINGS[u][i]] = true;
+                for (int j = 0; j < RATINGS[u].length; j += 2) {
+                    relations[(int) RATINGS[u][i]][(int) RATINGS[u][j]]++;
+                }
+            }
+        }
+        Map<String, double[]> sums = new TreeMap<String, double[]>();
+        for (int u = 0; u < USERS.length; u++) {
+            for (int i = 0; i < RATINGS[u].length; i += 2) {
+                int movieB = (int) RATINGS[u][i];
+                for (int movieA = 0; movieA < numMovies; movieA++) {
+                    int relation = relations[movieA][movieB];
+                    if (relation == 0 || seen[u][movieA]) {
+                        continue;
+                    }
+                    String key = USERS[u] + ":" + movieA;
+                    double[] sum = sums.get(key);
+                    if (sum == null) {
+                        sum = new double[2];
+                        sums.put(key, sum);
+                    }
+                    sum[0] += relation * RATINGS[u][i + 1];
+                    sum[1] += relation;
+                }
+            }
+        }
+        return sums;
+    }
+
+    private static void assertSums(Map<String, double[]> expected, Map<String, double[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, double[]> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue()[0], actual.get(entry.getKey())[0], 1e-9);
+            assertEquals(entry.getKey(), entry.getValue()[1], actual.get(entry.getKey())[1], 0);
+        }
+    }
+
+    @Test
+    public void spilledJoinMatchesTheProducts() throws Exception {
+        Path output = new Path(root, "streaming");
+        assertTrue(Multiplication.run(args(matrixDir.toString(), ratingsDir.toString(), output.toString(),
+                userMovieListDir.toString())));
+        assertSums(expected(), readOutput(output));
+    }
+
+    @Test
+    public void spilledJoinMatchesTheDefaultReducer() throws Exception {
+        Path streaming = new Path(root, "streaming");
+        Path grouped = new Path(root, "grouped");
+        assertTrue(Multiplication.run(args(matrixDir.toString(), ratingsDir.toString(), streaming.toString(),
+                userMovieListDir.toString())));
+        assertTrue(Multiplication.run(new String[] {"-D", "fs.default.name=file:///",
+                "-D", "mapred.job.tracker=local", matrixDir.toString(), ratingsDir.toString(), grouped.toString(),
+                userMovieListDir.toString()}));
+        assertSums(readOutput(grouped), readOutput(streaming));
+    }
+}
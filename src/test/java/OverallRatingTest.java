@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class OverallRatingTest {
+    private final DecimalFormat format = new DecimalFormat("#.000", DecimalFormatSymbols.getInstance(Locale.ROOT));
+
+    private void assertRoundsLikeDecimalFormat(double predicate) {
+        double expected = Double.parseDouble(format.format(predicate));
+        assertEquals(String.valueOf(predicate), Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(OverallRating.roundPredicate(predicate)));
+    }
+
+    @Test
+    public void roundsToThreeDecimals() {
+        assertEquals(3.818, OverallRating.roundPredicate(3.8181818), 0);
+        assertEquals(4.0, OverallRating.roundPredicate(3.9999), 0);
+        assertEquals(0.001, OverallRating.roundPredicate(0.0014), 0);
+    }
+
+    @Test
+    public void roundsTiesHalfEvenOnTheExactValue() {
+        // 0.0625 and 2.0625 are exact doubles: ties, rounded to the even digit
+        assertEquals(0.062, OverallRating.roundPredicate(0.0625), 0);
+        assertEquals(2.062, OverallRating.roundPredicate(2.0625), 0);
+        assertEquals(2.188, OverallRating.roundPredicate(2.1875), 0);
+        // 1.0005 is slightly below the tie as a double
+        assertRoundsLikeDecimalFormat(1.0005);
+    }
+
+    @Test
+    public void matchesDecimalFormatOnPredicates() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // predicates are weighted means of ratings: sum(relation * rating) / sum(relation)
+            long weight = 1 + random.nextInt(5000);
+            double sum = 0;
+            for (long w = 0; w < weight; w += 1 + random.nextInt(50)) {
+                sum += (1 + random.nextInt(10)) * 0.5;
+            }
+            assertRoundsLikeDecimalFormat(sum / weight);
+        }
+    }
+
+    @Test
+    public void roundsValuesNearTiesOnTheExactValue() {
+        // DecimalFormat itself misrounds 0.0005 (just above the tie as a double) to 0, so compare with BigDecimal
+        for (int i = 0; i < 10000; i++) {
+            for (double predicate : new double[] {(2 * i + 1) / 2000.0, (2 * i + 1) / 16.0 / 1000}) {
+                double expected = new BigDecimal(predicate).setScale(3, RoundingMode.HALF_EVEN).doubleValue();
+                assertEquals(String.valueOf(predicate), Double.doubleToLongBits(expected),
+                        Double.doubleToLongBits(OverallRating.roundPredicate(predicate)));
+            }
+        }
+    }
+}
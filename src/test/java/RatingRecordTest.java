@@ -0,0 +1,92 @@
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RatingRecordTest {
+    private final RatingRecord record = new RatingRecord();
+
+    private boolean parse(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return record.parse(bytes, bytes.length);
+    }
+
+    private String user() {
+        Text user = new Text();
+        record.getUser(user);
+        return user.toString();
+    }
+
+    private String movie() {
+        Text movie = new Text();
+        record.getMovie(movie);
+        return movie.toString();
+    }
+
+    @Test
+    public void parsesUserMovieRating() {
+        assertTrue(parse("12,345,4.5"));
+        assertEquals("12", user());
+        assertEquals("345", movie());
+        assertEquals(4.5, record.getRating(), 0);
+    }
+
+    @Test
+    public void ignoresSurroundingWhitespaceAndTrailingFields() {
+        assertTrue(parse("  u1,m2,3\r\n"));
+        assertEquals("u1", user());
+        assertEquals("m2", movie());
+        assertEquals(3.0, record.getRating(), 0);
+
+        assertTrue(parse("u1,m2,3.5,978300760"));
+        assertEquals(3.5, record.getRating(), 0);
+    }
+
+    @Test
+    public void parsesOnlyTheGivenLength() {
+        byte[] bytes = "u1,m2,4|garbage".getBytes(StandardCharsets.UTF_8);
+        assertTrue(record.parse(bytes, 7));
+        assertEquals(4.0, record.getRating(), 0);
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        assertFalse(parse(""));
+        assertFalse(parse("u1"));
+        assertFalse(parse("u1,m2"));
+        assertFalse(parse(",m2,3"));
+        assertFalse(parse("u1,,3"));
+        assertFalse(parse("u1,m2,"));
+        assertFalse(parse("u1,m2,abc"));
+        assertFalse(parse("u1,m2,."));
+        assertFalse(parse("u1,m2,4.5.1"));
+    }
+
+    @Test
+    public void fallsBackToParseDoubleForOtherNumbers() {
+        assertTrue(parse("u1,m2,1e1"));
+        assertEquals(10.0, record.getRating(), 0);
+        assertTrue(parse("u1,m2,-2.5"));
+        assertEquals(-2.5, record.getRating(), 0);
+        assertTrue(parse("u1,m2,+3"));
+        assertEquals(3.0, record.getRating(), 0);
+        assertTrue(parse("u1,m2,0.12345678901234567890123"));
+        assertEquals(Double.parseDouble("0.12345678901234567890123"), record.getRating(), 0);
+    }
+
+    @Test
+    public void decimalsMatchParseDouble() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String rating = random.nextInt(1000) + "." + random.nextInt(100000000);
+            assertTrue(parse("u,m," + rating));
+            assertEquals(rating, Double.doubleToLongBits(Double.parseDouble(rating)),
+                    Double.doubleToLongBits(record.getRating()));
+        }
+    }
+}
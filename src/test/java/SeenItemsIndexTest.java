@@ -0,0 +1,70 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SeenItemsIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration conf = TestFiles.localConf();
+
+    @Test
+    public void roundTripsTheMoviesOfEveryUser() throws IOException {
+        Path dir = new Path(folder.getRoot().getAbsolutePath());
+        // two parts, users out of order, user 2 has no ratings, movies unsorted
+        TestFiles.writeUserLists(conf, new Path(dir, "part-r-00000"),
+                new int[] {3, 0}, new double[][] {{5, 1, 1, 2, 4, 3}, {2, 4.5}});
+        TestFiles.writeUserLists(conf, new Path(dir, "part-r-00001"),
+                new int[] {1}, new double[][] {{4, 3, 2, 3}});
+        Path indexPath = new Path(dir, SeenItemsIndex.FILE_NAME);
+        SeenItemsIndex.write(conf, dir, indexPath);
+
+        SeenItemsIndex index = SeenItemsIndex.open(conf, indexPath);
+        assertEquals(4, index.numUsers());
+        assertEquals(6, index.numMovies());
+        int[][] seen = {{2}, {2, 4}, {}, {1, 4, 5}};
+        for (int user = 0; user < seen.length; user++) {
+            BitSet expected = new BitSet();
+            for (int movie : seen[user]) {
+                expected.set(movie);
+            }
+            for (int movie = -1; movie <= 7; movie++) {
+                assertEquals(user + ":" + movie, movie >= 0 && expected.get(movie), index.contains(user, movie));
+            }
+            BitSet movies = new BitSet();
+            index.addMovies(user, movies);
+            assertEquals(expected, movies);
+        }
+        assertFalse(index.contains(-1, 2));
+        assertFalse(index.contains(4, 2));
+
+        assertEquals(0, index.ratingCount(0));
+        assertEquals(1, index.ratingCount(1));
+        assertEquals(2, index.ratingCount(2));
+        assertEquals(0, index.ratingCount(3));
+        assertEquals(2, index.ratingCount(4));
+        assertEquals(1, index.ratingCount(5));
+        assertEquals(0, index.ratingCount(6));
+    }
+
+    @Test
+    public void rejectsFilesTooLargeToMap() {
+        Path path = new Path(folder.getRoot().getAbsolutePath(), SeenItemsIndex.FILE_NAME);
+        try {
+            SeenItemsIndex.checkMappable(Integer.MAX_VALUE + 1L, path);
+            fail("a file over 2 GB cannot be mapped");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains(path.toString()));
+        }
+    }
+}
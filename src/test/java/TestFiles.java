@@ -0,0 +1,94 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+
+/**
+ * TestFiles writes the SequenceFiles the jobs hand over to each other, for the tests of the side files and jobs that
+ * read them.
+ */
+class TestFiles {
+
+    private TestFiles() {
+    }
+
+    static Configuration localConf() {
+        Configuration conf = new Configuration();
+        conf.set("fs.default.name", "file:///");
+        return conf;
+    }
+
+    /**
+     * Writes a DataDividerByUser output part: ratings[user] holds movie, rating pairs.
+     */
+    static void writeUserLists(Configuration conf, Path part, int[] users, double[][] ratings) throws IOException {
+        FileSystem fileSystem = part.getFileSystem(conf);
+        SequenceFile.Writer writer = SequenceFile.createWriter(fileSystem, conf, part,
+                IntWritable.class, MovieRatingListWritable.class);
+        IntWritable user = new IntWritable();
+        MovieRatingListWritable movies = new MovieRatingListWritable();
+        for (int i = 0; i < users.length; i++) {
+            user.set(users[i]);
+            movies.clear();
+            for (int j = 0; j < ratings[i].length; j += 2) {
+                movies.add((int) ratings[i][j], ratings[i][j + 1]);
+            }
+            writer.append(user, movies);
+        }
+        writer.close();
+    }
+
+    /**
+     * Writes the encoded ratings the Multiplication RatingMapper reads, one (user, movie:rating) record per rating.
+     */
+    static void writeRatings(Configuration conf, Path part, int[] users, double[][] ratings) throws IOException {
+        FileSystem fileSystem = part.getFileSystem(conf);
+        SequenceFile.Writer writer = SequenceFile.createWriter(fileSystem, conf, part,
+                IntWritable.class, MovieRatingWritable.class);
+        IntWritable user = new IntWritable();
+        MovieRatingWritable rating = new MovieRatingWritable();
+        for (int i = 0; i < users.length; i++) {
+            user.set(users[i]);
+            for (int j = 0; j < ratings[i].length; j += 2) {
+                rating.set((int) ratings[i][j], ratings[i][j + 1]);
+                writer.append(user, rating);
+            }
+        }
+        writer.close();
+    }
+
+    /**
+     * Writes a co-occurrence matrix part of movieA, movieB, relation triples.
+     */
+    static void writeMatrix(Configuration conf, Path part, int[][] cells) throws IOException {
+        FileSystem fileSystem = part.getFileSystem(conf);
+        SequenceFile.Writer writer = SequenceFile.createWriter(fileSystem, conf, part,
+                IntPairWritable.class, IntWritable.class);
+        IntPairWritable moviePair = new IntPairWritable();
+        IntWritable relation = new IntWritable();
+        for (int[] cell : cells) {
+            moviePair.set(cell[0], cell[1]);
+            relation.set(cell[2]);
+            writer.append(moviePair, relation);
+        }
+        writer.close();
+    }
+
+    /**
+     * Writes one dictionary of DictionaryEncoder (name is USERS or MOVIES): originalIds[denseId].
+     */
+    static void writeDictionary(Configuration conf, Path dictionaryDir, String name, String[] originalIds)
+            throws IOException {
+        Path part = new Path(new Path(dictionaryDir, "ids"), name + "-r-00000");
+        SequenceFile.Writer writer = SequenceFile.createWriter(part.getFileSystem(conf), conf, part,
+                Text.class, IntWritable.class);
+        for (int id = 0; id < originalIds.length; id++) {
+            writer.append(new Text(originalIds[id]), new IntWritable(id));
+        }
+        writer.close();
+    }
+}
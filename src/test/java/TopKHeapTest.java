@@ -0,0 +1,96 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TopKHeapTest {
+
+    private static List<double[]> sorted(TopKHeap heap) {
+        heap.sortDescending();
+        List<double[]> entries = new ArrayList<double[]>();
+        for (int i = 0; i < heap.size(); i++) {
+            entries.add(new double[] {heap.id(i), heap.score(i)});
+        }
+        return entries;
+    }
+
+    @Test
+    public void keepsTheBestEntriesFromTheHighestScore() {
+        TopKHeap heap = new TopKHeap(3);
+        heap.offer(1, 2.0);
+        heap.offer(2, 5.0);
+        heap.offer(3, 1.0);
+        heap.offer(4, 4.0);
+        heap.offer(5, 3.0);
+        List<double[]> entries = sorted(heap);
+        assertEquals(3, entries.size());
+        assertEquals(2, (int) entries.get(0)[0]);
+        assertEquals(4, (int) entries.get(1)[0]);
+        assertEquals(5, (int) entries.get(2)[0]);
+    }
+
+    @Test
+    public void breaksTiesByTheLowerId() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(9, 3.0);
+        heap.offer(4, 3.0);
+        heap.offer(7, 3.0);
+        List<double[]> entries = sorted(heap);
+        assertEquals(4, (int) entries.get(0)[0]);
+        assertEquals(7, (int) entries.get(1)[0]);
+    }
+
+    @Test
+    public void doesNotDependOnTheOfferOrder() {
+        Random random = new Random(42);
+        List<double[]> offers = new ArrayList<double[]>();
+        for (int id = 0; id < 200; id++) {
+            // few distinct scores, so many ties
+            offers.add(new double[] {id, random.nextInt(10) / 2.0});
+        }
+        List<double[]> expected = new ArrayList<double[]>(offers);
+        Collections.sort(expected, new Comparator<double[]>() {
+            public int compare(double[] a, double[] b) {
+                int cmp = Double.compare(b[1], a[1]);
+                return cmp != 0 ? cmp : Double.compare(a[0], b[0]);
+            }
+        });
+
+        TopKHeap heap = new TopKHeap(10);
+        for (int round = 0; round < 20; round++) {
+            Collections.shuffle(offers, random);
+            heap.reset();
+            for (double[] offer : offers) {
+                heap.offer((int) offer[0], offer[1]);
+            }
+            List<double[]> entries = sorted(heap);
+            assertEquals(10, entries.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(expected.get(i)[0], entries.get(i)[0], 0);
+                assertEquals(expected.get(i)[1], entries.get(i)[1], 0);
+            }
+        }
+    }
+
+    @Test
+    public void holdsFewerEntriesThanItsCapacity() {
+        TopKHeap heap = new TopKHeap(5);
+        heap.offer(1, 1.0);
+        heap.offer(2, 2.0);
+        List<double[]> entries = sorted(heap);
+        assertEquals(2, entries.size());
+        assertEquals(2, (int) entries.get(0)[0]);
+    }
+
+    @Test
+    public void zeroCapacityKeepsNothing() {
+        TopKHeap heap = new TopKHeap(0);
+        heap.offer(1, 1.0);
+        assertEquals(0, heap.size());
+    }
+}